@@ -0,0 +1,58 @@
+package org.nextstate.statemachine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of a {@link CompiledStateMachine} against {@link StateMachine#execute(int)} on the same synthetic
+ * machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompiledExecuteBenchmark {
+    private static final int EVENTS = 1024;
+
+    @Param({"10", "1000"})
+    int states;
+
+    @Param({"16"})
+    int fanOut;
+
+    StateMachine stateMachine;
+    CompiledStateMachine compiled;
+    int[] eventIds;
+    int next;
+
+    @Setup
+    public void setup() {
+        stateMachine = new SyntheticStateMachine(states, fanOut);
+        compiled = StateMachineCompiler.compile(stateMachine.getDefinition()).get();
+        eventIds = new int[EVENTS];
+        Random random = new Random(42);
+        for (int i = 0; i < EVENTS; i++) {
+            eventIds[i] = stateMachine.eventId(SyntheticStateMachine.eventName(random.nextInt(fanOut)));
+        }
+    }
+
+    @Benchmark
+    public int interpreted() {
+        stateMachine.execute(eventIds[next++ & (EVENTS - 1)]);
+        return stateMachine.getActiveStateId();
+    }
+
+    @Benchmark
+    public int compiled() {
+        compiled.execute(eventIds[next++ & (EVENTS - 1)]);
+        return compiled.getActiveStateId();
+    }
+}
@@ -0,0 +1,64 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Many threads executing events on the same hot machine: {@link ConcurrentStateMachine} compared to a synchronized
+ * execute. Run with different thread counts, e.g. -t 1, -t 4 and -t 16.
+ * <br>
+ * The thread holding the machine does not return while the others submit events, so the threads stop submitting when
+ * the measurement stops. Else the synchronized end of the iteration would wait for it forever.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ContendedExecuteBenchmark {
+    private static final int EVENTS = 1024;
+
+    ConcurrentStateMachine concurrent;
+    StateMachine synchronizedMachine;
+    String[] eventNames;
+
+    @State(Scope.Thread)
+    public static class Events {
+        int next;
+    }
+
+    @Setup
+    public void setup() {
+        concurrent = new ConcurrentStateMachine(new SyntheticStateMachine(10, 16));
+        synchronizedMachine = new SyntheticStateMachine(10, 16);
+        eventNames = new String[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            eventNames[i] = SyntheticStateMachine.eventName(i % 16);
+        }
+    }
+
+    @Benchmark
+    public String handoff(Events events, Control control) {
+        if (control.stopMeasurement) {
+            return concurrent.getActiveStateName();
+        }
+        concurrent.execute(eventNames[events.next++ & (EVENTS - 1)]);
+        return concurrent.getActiveStateName();
+    }
+
+    @Benchmark
+    public String synchronizedExecute(Events events) {
+        synchronized (synchronizedMachine) {
+            synchronizedMachine.execute(eventNames[events.next++ & (EVENTS - 1)]);
+            return synchronizedMachine.getActiveStateName();
+        }
+    }
+}
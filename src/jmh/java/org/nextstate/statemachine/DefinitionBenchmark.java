@@ -0,0 +1,90 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Build time of definitions using {@link SimpleState.StateBuilder} and {@link Transition.TransitionsBuilder},
+ * active state configuration lookup and DOT export of large graphs, whole or the neighborhood of the active state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DefinitionBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int states;
+
+    @Param({"16"})
+    int fanOut;
+
+    StateMachine stateMachine;
+    String lastStateName;
+
+    @Setup
+    public void setup() {
+        stateMachine = new SyntheticStateMachine(states, fanOut);
+        lastStateName = SyntheticStateMachine.stateName(states - 1);
+    }
+
+    @Benchmark
+    public StateMachine build() {
+        return new SyntheticStateMachine(states, fanOut);
+    }
+
+    @Benchmark
+    public String activeStateConfiguration() {
+        stateMachine.activeStateConfiguration(lastStateName);
+        return stateMachine.getActiveStateName();
+    }
+
+    @Benchmark
+    public int toDot() {
+        return stateMachine.toDot(true).length();
+    }
+
+    @Benchmark
+    public long toDotStreamed() throws IOException {
+        CountingAppendable out = new CountingAppendable();
+        stateMachine.dot().write(out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long toDotNeighborhood() throws IOException {
+        CountingAppendable out = new CountingAppendable();
+        stateMachine.dot().neighborhood(2).write(out);
+        return out.count;
+    }
+
+    /**
+     * Discards the output, as a channel to a socket would not keep it.
+     */
+    static final class CountingAppendable implements Appendable {
+        long count;
+
+        @Override public Appendable append(CharSequence csq) {
+            count += csq.length();
+            return this;
+        }
+
+        @Override public Appendable append(CharSequence csq, int start, int end) {
+            count += end - start;
+            return this;
+        }
+
+        @Override public Appendable append(char c) {
+            count++;
+            return this;
+        }
+    }
+}
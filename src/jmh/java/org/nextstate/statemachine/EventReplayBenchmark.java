@@ -0,0 +1,68 @@
+package org.nextstate.statemachine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Replaying a log of events spread over many sessions with {@link EventReplay} against executing each event on a
+ * {@link StateMachine} per session on one thread, as a replay loop would without the engine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class EventReplayBenchmark {
+    private static final int EVENTS = 1 << 22;
+
+    @Param({"100000"})
+    int sessions;
+
+    StateMachineDefinition definition;
+    int[] instanceIds;
+    int[] eventIds;
+
+    @Setup
+    public void setup() {
+        definition = new SyntheticStateMachine(1000, 16).getDefinition();
+        instanceIds = new int[EVENTS];
+        eventIds = new int[EVENTS];
+        Random random = new Random(42);
+        for (int i = 0; i < EVENTS; i++) {
+            instanceIds[i] = random.nextInt(sessions);
+            eventIds[i] = definition.eventId(SyntheticStateMachine.eventName(random.nextInt(16)));
+        }
+    }
+
+    @Benchmark
+    public long sessionLoop() {
+        StateMachine[] machines = new StateMachine[sessions];
+        for (int i = 0; i < EVENTS; i++) {
+            StateMachine machine = machines[instanceIds[i]];
+            if (machine == null) {
+                machine = definition.newInstance();
+                machines[instanceIds[i]] = machine;
+            }
+            machine.execute(eventIds[i]);
+        }
+        long sum = 0;
+        for (StateMachine machine : machines) {
+            sum += machine == null ? 0 : machine.getActiveStateId();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long replay() {
+        return EventReplay.replay(definition).run(instanceIds, eventIds).getSessions();
+    }
+}
@@ -0,0 +1,129 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of {@link StateMachine#execute(String)} and {@link StateMachine#execute(int)} on synthetic machines, and
+ * of {@link StateMachine#execute(Event)} with an event resolved by its superclass on a ring of as many states. Run with the gc profiler to get allocation per event (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecuteBenchmark {
+    private static final int EVENTS = 1024;
+
+    @Param({"10", "1000", "100000"})
+    int states;
+
+    @Param({"16"})
+    int fanOut;
+
+    StateMachine stateMachine;
+    StateMachine measuredStateMachine;
+    StateMachine typedStateMachine;
+    Event event = new Tock();
+    StateMachinePool pool;
+    String[] eventNames;
+    int[] eventIds;
+    int[] instanceIds;
+    int next;
+
+    @Setup
+    public void setup() {
+        stateMachine = new SyntheticStateMachine(states, fanOut);
+        measuredStateMachine = new SyntheticStateMachine(states, fanOut);
+        measuredStateMachine.getDefinition().enableMetrics();
+        typedStateMachine = new TypedRing(states);
+        pool = new StateMachinePool(stateMachine.getDefinition(), EVENTS);
+        instanceIds = new int[EVENTS];
+        pool.allocate(instanceIds);
+        eventNames = new String[EVENTS];
+        eventIds = new int[EVENTS];
+        Random random = new Random(42);
+        for (int i = 0; i < EVENTS; i++) {
+            eventNames[i] = SyntheticStateMachine.eventName(random.nextInt(fanOut));
+            eventIds[i] = stateMachine.eventId(eventNames[i]);
+        }
+    }
+
+    @Benchmark
+    public String executeByName() {
+        stateMachine.execute(eventNames[next++ & (EVENTS - 1)]);
+        return stateMachine.getActiveStateName();
+    }
+
+    @Benchmark
+    public String executeByEventId() {
+        stateMachine.execute(eventIds[next++ & (EVENTS - 1)]);
+        return stateMachine.getActiveStateName();
+    }
+
+    @Benchmark
+    public String executeWithMetrics() {
+        measuredStateMachine.execute(eventIds[next++ & (EVENTS - 1)]);
+        return measuredStateMachine.getActiveStateName();
+    }
+
+    @Benchmark
+    public String executeEventObject() {
+        typedStateMachine.execute(event);
+        return typedStateMachine.getActiveStateName();
+    }
+
+    @Benchmark
+    public int poolExecuteByEventId() {
+        int i = next++ & (EVENTS - 1);
+        pool.execute(i, eventIds[i]);
+        return pool.getActiveStateId(i);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int poolExecuteAll() {
+        return pool.executeAll(instanceIds, eventIds).cardinality();
+    }
+
+    @Benchmark
+    public String executeUnmatched() {
+        stateMachine.execute("NoSuchEvent");
+        return stateMachine.getActiveStateName();
+    }
+
+    static class Tick implements Event {
+    }
+
+    static final class Tock extends Tick {
+    }
+
+    /**
+     * Each state goes to the next guarded by Tick.
+     */
+    static final class TypedRing extends StateMachine {
+        TypedRing(int stateCount) {
+            List<SimpleState> ring = new ArrayList<>(stateCount);
+            for (int i = 0; i < stateCount; i++) {
+                ring.add(SimpleState.state(SyntheticStateMachine.stateName(i)).build());
+            }
+            for (int i = 0; i < stateCount; i++) {
+                ring.get(i).addTransitions(Transition.transitions().transition("Tick")
+                        .guardedBy(Tick.class).to(ring.get((i + 1) % stateCount)).build());
+            }
+            addStates(new ArrayList<>(ring));
+            activeState(ring.get(0));
+            validate();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.nextstate.statemachine;
+
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.HUNG_UP;
+import static org.nextstate.statemachine.PhoneStateMachine.PLACED_ON_HOLD;
+import static org.nextstate.statemachine.PhoneStateMachine.TOOK_OFF_HOLD;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A call on the {@link PhoneStateMachine}: dial, connect, hold, take off hold and hang up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PhoneStateMachineBenchmark {
+    private static final String[] CALL = {CALL_DIALED, CALL_CONNECTED, PLACED_ON_HOLD, TOOK_OFF_HOLD, HUNG_UP};
+
+    StateMachine phone;
+    PrintStream out;
+
+    @Setup
+    public void setup() {
+        // The phone actions print to System.out
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override public void write(int b) {
+            }
+        }));
+        phone = new PhoneStateMachine();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public StateMachine newPhone() {
+        return new PhoneStateMachine();
+    }
+
+    @Benchmark
+    public String call() {
+        for (String event : CALL) {
+            phone.execute(event);
+        }
+        return phone.getActiveStateName();
+    }
+}
@@ -0,0 +1,95 @@
+package org.nextstate.statemachine;
+
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.HUNG_UP;
+import static org.nextstate.statemachine.PhoneStateMachine.PLACED_ON_HOLD;
+import static org.nextstate.statemachine.PhoneStateMachine.TOOK_OFF_HOLD;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Throughput and latency of {@link ShardedDispatcher} with 1 to 32 shards on the {@link PhoneStateMachine} workload.
+ * Producers publish calls (dial, connect, hold, take off hold, hang up) for 10k sessions. Scaling requires at least
+ * as many cores as producer threads plus shards.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ShardedDispatcherBenchmark {
+    private static final String[] CALL = {CALL_DIALED, CALL_CONNECTED, PLACED_ON_HOLD, TOOK_OFF_HOLD, HUNG_UP};
+    private static final int SESSIONS = 10_000;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    int shards;
+
+    @Param({"YIELDING"})
+    WaitStrategy waitStrategy;
+
+    ShardedDispatcher<Integer> dispatcher;
+    // Events executed per session, used to wait for the round trip
+    AtomicLongArray executed;
+    PrintStream out;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        int next;
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        // The phone actions print to System.out
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override public void write(int b) {
+            }
+        }));
+        executed = new AtomicLongArray(SESSIONS);
+        dispatcher = new ShardedDispatcher<>(shards, 1024, waitStrategy, key -> new PhoneStateMachine(),
+                (key, machine) -> executed.lazySet(key, executed.get(key) + 1));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        dispatcher.close();
+        System.setOut(out);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void publish(Producer producer) {
+        int n = producer.next++;
+        dispatcher.publish(n % SESSIONS, CALL[(n / SESSIONS) % CALL.length]);
+    }
+
+    /**
+     * Time from publish until the event is executed. Each producer thread uses its own sessions.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public long roundTrip(Producer producer) {
+        int session = (int) (Thread.currentThread().getId() % SESSIONS);
+        long expected = executed.get(session) + 1;
+        dispatcher.publish(session, CALL[producer.next++ % CALL.length]);
+        long count;
+        while ((count = executed.get(session)) < expected) {
+            Thread.yield();
+        }
+        return count;
+    }
+}
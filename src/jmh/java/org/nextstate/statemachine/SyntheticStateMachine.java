@@ -0,0 +1,44 @@
+package org.nextstate.statemachine;
+
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.Transition.transitions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generated state machine with a given number of states where every state has a transition for each of the
+ * fan-out events. Event Ek from state i goes to state (i * 31 + k + 1) % states.
+ */
+class SyntheticStateMachine extends StateMachine {
+
+    SyntheticStateMachine(int stateCount, int fanOut) {
+        List<SimpleState> states = new ArrayList<>(stateCount);
+        for (int i = 0; i < stateCount; i++) {
+            states.add(state(stateName(i)).onEntry(() -> { }, "Entry").build());
+        }
+        for (int i = 0; i < stateCount; i++) {
+            Transition.TransitionsBuilder builder = transitions();
+            for (int k = 0; k < fanOut; k++) {
+                builder.transition("T" + k).guardedBy(eventName(k))
+                        .to(states.get(target(i, k, stateCount)));
+            }
+            states.get(i).addTransitions(builder.build());
+        }
+        addStates(new ArrayList<>(states));
+        activeState(states.get(0));
+        validate();
+    }
+
+    static String stateName(int i) {
+        return "State " + i;
+    }
+
+    static String eventName(int k) {
+        return "E" + k;
+    }
+
+    static int target(int state, int event, int stateCount) {
+        return (int) ((state * 31L + event + 1) % stateCount);
+    }
+}
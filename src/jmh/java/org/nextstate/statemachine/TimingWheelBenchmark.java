@@ -0,0 +1,136 @@
+package org.nextstate.statemachine;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Rescheduling one of many armed timers, e.g. a session leaving and entering a state with a timeout, on a
+ * {@link TimingWheel} against a {@link ScheduledThreadPoolExecutor} with a task per timer. The timers are spread over
+ * a minute. Advancing the wheel a tick expires and rearms the timers due.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class TimingWheelBenchmark {
+    private static final long SPREAD_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int DELAYS = 1024;
+
+    @State(Scope.Thread)
+    public static class Wheel {
+        @Param({"10000000"})
+        int armed;
+
+        long now;
+        TimingWheel wheel;
+        RearmingTimer[] timers;
+        long[] delays;
+        int next;
+
+        @Setup
+        public void setup() {
+            wheel = new TimingWheel(() -> now, Duration.ofMillis(1));
+            delays = delays();
+            timers = new RearmingTimer[armed];
+            Random random = new Random(42);
+            for (int i = 0; i < armed; i++) {
+                timers[i] = new RearmingTimer(wheel);
+                wheel.schedule(timers[i], (long) (random.nextDouble() * SPREAD_NANOS));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Executor {
+        @Param({"10000000"})
+        int armed;
+
+        ScheduledThreadPoolExecutor executor;
+        ScheduledFuture<?>[] futures;
+        long[] delays;
+        int next;
+
+        @Setup
+        public void setup() {
+            executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            delays = delays();
+            futures = new ScheduledFuture<?>[armed];
+            Random random = new Random(42);
+            for (int i = 0; i < armed; i++) {
+                futures[i] = executor.schedule(Executor::expired, 60 + (long) (random.nextDouble() * SPREAD_NANOS),
+                        TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+
+        private static void expired() {
+        }
+    }
+
+    /**
+     * Expired timers are scheduled again a minute later so the number armed stays the same.
+     */
+    static final class RearmingTimer extends TimingWheel.Timer {
+        private final TimingWheel wheel;
+
+        RearmingTimer(TimingWheel wheel) {
+            this.wheel = wheel;
+        }
+
+        @Override protected void expired() {
+            wheel.schedule(this, SPREAD_NANOS);
+        }
+    }
+
+    private static long[] delays() {
+        long[] delays = new long[DELAYS];
+        Random random = new Random(7);
+        for (int i = 0; i < DELAYS; i++) {
+            delays[i] = (long) (random.nextDouble() * SPREAD_NANOS);
+        }
+        return delays;
+    }
+
+    @Benchmark
+    public int wheelReschedule(Wheel state) {
+        int i = state.next++;
+        int index = (int) ((i * 0x9E3779B97F4A7C15L) >>> 40) % state.armed;
+        state.wheel.schedule(state.timers[index], state.delays[i & (DELAYS - 1)]);
+        return index;
+    }
+
+    @Benchmark
+    public int wheelAdvanceTick(Wheel state) {
+        state.now += TimeUnit.MILLISECONDS.toNanos(1);
+        return state.wheel.advance();
+    }
+
+    @Benchmark
+    public int executorReschedule(Executor state) {
+        int i = state.next++;
+        int index = (int) ((i * 0x9E3779B97F4A7C15L) >>> 40) % state.armed;
+        state.futures[index].cancel(false);
+        state.futures[index] = state.executor.schedule(Executor::expired, SPREAD_NANOS + state.delays[i & (DELAYS - 1)],
+                TimeUnit.NANOSECONDS);
+        return index;
+    }
+}
@@ -0,0 +1,49 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An action that starts asynchronous work, e.g. a remote call, and returns the stage completed when the work is done.
+ * Use it as transition, entry or exit action like any {@link Action}. The transition always completes without
+ * waiting, the {@link Policy} decides when the next event is executed.
+ * <br>
+ * On a {@link StateMachineExecutor.Mailbox} a {@link Policy#WAIT} action holds back the next events of the state
+ * machine until the stage completes, the result of the event completes after the stage. A {@link Policy#CONTINUE}
+ * action only counts against the in-flight bounds of the executor and its failure is not reported, handle it in the
+ * stage. Executed directly on a {@link StateMachine} the thread blocks until a waiting action completes.
+ */
+@FunctionalInterface
+public interface AsyncAction extends Action {
+
+    enum Policy {
+        /** The next event is executed after the stage completes */
+        WAIT,
+        /** The next event is executed at once */
+        CONTINUE
+    }
+
+    CompletionStage<?> performAsync();
+
+    default Policy getPolicy() {
+        return Policy.WAIT;
+    }
+
+    @Override default void perform() {
+        StateMachineExecutor.started(performAsync(), getPolicy());
+    }
+
+    /**
+     * @return the action with the {@link Policy#CONTINUE} policy
+     */
+    static AsyncAction continuing(AsyncAction action) {
+        return new AsyncAction() {
+            @Override public CompletionStage<?> performAsync() {
+                return action.performAsync();
+            }
+
+            @Override public Policy getPolicy() {
+                return Policy.CONTINUE;
+            }
+        };
+    }
+}
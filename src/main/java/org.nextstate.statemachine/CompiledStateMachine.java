@@ -0,0 +1,121 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class of the state machines generated by {@link StateMachineCompiler}. The generated subclass looks up the
+ * target of the active state id and event id in a flat table and switches on the sequence of actions of the
+ * {@link TransitionPath}, the actions are held in static final fields so the JIT can inline them.
+ * <br>
+ * Takes the same transitions and performs the same actions as a {@link StateMachine} session of the definition, with
+ * these differences:
+ * <ul>
+ * <li>listeners and metrics of the definition are not notified</li>
+ * <li>events are executed by name or id, there is no {@code execute(Event)} and no event object for actions</li>
+ * <li>there is no run-to-completion queue, an action executing an event fails</li>
+ * <li>there are no timers, orthogonal regions or context, definitions with timed transitions or predicate guards
+ * are rejected by the compiler</li>
+ * </ul>
+ * Not thread safe.
+ */
+public abstract class CompiledStateMachine {
+    // Tables handed to the static initializer of a generated class by class name
+    private static final Map<String, Tables> TABLES = new ConcurrentHashMap<>();
+
+    private final StateMachineDefinition definition;
+    protected int activeStateId;
+    // True while an event is dispatched
+    private boolean dispatching;
+
+    /**
+     * Enter the initial state.
+     */
+    protected CompiledStateMachine(StateMachineDefinition definition) {
+        this.definition = definition;
+        TransitionPath initialPath = definition.getInitialPath();
+        this.activeStateId = initialPath.getTarget().getId();
+        initialPath.performEntry();
+    }
+
+    /**
+     * Execute the event on the active state.
+     *
+     * @return false if no transition match
+     */
+    protected abstract boolean dispatch(int eventId);
+
+    public void execute(String event) {
+        execute(definition.eventId(event));
+    }
+
+    /**
+     * Execute the event given by the id from {@link StateMachineDefinition#eventId(String)}.
+     *
+     * @throws IllegalStateException if called from an action, the event would run in the middle of a transition
+     */
+    public void execute(int eventId) {
+        if (dispatching) {
+            throw new IllegalStateException("An action of " + definition.getName() + " executed an event, a compiled "
+                    + "state machine does not queue raised events");
+        }
+        dispatching = true;
+        try {
+            dispatch(eventId);
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    public int getActiveStateId() {
+        return activeStateId;
+    }
+
+    public State getActiveState() {
+        return definition.state(activeStateId);
+    }
+
+    public String getActiveStateName() {
+        return getActiveState().getName();
+    }
+
+    /**
+     * Set the active state by id without performing any actions.
+     */
+    public void activeStateConfiguration(int stateId) {
+        activeStateId = TransitionPath.drillDown(definition.state(stateId), new ArrayList<>()).getId();
+    }
+
+    static void handOver(String className, Tables tables) {
+        TABLES.put(className, tables);
+    }
+
+    /**
+     * Called once by the static initializer of the generated class.
+     */
+    protected static Tables takeOver(String className) {
+        return TABLES.remove(className);
+    }
+
+    /**
+     * Constants of a generated class, indexed by {@code stateId * eventCount + eventId}.
+     */
+    protected static final class Tables {
+        public final Action[] actions;
+        // Id of the new active state
+        public final int[] targets;
+        // Case of the action sequence of the path, 0 if no transition
+        public final int[] sequences;
+
+        Tables(Action[] actions, int[] targets, int[] sequences) {
+            this.actions = actions;
+            this.targets = targets;
+            this.sequences = sequences;
+        }
+    }
+}
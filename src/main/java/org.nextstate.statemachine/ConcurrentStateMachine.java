@@ -0,0 +1,127 @@
+package org.nextstate.statemachine;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe run-to-completion execution of a {@link StateMachine} without a lock.
+ * <br>
+ * Events are put on a lock-free queue. The thread that finds the machine idle takes it and executes its own event
+ * and the events queued by other threads meanwhile, one at the time. The other threads return as soon as their event
+ * is handed off. The active state is published after each event so it can be read from any thread. The thread holding
+ * the machine keeps executing events as long as other threads submit them. Each producer learns the outcome of its
+ * own event from the result returned by {@code execute}.
+ * <br>
+ * All events must go through this class, do not execute events directly on the wrapped state machine. Expired timers
+ * of timed transitions are queued like events.
+ */
+public class ConcurrentStateMachine {
+    private final StateMachine stateMachine;
+    // Event names, event objects and expired timers with the result of the producer
+    private final Queue<Submission> events = new ConcurrentLinkedQueue<>();
+    // Number of queued events not yet executed. The thread incrementing from zero executes the events.
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile State activeState;
+
+    public ConcurrentStateMachine(StateMachine stateMachine) {
+        this.stateMachine = stateMachine;
+        this.activeState = stateMachine.getActiveState();
+        stateMachine.setTimerExecutor(timer -> submit(timer, null));
+    }
+
+    /**
+     * Execute the event on this thread or hand it off to the thread currently executing events on the machine.
+     * An exception thrown by an action completes the result of the event exceptionally. It is also thrown to the
+     * thread that executes its own event, after the queue is drained, never to a thread executing the events of
+     * others. The failure of an expired timer is thrown to the thread executing it.
+     *
+     * @return completed when the event is executed
+     */
+    public CompletableFuture<Void> execute(String event) {
+        return submit(event, new CompletableFuture<>());
+    }
+
+    /**
+     * Execute the event object like {@link #execute(String)}, see {@link StateMachine#execute(Event)}.
+     */
+    public CompletableFuture<Void> execute(Event event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event must not be null");
+        }
+        return submit(event, new CompletableFuture<>());
+    }
+
+    /**
+     * @param result null for an expired timer
+     */
+    private CompletableFuture<Void> submit(Object event, CompletableFuture<Void> result) {
+        Submission own = new Submission(event, result);
+        events.offer(own);
+        if (pending.getAndIncrement() != 0) {
+            return result;
+        }
+
+        RuntimeException failure = null;
+        do {
+            Submission next = events.poll();
+            try {
+                if (next.event instanceof Event) {
+                    stateMachine.execute((Event) next.event);
+                } else if (next.event instanceof Runnable) {
+                    ((Runnable) next.event).run();
+                } else {
+                    stateMachine.execute((String) next.event);
+                }
+                if (next.result != null) {
+                    next.result.complete(null);
+                }
+            } catch (RuntimeException e) {
+                if (next.result != null) {
+                    next.result.completeExceptionally(e);
+                }
+                // The producers of the other events get the failure from their result
+                if (next == own || next.result == null) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            } finally {
+                activeState = stateMachine.getActiveState();
+            }
+        } while (pending.decrementAndGet() != 0);
+
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    public State getActiveState() {
+        return activeState;
+    }
+
+    public String getActiveStateName() {
+        return activeState.getName();
+    }
+
+    public String getName() {
+        return stateMachine.getName();
+    }
+
+    /**
+     * An event and the result of its producer, null for an expired timer.
+     */
+    private static final class Submission {
+        final Object event;
+        final CompletableFuture<Void> result;
+
+        Submission(Object event, CompletableFuture<Void> result) {
+            this.event = event;
+            this.result = result;
+        }
+    }
+}
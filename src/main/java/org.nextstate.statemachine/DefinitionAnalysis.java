@@ -0,0 +1,298 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structural analysis of a {@link StateMachineDefinition} in time linear in the number of states and transitions,
+ * computed once per definition by {@link StateMachineDefinition#analysis()}.
+ * <br>
+ * A definition is {@link #isValid() valid} if every state is reachable from the initial state, no transition is
+ * shadowed by an earlier transition of the same state guarded by the same event without a predicate guard and no two
+ * states have the same name.
+ * Dead ends and states that can not reach a {@link FinalState} are reported but may be intended, e.g. a phone that is
+ * destroyed.
+ * <br>
+ * Entering a composite state enters its initial substate, and the transitions of a composite state apply to all its
+ * substates. A transition of a composite state overridden by a substate for the same event is still counted as
+ * leading out of the substate when deciding if a final state can be reached.
+ */
+public final class DefinitionAnalysis {
+    private final List<State> unreachableStates;
+    private final List<State> deadEndStates;
+    private final List<State> statesNotReachingFinalState;
+    private final List<Transition> shadowedTransitions;
+    private final List<String> duplicateStateNames;
+    private final boolean[] transitionToFinalState;
+
+    DefinitionAnalysis(StateMachineDefinition definition) {
+        StateGraph graph = definition.graph();
+        List<State> states = definition.getStates();
+        int n = graph.stateCount;
+        int[] parents = new int[n];
+        int[] initialSubstates = new int[n];
+        for (State state : states) {
+            parents[state.getId()] = state.getParent().map(State::getId).orElse(-1);
+            initialSubstates[state.getId()] = state.getInitialSubstate().map(State::getId).orElse(-1);
+        }
+
+        shadowedTransitions = shadowed(definition, graph);
+        boolean[] shadowedEdges = new boolean[graph.outTarget.length];
+        for (Transition transition : shadowedTransitions) {
+            shadowedEdges[transition.getId()] = true;
+        }
+        unreachableStates = unreachable(definition, graph, shadowedEdges, parents, initialSubstates);
+        deadEndStates = deadEnds(states, graph, parents);
+        statesNotReachingFinalState = notReachingFinalState(states, graph, parents, initialSubstates);
+        duplicateStateNames = duplicateNames(states);
+        transitionToFinalState = new boolean[n];
+        for (State state : states) {
+            transitionToFinalState[state.getId()] = SimpleState.transitionToFinalState(state.getTransitions());
+        }
+    }
+
+    /**
+     * Breadth first from the initial state. A transition that is not shadowed, entering a composite state or being in
+     * a substate reaches the target, the initial substate and the parent.
+     */
+    private static List<State> unreachable(StateMachineDefinition definition, StateGraph graph,
+                                           boolean[] shadowedEdges, int[] parents, int[] initialSubstates) {
+        int n = graph.stateCount;
+        boolean[] reached = new boolean[n];
+        int[] queue = new int[n];
+        int tail = 0;
+        queue[tail++] = definition.getInitialState().getId();
+        reached[queue[0]] = true;
+        for (int head = 0; head < tail; head++) {
+            int state = queue[head];
+            for (int e = graph.outStart[state]; e < graph.outStart[state + 1]; e++) {
+                if (!shadowedEdges[e]) {
+                    tail = reach(graph.outTarget[e], reached, queue, tail);
+                }
+            }
+            tail = reach(initialSubstates[state], reached, queue, tail);
+            tail = reach(parents[state], reached, queue, tail);
+        }
+        List<State> unreachable = new ArrayList<>();
+        for (int s = 0; s < n; s++) {
+            if (!reached[s]) {
+                unreachable.add(definition.state(s));
+            }
+        }
+        return Collections.unmodifiableList(unreachable);
+    }
+
+    private static int reach(int state, boolean[] reached, int[] queue, int tail) {
+        if (state >= 0 && !reached[state]) {
+            reached[state] = true;
+            queue[tail++] = state;
+        }
+        return tail;
+    }
+
+    /**
+     * States without substates that are not final and have no transition of their own or inherited.
+     */
+    private static List<State> deadEnds(List<State> states, StateGraph graph, int[] parents) {
+        // 0 unknown, 1 without transitions, 2 with transitions, for the state and its ancestors
+        byte[] hasTransitions = new byte[graph.stateCount];
+        List<State> deadEnds = new ArrayList<>();
+        for (State state : states) {
+            if (state.getSubstates().isEmpty() && !(state instanceof FinalState)
+                    && !hasTransitions(state.getId(), graph, parents, hasTransitions)) {
+                deadEnds.add(state);
+            }
+        }
+        return Collections.unmodifiableList(deadEnds);
+    }
+
+    private static boolean hasTransitions(int state, StateGraph graph, int[] parents, byte[] memo) {
+        if (memo[state] == 0) {
+            boolean own = graph.outStart[state + 1] > graph.outStart[state];
+            memo[state] = (byte) (own || parents[state] >= 0 && hasTransitions(parents[state], graph, parents, memo)
+                    ? 2 : 1);
+        }
+        return memo[state] == 2;
+    }
+
+    /**
+     * Backwards from the final states: entering a state reaches a final state if it is final, if the initial
+     * substate does or if the state is left by a transition to a state that does. A transition of a composite state
+     * leaves all its substates. Empty if the definition has no final state.
+     */
+    private static List<State> notReachingFinalState(List<State> states, StateGraph graph, int[] parents,
+                                                     int[] initialSubstates) {
+        int n = graph.stateCount;
+        boolean[] entering = new boolean[n];
+        // Every state without substates in the state is left towards a final state
+        boolean[] leaving = new boolean[n];
+        int[] queue = new int[n];
+        int tail = 0;
+        for (State state : states) {
+            if (state instanceof FinalState) {
+                entering[state.getId()] = true;
+                queue[tail++] = state.getId();
+            }
+        }
+        if (tail == 0) {
+            return Collections.emptyList();
+        }
+        for (int head = 0; head < tail; head++) {
+            int state = queue[head];
+            int parent = parents[state];
+            if (parent >= 0 && initialSubstates[parent] == state && !entering[parent]) {
+                entering[parent] = true;
+                queue[tail++] = parent;
+            }
+            for (int e = graph.inStart[state]; e < graph.inStart[state + 1]; e++) {
+                tail = leave(states.get(graph.inSource[e]), entering, leaving, queue, tail);
+            }
+        }
+        List<State> notReaching = new ArrayList<>();
+        for (State state : states) {
+            if (state.getSubstates().isEmpty() && !entering[state.getId()]) {
+                notReaching.add(state);
+            }
+        }
+        return Collections.unmodifiableList(notReaching);
+    }
+
+    private static int leave(State state, boolean[] entering, boolean[] leaving, int[] queue, int tail) {
+        int id = state.getId();
+        if (leaving[id]) {
+            return tail;
+        }
+        leaving[id] = true;
+        if (state.getSubstates().isEmpty()) {
+            if (!entering[id]) {
+                entering[id] = true;
+                queue[tail++] = id;
+            }
+            return tail;
+        }
+        for (State substate : state.getSubstates()) {
+            tail = leave(substate, entering, leaving, queue, tail);
+        }
+        return tail;
+    }
+
+    /**
+     * Transitions after the first of the same state guarded by the same event without a predicate guard, they never
+     * fire.
+     */
+    private static List<Transition> shadowed(StateMachineDefinition definition, StateGraph graph) {
+        // State id + 1 of the last state with a transition guarded by the event
+        int[] seen = new int[definition.getEvents().size()];
+        List<Transition> transitions = definition.getTransitions();
+        List<Transition> shadowed = new ArrayList<>();
+        for (int s = 0; s < graph.stateCount; s++) {
+            for (int e = graph.outStart[s]; e < graph.outStart[s + 1]; e++) {
+                Transition transition = transitions.get(e);
+                int eventId = definition.eventId(transition.guardEvent);
+                if (eventId < 0) {
+                    continue;
+                }
+                if (seen[eventId] == s + 1) {
+                    shadowed.add(transition);
+                } else if (transition.guard == null) {
+                    seen[eventId] = s + 1;
+                }
+            }
+        }
+        return Collections.unmodifiableList(shadowed);
+    }
+
+    private static List<String> duplicateNames(List<State> states) {
+        Map<String, Integer> counts = new HashMap<>();
+        List<String> duplicates = new ArrayList<>();
+        for (State state : states) {
+            if (counts.merge(state.getName(), 1, Integer::sum) == 2) {
+                duplicates.add(state.getName());
+            }
+        }
+        return Collections.unmodifiableList(duplicates);
+    }
+
+    /**
+     * @return states not reachable from the initial state, by id
+     */
+    public List<State> getUnreachableStates() {
+        return unreachableStates;
+    }
+
+    /**
+     * @return states without substates that are not final and have no transitions, by id
+     */
+    public List<State> getDeadEndStates() {
+        return deadEndStates;
+    }
+
+    /**
+     * @return states without substates that can not reach a final state, empty if the definition has no final state
+     */
+    public List<State> getStatesNotReachingFinalState() {
+        return statesNotReachingFinalState;
+    }
+
+    /**
+     * @return transitions that never fire since an earlier transition of the state is guarded by the same event
+     */
+    public List<Transition> getShadowedTransitions() {
+        return shadowedTransitions;
+    }
+
+    /**
+     * @return names of more than one state
+     */
+    public List<String> getDuplicateStateNames() {
+        return duplicateStateNames;
+    }
+
+    /**
+     * @see State#transitionToFinalState()
+     */
+    public boolean transitionToFinalState(int stateId) {
+        return transitionToFinalState[stateId];
+    }
+
+    /**
+     * @return true if all states are reachable, no transition is shadowed and the state names are unique
+     */
+    public boolean isValid() {
+        return unreachableStates.isEmpty() && shadowedTransitions.isEmpty() && duplicateStateNames.isEmpty();
+    }
+
+    /**
+     * @return the findings, one per line
+     */
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendStates(sb, "Unreachable states", unreachableStates);
+        if (!shadowedTransitions.isEmpty()) {
+            List<String> names = new ArrayList<>();
+            for (Transition transition : shadowedTransitions) {
+                names.add(transition.getName() + " on " + transition.guardEvent);
+            }
+            sb.append("Shadowed transitions: ").append(names).append(System.lineSeparator());
+        }
+        if (!duplicateStateNames.isEmpty()) {
+            sb.append("Duplicate state names: ").append(duplicateStateNames).append(System.lineSeparator());
+        }
+        appendStates(sb, "Dead end states", deadEndStates);
+        appendStates(sb, "States not reaching a final state", statesNotReachingFinalState);
+        return sb.toString();
+    }
+
+    private static void appendStates(StringBuilder sb, String finding, List<State> states) {
+        if (!states.isEmpty()) {
+            List<String> names = new ArrayList<>();
+            for (State state : states) {
+                names.add(state.getName());
+            }
+            sb.append(finding).append(": ").append(names).append(System.lineSeparator());
+        }
+    }
+}
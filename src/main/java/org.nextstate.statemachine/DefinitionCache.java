@@ -0,0 +1,445 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compiled {@link StateMachineDefinition} in a binary file, written once after a definition source is parsed and
+ * memory-mapped on later loads. The states, events and fingerprint are read when the file is loaded, the transitions
+ * of a state are read from the mapping the first time they are needed.
+ * <br>
+ * Layout, little endian:
+ * <pre>
+ *  0 magic             int
+ *  4 version           int
+ *  8 content hash      long  of the source the definition is parsed from
+ * 16 fingerprint       long  {@link StateMachineDefinition#getFingerprint()}
+ * 24 state count       int
+ * 28 initial state id  int
+ * 32 string count      int
+ * 36 event count       int
+ * 40 action count      int
+ * 44 substate count    int
+ * 48 transition count  int
+ * 52 name              int   string index
+ * 56 strings           UTF-8 length int followed by the bytes
+ *    events            int[] string index by event id
+ *    actions           int[] string index of the action names
+ *    states            int[9] name, parent id, initial substate id, entry action, exit action, first substate,
+ *                             substate count, first transition, transition count
+ *    substates         int[] state ids
+ *    transitions       int[4] event id, target id, name, action by transition id
+ * </pre>
+ * Missing parents, states, names and actions are -1. Written to a temporary file and moved in place so a cache file is
+ * always complete.
+ */
+final class DefinitionCache {
+    private static final int MAGIC = 0x4e534446;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 56;
+    private static final int STATE_INTS = 9;
+    private static final int TRANSITION_INTS = 4;
+
+    private DefinitionCache() {
+    }
+
+    /**
+     * @param actionNames name of each action of the definition
+     */
+    static void write(Path file, long contentHash, StateMachineDefinition definition, Map<Action, String> actionNames)
+            throws IOException {
+        Strings strings = new Strings();
+        int name = strings.indexOf(definition.getName());
+        EventRegistry events = definition.getEvents();
+        int[] eventNames = new int[events.size()];
+        for (int i = 0; i < eventNames.length; i++) {
+            eventNames[i] = strings.indexOf(events.nameOf(i));
+        }
+        List<String> actions = new ArrayList<>();
+        Map<Action, Integer> actionIds = new IdentityHashMap<>();
+        List<State> states = definition.getStates();
+        int[] stateRecords = new int[states.size() * STATE_INTS];
+        List<Integer> substates = new ArrayList<>();
+        List<Transition> transitions = definition.getTransitions();
+        int[] transitionRecords = new int[transitions.size() * TRANSITION_INTS];
+        int firstTransition = 0;
+        for (State state : states) {
+            int r = state.getId() * STATE_INTS;
+            stateRecords[r] = strings.indexOf(state.getName());
+            stateRecords[r + 1] = state.getParent().map(State::getId).orElse(-1);
+            stateRecords[r + 2] = state.getInitialSubstate().map(State::getId).orElse(-1);
+            stateRecords[r + 3] = actionId(state.getEntry().orElse(null), actionIds, actions, actionNames);
+            stateRecords[r + 4] = actionId(state.getExit().orElse(null), actionIds, actions, actionNames);
+            stateRecords[r + 5] = substates.size();
+            stateRecords[r + 6] = state.getSubstates().size();
+            for (State substate : state.getSubstates()) {
+                substates.add(substate.getId());
+            }
+            stateRecords[r + 7] = firstTransition;
+            stateRecords[r + 8] = state.getTransitions().size();
+            for (Transition transition : state.getTransitions()) {
+                int t = transition.getId() * TRANSITION_INTS;
+                transitionRecords[t] = events.idOf(transition.guardEvent);
+                transitionRecords[t + 1] = transition.getTargetState().getId();
+                transitionRecords[t + 2] = strings.indexOf(transition.getName());
+                transitionRecords[t + 3] = actionId(transition.onTransition.orElse(null), actionIds, actions,
+                        actionNames);
+            }
+            firstTransition += state.getTransitions().size();
+        }
+        int[] actionStrings = new int[actions.size()];
+        for (int i = 0; i < actionStrings.length; i++) {
+            actionStrings[i] = strings.indexOf(actions.get(i));
+        }
+
+        long size = HEADER_SIZE + strings.bytes + 4L * (eventNames.length + actionStrings.length
+                + stateRecords.length + substates.size() + transitionRecords.length);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(contentHash).putLong(definition.getFingerprint())
+                    .putInt(states.size()).putInt(definition.getInitialState().getId())
+                    .putInt(strings.values.size()).putInt(eventNames.length).putInt(actionStrings.length)
+                    .putInt(substates.size()).putInt(transitions.size()).putInt(name);
+            for (byte[] value : strings.values) {
+                buffer.putInt(value.length).put(value);
+            }
+            buffer.asIntBuffer().put(eventNames).put(actionStrings).put(stateRecords)
+                    .put(substates.stream().mapToInt(Integer::intValue).toArray()).put(transitionRecords);
+            mapped.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static int actionId(Action action, Map<Action, Integer> actionIds, List<String> actions,
+                                Map<Action, String> actionNames) {
+        if (action == null) {
+            return -1;
+        }
+        return actionIds.computeIfAbsent(action, a -> {
+            String name = actionNames.get(a);
+            if (name == null) {
+                throw new IllegalStateException("Action " + a + " has no name and can not be cached");
+            }
+            actions.add(name);
+            return actions.size() - 1;
+        });
+    }
+
+    /**
+     * @param actions action by name
+     * @return the definition or empty if the file is missing, of another version or of another content
+     * @throws IllegalStateException if an action of the definition is missing
+     */
+    static Optional<StateMachineDefinition> read(Path file, long contentHash, Map<String, Action> actions)
+            throws IOException {
+        return read(file, contentHash, actions, null);
+    }
+
+    /**
+     * @param stateCache holds the states resolved when first referenced, null to read all states
+     */
+    static Optional<StateMachineDefinition> read(Path file, long contentHash, Map<String, Action> actions,
+                                                 StateCache stateCache) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getLong() != contentHash) {
+            return Optional.empty();
+        }
+        return Optional.of(new Graph(buffer, actions, stateCache).definition);
+    }
+
+    /**
+     * Strings by index, each string once.
+     */
+    private static final class Strings {
+        final Map<String, Integer> indexes = new HashMap<>();
+        final List<byte[]> values = new ArrayList<>();
+        long bytes;
+
+        int indexOf(String value) {
+            if (value == null) {
+                return -1;
+            }
+            return indexes.computeIfAbsent(value, v -> {
+                byte[] encoded = v.getBytes(StandardCharsets.UTF_8);
+                values.add(encoded);
+                bytes += 4 + encoded.length;
+                return values.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * The states of a mapped file and the position of the transition records. With a state cache the strings are
+     * decoded and the states created when first needed.
+     */
+    private static final class Graph {
+        final ByteBuffer buffer;
+        // Decoded strings, null until needed if lazy
+        final String[] strings;
+        final int[] stringPositions;
+        final EventRegistry events;
+        final Action[] actions;
+        final String[] actionNames;
+        // States by id, null until referenced if lazy. Guarded by this if lazy, the states may be incomplete.
+        final SimpleState[] states;
+        // States of a lazy definition complete with their parents and substates, read without lock. Null if eager.
+        private final AtomicReferenceArray<SimpleState> published;
+        final StateCache cache;
+        final int statesPosition;
+        final int substatesPosition;
+        final int transitionsPosition;
+        final StateMachineDefinition definition;
+
+        Graph(ByteBuffer buffer, Map<String, Action> actionsByName, StateCache stateCache) {
+            this.buffer = buffer;
+            this.cache = stateCache;
+            long fingerprint = buffer.getLong();
+            int stateCount = buffer.getInt();
+            int initialStateId = buffer.getInt();
+            int stringCount = buffer.getInt();
+            int eventCount = buffer.getInt();
+            int actionCount = buffer.getInt();
+            int substateCount = buffer.getInt();
+            int transitionCount = buffer.getInt();
+            int name = buffer.getInt();
+
+            strings = new String[stringCount];
+            stringPositions = new int[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                stringPositions[i] = buffer.position();
+                byte[] value = new byte[buffer.getInt()];
+                if (stateCache != null) {
+                    buffer.position(buffer.position() + value.length);
+                    continue;
+                }
+                buffer.get(value);
+                strings[i] = new String(value, StandardCharsets.UTF_8);
+            }
+            events = new EventRegistry();
+            for (int i = 0; i < eventCount; i++) {
+                events.register(string(buffer.getInt()));
+            }
+            actions = new Action[actionCount];
+            actionNames = new String[actionCount];
+            for (int i = 0; i < actionCount; i++) {
+                actionNames[i] = string(buffer.getInt());
+                actions[i] = actionsByName.get(actionNames[i]);
+                if (actions[i] == null) {
+                    throw new IllegalStateException("No action named " + actionNames[i]);
+                }
+            }
+
+            statesPosition = buffer.position();
+            substatesPosition = statesPosition + stateCount * STATE_INTS * 4;
+            transitionsPosition = substatesPosition + substateCount * 4;
+            states = new SimpleState[stateCount];
+            published = stateCache != null ? new AtomicReferenceArray<>(stateCount) : null;
+            if (stateCache != null) {
+                List<State> resolved = new AbstractList<State>() {
+                    @Override public State get(int id) {
+                        return state(id);
+                    }
+
+                    @Override public int size() {
+                        return stateCount;
+                    }
+                };
+                definition = new StateMachineDefinition(string(name), resolved, state(initialStateId), events,
+                        fingerprint, transitionCount, stateCache);
+                return;
+            }
+            for (int id = 0; id < stateCount; id++) {
+                states[id] = newState(id);
+            }
+            for (int id = 0; id < stateCount; id++) {
+                int r = statesPosition + id * STATE_INTS * 4;
+                int firstSubstate = buffer.getInt(r + 20);
+                for (int i = 0; i < buffer.getInt(r + 24); i++) {
+                    states[id].addSubstate(states[buffer.getInt(substatesPosition + (firstSubstate + i) * 4)]);
+                }
+                int initialSubstate = buffer.getInt(r + 8);
+                states[id].initialSubstate = initialSubstate < 0 ? null : states[initialSubstate];
+            }
+            definition = new StateMachineDefinition(string(name), new ArrayList<>(Arrays.asList(states)),
+                    states[initialStateId], events, fingerprint, transitionCount, null);
+        }
+
+        private SimpleState newState(int id) {
+            int r = statesPosition + id * STATE_INTS * 4;
+            String name = string(buffer.getInt(r));
+            SimpleState state = cache == null
+                    ? new CachedState(name, this, buffer.getInt(r + 28), buffer.getInt(r + 32))
+                    : new MappedState(name, this, buffer.getInt(r + 28), buffer.getInt(r + 32));
+            state.entry = Optional.ofNullable(action(buffer.getInt(r + 12)));
+            state.entryActionName = Optional.ofNullable(actionName(buffer.getInt(r + 12)));
+            state.exit = Optional.ofNullable(action(buffer.getInt(r + 16)));
+            state.exitActionName = Optional.ofNullable(actionName(buffer.getInt(r + 16)));
+            state.assign(id, events);
+            return state;
+        }
+
+        /**
+         * @return the state, created with its parent and substates if lazy and first referenced
+         */
+        State state(int id) {
+            if (published == null) {
+                return states[id];
+            }
+            SimpleState state = published.get(id);
+            return state != null ? state : resolve(id);
+        }
+
+        /**
+         * Create the state with its parent and substates and publish them once all are complete, so another thread
+         * never sees a composite state without its substates.
+         */
+        private synchronized State resolve(int id) {
+            List<SimpleState> created = new ArrayList<>();
+            SimpleState state = create(id, created);
+            for (SimpleState complete : created) {
+                published.set(complete.getId(), complete);
+            }
+            return state;
+        }
+
+        private SimpleState create(int id, List<SimpleState> created) {
+            if (states[id] != null) {
+                return states[id];
+            }
+            SimpleState state = newState(id);
+            // Known before the parent and substates refer back to it
+            states[id] = state;
+            created.add(state);
+            int r = statesPosition + id * STATE_INTS * 4;
+            int parent = buffer.getInt(r + 4);
+            if (parent >= 0) {
+                state.parent = create(parent, created);
+            }
+            int firstSubstate = buffer.getInt(r + 20);
+            for (int i = 0; i < buffer.getInt(r + 24); i++) {
+                state.addSubstate(create(buffer.getInt(substatesPosition + (firstSubstate + i) * 4), created));
+            }
+            int initialSubstate = buffer.getInt(r + 8);
+            state.initialSubstate = initialSubstate < 0 ? null : create(initialSubstate, created);
+            return state;
+        }
+
+        String string(int index) {
+            if (index < 0) {
+                return null;
+            }
+            String value = strings[index];
+            if (value == null) {
+                byte[] bytes = new byte[buffer.getInt(stringPositions[index])];
+                ByteBuffer view = buffer.duplicate();
+                view.position(stringPositions[index] + 4);
+                view.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                strings[index] = value;
+            }
+            return value;
+        }
+
+        Action action(int index) {
+            return index < 0 ? null : actions[index];
+        }
+
+        String actionName(int index) {
+            return index < 0 ? null : actionNames[index];
+        }
+
+        Transition transition(int id) {
+            int t = transitionsPosition + id * TRANSITION_INTS * 4;
+            Transition transition = new Transition(events.nameOf(buffer.getInt(t)), state(buffer.getInt(t + 4)),
+                    string(buffer.getInt(t + 8)), action(buffer.getInt(t + 12)));
+            transition.id = id;
+            return transition;
+        }
+    }
+
+    /**
+     * A state with the transitions read from the mapped file the first time they are needed.
+     */
+    private static final class CachedState extends SimpleState {
+        private final Graph graph;
+        private final int firstTransition;
+        private final int transitionCount;
+        private volatile boolean materialized;
+
+        CachedState(String name, Graph graph, int firstTransition, int transitionCount) {
+            super(name);
+            this.graph = graph;
+            this.firstTransition = firstTransition;
+            this.transitionCount = transitionCount;
+        }
+
+        @Override public List<Transition> getTransitions() {
+            if (!materialized) {
+                materialize();
+            }
+            return transitions;
+        }
+
+        private synchronized void materialize() {
+            if (!materialized) {
+                for (int i = 0; i < transitionCount; i++) {
+                    transitions.add(graph.transition(firstTransition + i));
+                }
+                materialized = true;
+            }
+        }
+    }
+
+    /**
+     * A state of a lazily loaded definition reading its transitions from the mapped file.
+     */
+    private static final class MappedState extends StateCache.LazyState {
+        private final Graph graph;
+        private final int firstTransition;
+        private final int transitionCount;
+
+        MappedState(String name, Graph graph, int firstTransition, int transitionCount) {
+            super(name, graph.cache);
+            this.graph = graph;
+            this.firstTransition = firstTransition;
+            this.transitionCount = transitionCount;
+        }
+
+        @Override List<Transition> read() {
+            List<Transition> read = new ArrayList<>(transitionCount);
+            for (int i = 0; i < transitionCount; i++) {
+                read.add(graph.transition(firstTransition + i));
+            }
+            return Collections.unmodifiableList(read);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Load a {@link StateMachineDefinition} from a text source, one declaration per line:
+ * <pre>
+ * # Comment
+ * definition Phone
+ * state OffHook initial entry ringOff
+ * state Active exit hangUp
+ * state Dialing in Active
+ * state Talking in Active
+ * transition Dial from OffHook on CallDialed to Active
+ * transition Hold from Talking on PlacedOnHold to OnHold action playMuzak
+ * </pre>
+ * A state is {@code in} a composite state and {@code initial} marks the initial substate, or the initial state of the
+ * definition for a state without parent, by default the first. Actions are referred to by the name they are
+ * registered with. Names with spaces are quoted, e.g. {@code "State 1"}. The states get ids in the order they are
+ * declared.
+ * <br>
+ * The source is parsed once and the compiled definition written to a {@link DefinitionCache} file next to it or in
+ * the cache directory. Later loads of the same source content memory-map the cache instead of parsing, another
+ * content hash invalidates the cache.
+ * <br>
+ * A {@link #lazy(int) lazy} loader resolves the states of the mapped cache when first referenced and reads their
+ * transitions when first needed, for definitions too large to hold at once.
+ */
+public final class DefinitionLoader {
+    public static final String CACHE_SUFFIX = ".cache";
+
+    private final Map<String, Action> actions = new HashMap<>();
+    private Path cacheDirectory;
+    private int stateCacheCapacity;
+
+    private DefinitionLoader() {
+    }
+
+    public static DefinitionLoader loader() {
+        return new DefinitionLoader();
+    }
+
+    public DefinitionLoader action(String name, Action action) {
+        actions.put(name, action);
+        return this;
+    }
+
+    public DefinitionLoader actions(Map<String, Action> actionsByName) {
+        actions.putAll(actionsByName);
+        return this;
+    }
+
+    /**
+     * Write the cache files to the directory instead of next to the sources.
+     */
+    public DefinitionLoader cacheDirectory(Path directory) {
+        this.cacheDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Load definitions lazily from the cache, holding the transitions of at most about as many states as the
+     * capacity, see {@link StateCache}. A parsed source is loaded from the cache just written.
+     */
+    public DefinitionLoader lazy(int cacheCapacity) {
+        if (cacheCapacity < 1) {
+            throw new IllegalArgumentException("State cache capacity must be at least 1");
+        }
+        this.stateCacheCapacity = cacheCapacity;
+        return this;
+    }
+
+    /**
+     * Load the definition from the cache of the source if it is of the same content, else parse the source and write
+     * the cache.
+     *
+     * @throws IllegalStateException if the source is not valid or an action is missing
+     */
+    public StateMachineDefinition load(Path source) throws IOException {
+        byte[] content = Files.readAllBytes(source);
+        long contentHash = contentHash(content);
+        Path directory = cacheDirectory != null ? cacheDirectory : source.toAbsolutePath().getParent();
+        Path cache = directory.resolve(source.getFileName() + CACHE_SUFFIX);
+        Optional<StateMachineDefinition> cached = DefinitionCache.read(cache, contentHash, actions, stateCache());
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        StateMachineDefinition definition = parse(new String(content, StandardCharsets.UTF_8));
+        Map<Action, String> actionNames = new IdentityHashMap<>();
+        actions.forEach((name, action) -> actionNames.putIfAbsent(action, name));
+        DefinitionCache.write(cache, contentHash, definition, actionNames);
+        if (stateCacheCapacity > 0) {
+            return DefinitionCache.read(cache, contentHash, actions, stateCache())
+                    .orElseThrow(() -> new IllegalStateException("Cache " + cache + " could not be read back"));
+        }
+        return definition;
+    }
+
+    private StateCache stateCache() {
+        return stateCacheCapacity > 0 ? new StateCache(stateCacheCapacity) : null;
+    }
+
+    /**
+     * Parse the source without caching.
+     *
+     * @throws IllegalStateException if the source is not valid or an action is missing
+     */
+    public StateMachineDefinition parse(String source) {
+        String name = null;
+        Map<String, SimpleState> states = new LinkedHashMap<>();
+        Map<SimpleState, String> parents = new IdentityHashMap<>();
+        List<SimpleState> initialStates = new ArrayList<>();
+        List<String[]> transitions = new ArrayList<>();
+        List<Integer> transitionLines = new ArrayList<>();
+
+        String[] lines = source.split("\r?\n");
+        for (int line = 1; line <= lines.length; line++) {
+            List<String> tokens = tokenize(lines[line - 1], line);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            switch (tokens.get(0)) {
+                case "definition":
+                    expect(tokens.size() == 2, line, "definition <name>");
+                    name = tokens.get(1);
+                    break;
+                case "state":
+                    expect(tokens.size() >= 2, line, "state <name> [in <parent>] [initial] [entry <action>] "
+                            + "[exit <action>]");
+                    SimpleState state = new SimpleState(tokens.get(1));
+                    expect(states.putIfAbsent(state.getName(), state) == null, line,
+                            "state " + state.getName() + " is already declared");
+                    for (int i = 2; i < tokens.size(); i++) {
+                        String keyword = tokens.get(i);
+                        if (keyword.equals("initial")) {
+                            initialStates.add(state);
+                            continue;
+                        }
+                        expect(i + 1 < tokens.size(), line, "missing value of " + keyword);
+                        String value = tokens.get(++i);
+                        switch (keyword) {
+                            case "in":
+                                parents.put(state, value);
+                                break;
+                            case "entry":
+                                state.entry = Optional.of(action(value, line));
+                                state.entryActionName = Optional.of(value);
+                                break;
+                            case "exit":
+                                state.exit = Optional.of(action(value, line));
+                                state.exitActionName = Optional.of(value);
+                                break;
+                            default:
+                                throw invalid(line, "unknown state attribute " + keyword);
+                        }
+                    }
+                    break;
+                case "transition":
+                    expect((tokens.size() == 8 || tokens.size() == 10) && tokens.get(2).equals("from")
+                                    && tokens.get(4).equals("on") && tokens.get(6).equals("to")
+                                    && (tokens.size() == 8 || tokens.get(8).equals("action")), line,
+                            "transition <name> from <state> on <event> to <state> [action <action>]");
+                    transitions.add(tokens.toArray(new String[0]));
+                    transitionLines.add(line);
+                    break;
+                default:
+                    throw invalid(line, "unknown declaration " + tokens.get(0));
+            }
+        }
+        if (name == null) {
+            throw new IllegalStateException("No definition name declared");
+        }
+        if (states.isEmpty()) {
+            throw new IllegalStateException("No states declared in " + name);
+        }
+
+        // Add the substates in declaration order
+        for (SimpleState state : states.values()) {
+            String parent = parents.get(state);
+            if (parent == null) {
+                continue;
+            }
+            SimpleState composite = states.get(parent);
+            if (composite == null) {
+                throw new IllegalStateException("No state " + parent + " declared as parent of " + state.getName());
+            }
+            // A chain of parents longer than the states is a cycle
+            int depth = 0;
+            for (String ancestor = parent; ancestor != null; ancestor = parents.get(states.get(ancestor))) {
+                if (++depth > states.size()) {
+                    throw new IllegalStateException("State " + state.getName() + " is in a cycle of parents");
+                }
+            }
+            composite.addSubstate(state);
+        }
+        State initialState = states.values().iterator().next();
+        for (SimpleState state : initialStates) {
+            String parent = parents.get(state);
+            if (parent == null) {
+                initialState = state;
+            } else {
+                states.get(parent).initialSubstate = state;
+            }
+        }
+        for (int i = 0; i < transitions.size(); i++) {
+            String[] tokens = transitions.get(i);
+            int line = transitionLines.get(i);
+            SimpleState from = declared(states, tokens[3], line);
+            Action action = tokens.length == 10 ? action(tokens[9], line) : null;
+            from.addTransition(new Transition(tokens[5], declared(states, tokens[7], line), tokens[1], action));
+        }
+        return new StateMachineDefinition(name, new ArrayList<>(states.values()), initialState);
+    }
+
+    private Action action(String name, int line) {
+        Action action = actions.get(name);
+        if (action == null) {
+            throw invalid(line, "no action named " + name);
+        }
+        return action;
+    }
+
+    private static SimpleState declared(Map<String, SimpleState> states, String name, int line) {
+        SimpleState state = states.get(name);
+        if (state == null) {
+            throw invalid(line, "no state " + name + " declared");
+        }
+        return state;
+    }
+
+    /**
+     * Split on whitespace, a token in double quotes may contain whitespace. A # outside quotes starts a comment.
+     */
+    private static List<String> tokenize(String line, int lineNumber) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                break;
+            } else if (c == '"') {
+                int end = line.indexOf('"', i + 1);
+                expect(end > 0, lineNumber, "unterminated quote");
+                tokens.add(line.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < line.length() && !Character.isWhitespace(line.charAt(i)) && line.charAt(i) != '#') {
+                    i++;
+                }
+                tokens.add(line.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static void expect(boolean valid, int line, String message) {
+        if (!valid) {
+            throw invalid(line, message);
+        }
+    }
+
+    private static IllegalStateException invalid(int line, String message) {
+        return new IllegalStateException("Line " + line + ": " + message);
+    }
+
+    /**
+     * Hash of the source eight bytes at a time, hashing is most of the time of loading a large cached definition.
+     */
+    static long contentHash(byte[] content) {
+        ByteBuffer buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        long hash = 0xcbf29ce484222325L ^ content.length;
+        while (buffer.remaining() >= 8) {
+            hash = (hash ^ buffer.getLong()) * 0x9e3779b97f4a7c15L;
+            hash ^= hash >>> 32;
+        }
+        while (buffer.hasRemaining()) {
+            hash = (hash ^ (buffer.get() & 0xff)) * 0x9e3779b97f4a7c15L;
+            hash ^= hash >>> 32;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,394 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streaming export of a {@link StateMachineDefinition} in the DOT graph description language, written directly to an
+ * {@link Appendable} or a channel without building the whole graph in memory. The node id of each state is computed
+ * once per definition.
+ * <br>
+ * For large graphs the export can be limited to the states within a number of transitions from the active state,
+ * in either direction, and each strongly connected component of more than one state can be collapsed to a single
+ * node. Composite states are drawn as clusters unless the export is limited or collapsed.
+ */
+public final class DotExporter {
+    private static final String HIGHLIGHT = ", style=filled, fillcolor=lightblue";
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private final StateMachineDefinition definition;
+    private final StateGraph graph;
+    private String name;
+    private int activeStateId = -1;
+    private boolean highlightActiveState = true;
+    private boolean collapseCycles;
+    private int hops = -1;
+
+    private DotExporter(StateMachineDefinition definition) {
+        this.definition = definition;
+        this.graph = definition.graph();
+        this.name = definition.getName();
+    }
+
+    public static DotExporter dot(StateMachineDefinition definition) {
+        return new DotExporter(definition);
+    }
+
+    /**
+     * Name of the graph, by default the name of the definition.
+     */
+    public DotExporter name(String graphName) {
+        this.name = graphName;
+        return this;
+    }
+
+    /**
+     * The active state is drawn first and filled unless {@link #highlightActiveState(boolean)} is false.
+     */
+    public DotExporter activeState(int stateId) {
+        this.activeStateId = stateId;
+        return this;
+    }
+
+    public DotExporter highlightActiveState(boolean highlight) {
+        this.highlightActiveState = highlight;
+        return this;
+    }
+
+    /**
+     * Draw each strongly connected component of more than one state as one node labelled with the first state and
+     * the number of other states, and one edge between two components.
+     */
+    public DotExporter collapseCycles() {
+        this.collapseCycles = true;
+        return this;
+    }
+
+    /**
+     * Only draw the states reachable from or reaching the active state in at most the number of transitions.
+     */
+    public DotExporter neighborhood(int maxHops) {
+        if (maxHops < 0) {
+            throw new IllegalArgumentException("Hops must not be negative: " + maxHops);
+        }
+        this.hops = maxHops;
+        return this;
+    }
+
+    public String toDot() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            write(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write UTF-8 to the channel, buffered. The channel is not closed.
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 1 << 16);
+        write(writer);
+        writer.flush();
+    }
+
+    public void write(Appendable out) throws IOException {
+        boolean[] included = included();
+        if (collapseCycles) {
+            writeCollapsed(out, included);
+        } else if (included == null && definition.isHierarchical()) {
+            writeHierarchical(out);
+        } else {
+            writeFlat(out, included);
+        }
+    }
+
+    /**
+     * @return the states within the hops from the active state, null if all states are drawn
+     */
+    private boolean[] included() {
+        if (hops < 0) {
+            return null;
+        }
+        if (activeStateId < 0) {
+            throw new IllegalStateException("A neighborhood needs an active state");
+        }
+        boolean[] included = new boolean[graph.stateCount];
+        int[] queue = new int[graph.stateCount];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = activeStateId;
+        included[activeStateId] = true;
+        for (int distance = 0; distance < hops && head < tail; distance++) {
+            int levelEnd = tail;
+            while (head < levelEnd) {
+                int state = queue[head++];
+                for (int e = graph.outStart[state]; e < graph.outStart[state + 1]; e++) {
+                    tail = visit(graph.outTarget[e], included, queue, tail);
+                }
+                for (int e = graph.inStart[state]; e < graph.inStart[state + 1]; e++) {
+                    tail = visit(graph.inSource[e], included, queue, tail);
+                }
+            }
+        }
+        return included;
+    }
+
+    private static int visit(int state, boolean[] included, int[] queue, int tail) {
+        if (!included[state]) {
+            included[state] = true;
+            queue[tail++] = state;
+        }
+        return tail;
+    }
+
+    /**
+     * The active state first, each state followed by its transitions.
+     */
+    private void writeFlat(Appendable out, boolean[] included) throws IOException {
+        out.append("digraph ").append(StateGraph.nodeId(name)).append(" { ").append(NEW_LINE);
+        if (activeStateId >= 0) {
+            writeState(out, activeStateId, included);
+        }
+        for (int s = 0; s < graph.stateCount; s++) {
+            if (s != activeStateId && (included == null || included[s])) {
+                writeState(out, s, included);
+            }
+        }
+        out.append("} ").append(NEW_LINE);
+    }
+
+    private void writeState(Appendable out, int stateId, boolean[] included) throws IOException {
+        writeNode(out, graph.nodeId(stateId), definition.state(stateId), stateId == activeStateId);
+        List<Transition> transitions = definition.getTransitions();
+        for (int e = graph.outStart[stateId]; e < graph.outStart[stateId + 1]; e++) {
+            int target = graph.outTarget[e];
+            if (included == null || included[target]) {
+                writeEdge(out, graph.nodeId(stateId), graph.nodeId(target), transitions.get(e).getName());
+            }
+        }
+    }
+
+    private void writeNode(Appendable out, String nodeId, State state, boolean active) throws IOException {
+        out.append(nodeId).append("[label=\"");
+        writeLabel(out, state);
+        out.append('"');
+        if (active && highlightActiveState) {
+            out.append(HIGHLIGHT);
+        }
+        out.append("];").append(NEW_LINE);
+    }
+
+    private static void writeLabel(Appendable out, State state) throws IOException {
+        out.append(state.getName());
+        if (state.getEntry().isPresent() && state.getEntryActionName().isPresent()) {
+            out.append("\\nEntry:").append(state.getEntryActionName().get());
+        }
+    }
+
+    private static void writeEdge(Appendable out, String source, String target, String label) throws IOException {
+        out.append(source).append(" -> ").append(target);
+        if (label != null) {
+            out.append(" [label=\"").append(label).append("\"];");
+        }
+        out.append(NEW_LINE);
+    }
+
+    /**
+     * Composite states are drawn as clusters containing their substates. A transition from or to a composite state
+     * is drawn from or to its initial substate, clipped at the cluster border.
+     */
+    private void writeHierarchical(Appendable out) throws IOException {
+        out.append("digraph ").append(StateGraph.nodeId(name)).append(" { ").append(NEW_LINE);
+        out.append("compound=true;").append(NEW_LINE);
+        for (State state : definition.getStates()) {
+            if (!state.getParent().isPresent()) {
+                writeCluster(out, state);
+            }
+        }
+        // Drawn node of each state, the state or the leaf entered through its initial substates
+        String[] leafIds = new String[graph.stateCount];
+        for (State state : definition.getStates()) {
+            leafIds[state.getId()] = graph.nodeId(TransitionPath.drillDown(state, new ArrayList<>()).getId());
+        }
+        List<Transition> transitions = definition.getTransitions();
+        for (State state : definition.getStates()) {
+            int s = state.getId();
+            for (int e = graph.outStart[s]; e < graph.outStart[s + 1]; e++) {
+                State target = definition.state(graph.outTarget[e]);
+                out.append(leafIds[s]).append(" -> ").append(leafIds[target.getId()]);
+                String separator = " [";
+                String label = transitions.get(e).getName();
+                if (label != null) {
+                    out.append(separator).append("label=\"").append(label).append('"');
+                    separator = ", ";
+                }
+                if (!state.getSubstates().isEmpty()) {
+                    out.append(separator).append("ltail=cluster_").append(graph.nodeId(s));
+                    separator = ", ";
+                }
+                if (!target.getSubstates().isEmpty()) {
+                    out.append(separator).append("lhead=cluster_").append(graph.nodeId(target.getId()));
+                    separator = ", ";
+                }
+                if (!separator.equals(" [")) {
+                    out.append("];");
+                }
+                out.append(NEW_LINE);
+            }
+        }
+        out.append("} ").append(NEW_LINE);
+    }
+
+    private void writeCluster(Appendable out, State state) throws IOException {
+        if (state.getSubstates().isEmpty()) {
+            writeNode(out, graph.nodeId(state.getId()), state, state.getId() == activeStateId);
+            return;
+        }
+        out.append("subgraph cluster_").append(graph.nodeId(state.getId())).append(" {").append(NEW_LINE);
+        out.append("label=\"");
+        writeLabel(out, state);
+        out.append("\";").append(NEW_LINE);
+        for (State substate : state.getSubstates()) {
+            writeCluster(out, substate);
+        }
+        out.append("}").append(NEW_LINE);
+    }
+
+    /**
+     * One node per strongly connected component, then the edges between components.
+     */
+    private void writeCollapsed(Appendable out, boolean[] included) throws IOException {
+        int[] component = components(included);
+        int[] size = new int[graph.stateCount];
+        // First state by id of each component
+        int[] first = new int[graph.stateCount];
+        Arrays.fill(first, -1);
+        for (int s = 0; s < graph.stateCount; s++) {
+            int c = component[s];
+            if (c >= 0) {
+                size[c]++;
+                if (first[c] < 0) {
+                    first[c] = s;
+                }
+            }
+        }
+        String[] nodeIds = new String[graph.stateCount];
+        int activeComponent = activeStateId >= 0 ? component[activeStateId] : -1;
+        out.append("digraph ").append(StateGraph.nodeId(name)).append(" { ").append(NEW_LINE);
+        for (int c = 0; c < graph.stateCount; c++) {
+            if (first[c] < 0) {
+                continue;
+            }
+            State state = definition.state(first[c]);
+            if (size[c] == 1) {
+                nodeIds[c] = graph.nodeId(first[c]);
+                writeNode(out, nodeIds[c], state, c == activeComponent);
+                continue;
+            }
+            nodeIds[c] = "scc_" + c;
+            out.append(nodeIds[c]).append("[label=\"").append(state.getName()).append(" +")
+                    .append(String.valueOf(size[c] - 1)).append('"');
+            if (c == activeComponent && highlightActiveState) {
+                out.append(HIGHLIGHT);
+            }
+            out.append("];").append(NEW_LINE);
+        }
+
+        List<Transition> transitions = definition.getTransitions();
+        Set<Long> drawn = new HashSet<>();
+        for (int s = 0; s < graph.stateCount; s++) {
+            int source = component[s];
+            if (source < 0) {
+                continue;
+            }
+            for (int e = graph.outStart[s]; e < graph.outStart[s + 1]; e++) {
+                int target = component[graph.outTarget[e]];
+                if (target < 0 || source == target && size[source] > 1) {
+                    continue;
+                }
+                if (size[source] == 1 && size[target] == 1 || drawn.add((long) source << 32 | target)) {
+                    writeEdge(out, nodeIds[source], nodeIds[target], transitions.get(e).getName());
+                }
+            }
+        }
+        out.append("} ").append(NEW_LINE);
+    }
+
+    /**
+     * Tarjan's algorithm without recursion, the component of a state is the id of a state in it.
+     *
+     * @return the component of each state, -1 for states not included
+     */
+    private int[] components(boolean[] included) {
+        int n = graph.stateCount;
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
+        int[] index = new int[n];
+        Arrays.fill(index, -1);
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        // Depth first call stack of states and the next edge of each
+        int[] callStack = new int[n];
+        int[] nextEdge = new int[n];
+        int nextIndex = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0 || included != null && !included[root]) {
+                continue;
+            }
+            int depth = 0;
+            callStack[0] = root;
+            nextEdge[0] = graph.outStart[root];
+            index[root] = low[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int state = callStack[depth];
+                if (nextEdge[depth] < graph.outStart[state + 1]) {
+                    int target = graph.outTarget[nextEdge[depth]++];
+                    if (included != null && !included[target]) {
+                        continue;
+                    }
+                    if (index[target] < 0) {
+                        depth++;
+                        callStack[depth] = target;
+                        nextEdge[depth] = graph.outStart[target];
+                        index[target] = low[target] = nextIndex++;
+                        stack[stackSize++] = target;
+                        onStack[target] = true;
+                    } else if (onStack[target]) {
+                        low[state] = Math.min(low[state], index[target]);
+                    }
+                    continue;
+                }
+                if (low[state] == index[state]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        component[member] = state;
+                    } while (member != state);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callStack[depth];
+                    low[parent] = Math.min(low[parent], low[state]);
+                }
+            }
+        }
+        return component;
+    }
+}
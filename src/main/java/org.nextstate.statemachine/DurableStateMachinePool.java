@@ -0,0 +1,276 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link StateMachinePool} that survives a restart. Every allocation, free and executed event is appended to an
+ * {@link EventJournal} and the active states of all instances are written to a snapshot every
+ * {@link DurableBuilder#snapshotEvery(long)} records. Opening the pool loads the latest snapshot and replays the
+ * journal after it.
+ * <br>
+ * Recovery only sets the active states, no entry, exit or transition actions are performed, no listeners are notified
+ * and no metrics are recorded. The journal and snapshots refer to events and states by id so the definition must be
+ * built from the same states and transitions in the same order, a snapshot of a definition with another fingerprint
+ * is rejected.
+ * <br>
+ * Records are forced to disk every sync interval from a background thread, records appended since the last sync may
+ * be lost in a crash. Call {@link #sync()} to make them durable now. Not thread safe.
+ */
+public class DurableStateMachinePool implements AutoCloseable {
+    public static final long DEFAULT_SNAPSHOT_EVERY = 1 << 22;
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(10);
+
+    // Event ids of the allocate and free records
+    static final int ALLOCATED = -2;
+    static final int FREED = -3;
+
+    private final StateMachineDefinition definition;
+    private final Path directory;
+    private final StateMachinePool pool;
+    private final EventJournal journal;
+    private final long snapshotEvery;
+    private final ScheduledExecutorService syncer;
+    private long nextSnapshot;
+
+    private DurableStateMachinePool(DurableBuilder builder) throws IOException {
+        this.definition = builder.definition;
+        this.directory = builder.directory;
+        this.snapshotEvery = builder.snapshotEvery;
+        this.journal = new EventJournal(directory, builder.segmentSize);
+        this.pool = new StateMachinePool(definition, 16);
+        long snapshotSequence = recover();
+        this.nextSnapshot = snapshotSequence + snapshotEvery;
+        if (builder.syncInterval.isZero()) {
+            this.syncer = null;
+        } else {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "statemachine-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long nanos = builder.syncInterval.toNanos();
+            syncer.scheduleWithFixedDelay(journal::sync, nanos, nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return the sequence of the loaded snapshot
+     */
+    private long recover() throws IOException {
+        Optional<PoolSnapshot> snapshot = PoolSnapshot.readLatest(directory, definition);
+        long from = snapshot.map(s -> s.sequence).orElse(0L);
+        Replay replay = snapshot.map(s -> new Replay(definition, s.activeStateIds, s.highWaterMark))
+                .orElseGet(() -> new Replay(definition, new int[16], 0));
+        journal.replay(from, replay);
+        pool.restore(replay.activeStateIds, replay.highWaterMark);
+        return from;
+    }
+
+    public static DurableBuilder durable(StateMachineDefinition definition) {
+        return new DurableBuilder(definition);
+    }
+
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Allocate an instance with the initial state as active state.
+     *
+     * @return the instance id
+     */
+    public int allocate() {
+        int instanceId = pool.allocate();
+        append(instanceId, ALLOCATED);
+        return instanceId;
+    }
+
+    public void free(int instanceId) {
+        pool.free(instanceId);
+        append(instanceId, FREED);
+    }
+
+    public void execute(int instanceId, String event) {
+        execute(instanceId, definition.eventId(event));
+    }
+
+    /**
+     * Execute the event and journal it after it is executed. If an action throws the event is journaled only if the
+     * active state was changed before the action threw.
+     */
+    public void execute(int instanceId, int eventId) {
+        int source = pool.getActiveStateId(instanceId);
+        boolean executed = false;
+        try {
+            pool.execute(instanceId, eventId);
+            executed = true;
+        } finally {
+            if (executed || pool.getActiveStateId(instanceId) != source) {
+                append(instanceId, eventId);
+            }
+        }
+    }
+
+    public int size() {
+        return pool.size();
+    }
+
+    public boolean isAllocated(int instanceId) {
+        return pool.isAllocated(instanceId);
+    }
+
+    public int getActiveStateId(int instanceId) {
+        return pool.getActiveStateId(instanceId);
+    }
+
+    public State getActiveState(int instanceId) {
+        return pool.getActiveState(instanceId);
+    }
+
+    public String getActiveStateName(int instanceId) {
+        return pool.getActiveStateName(instanceId);
+    }
+
+    /**
+     * Force the journal to disk.
+     */
+    public void sync() {
+        journal.sync();
+    }
+
+    /**
+     * Write a snapshot of all instances and delete the journal segments and snapshots it replaces.
+     */
+    public void snapshot() throws IOException {
+        long sequence = journal.getNextSequence();
+        journal.sync();
+        PoolSnapshot.write(directory, definition, sequence, pool.activeStateIds(), pool.getHighWaterMark());
+        PoolSnapshot.deleteBefore(directory, sequence);
+        journal.truncateBefore(sequence);
+        nextSnapshot = sequence + snapshotEvery;
+    }
+
+    /**
+     * Stop the background sync and force the journal to disk.
+     */
+    @Override public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        journal.close();
+    }
+
+    private void append(int instanceId, int eventId) {
+        if (journal.append(instanceId, eventId, System.currentTimeMillis()) + 1 >= nextSnapshot) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write snapshot", e);
+            }
+        }
+    }
+
+    /**
+     * Applies journal records to the active state ids without actions.
+     */
+    private static final class Replay implements EventJournal.RecordHandler {
+        private final StateMachineDefinition definition;
+        private final int initialStateId;
+        int[] activeStateIds;
+        int highWaterMark;
+
+        Replay(StateMachineDefinition definition, int[] activeStateIds, int highWaterMark) {
+            this.definition = definition;
+            this.initialStateId = definition.getInitialPath().getTarget().getId();
+            this.activeStateIds = activeStateIds;
+            this.highWaterMark = highWaterMark;
+        }
+
+        @Override public void record(long sequence, int instanceId, int eventId, long timestamp) {
+            if (eventId == ALLOCATED) {
+                if (instanceId >= activeStateIds.length) {
+                    activeStateIds = Arrays.copyOf(activeStateIds, Math.max(instanceId + 1,
+                            activeStateIds.length * 2));
+                }
+                for (int i = highWaterMark; i < instanceId; i++) {
+                    activeStateIds[i] = -1;
+                }
+                highWaterMark = Math.max(highWaterMark, instanceId + 1);
+                activeStateIds[instanceId] = initialStateId;
+            } else if (eventId == FREED) {
+                activeStateIds[instanceId] = -1;
+            } else {
+                TransitionPath path = definition.state(activeStateIds[instanceId]).pathFor(eventId);
+                if (path != null) {
+                    activeStateIds[instanceId] = path.getTarget().getId();
+                }
+            }
+        }
+    }
+
+    public static class DurableBuilder {
+        private final StateMachineDefinition definition;
+        private Path directory;
+        private int segmentSize = EventJournal.DEFAULT_SEGMENT_SIZE;
+        private long snapshotEvery = DEFAULT_SNAPSHOT_EVERY;
+        private Duration syncInterval = DEFAULT_SYNC_INTERVAL;
+
+        public DurableBuilder(StateMachineDefinition definition) {
+            this.definition = definition;
+        }
+
+        /**
+         * Directory of the journal segments and snapshots, one pool per directory.
+         */
+        public DurableBuilder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public DurableBuilder segmentSize(int bytes) {
+            this.segmentSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param records journal records between snapshots, bounds the records replayed on recovery
+         */
+        public DurableBuilder snapshotEvery(long records) {
+            if (records < 1) {
+                throw new IllegalArgumentException("Snapshot interval must be at least 1 record");
+            }
+            this.snapshotEvery = records;
+            return this;
+        }
+
+        /**
+         * @param interval time between forcing the journal to disk, zero to only sync when {@link DurableStateMachinePool#sync()} is called
+         */
+        public DurableBuilder syncInterval(Duration interval) {
+            this.syncInterval = interval;
+            return this;
+        }
+
+        /**
+         * Open the pool, recovering the instances from the directory.
+         */
+        public DurableStateMachinePool open() throws IOException {
+            if (directory == null) {
+                throw new IllegalStateException("No directory");
+            }
+            return new DurableStateMachinePool(this);
+        }
+    }
+}
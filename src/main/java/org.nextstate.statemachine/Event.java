@@ -0,0 +1,19 @@
+package org.nextstate.statemachine;
+
+/**
+ * An event object carrying its data, executed with {@link StateMachine#execute(Event)} and given to the
+ * {@link EventAction}s of the transition taken.
+ * <br>
+ * A transition {@link Transition.TransitionBuilder#guardedBy(Class) guarded by an event class} is taken by events of
+ * the class and of its subclasses. The event is registered by the class name so the String API executes it by that
+ * name, without data. When several classes of an event are guarded from the active state the class itself wins, then
+ * its superclasses from the closest, then their interfaces.
+ */
+public interface Event {
+    /**
+     * @return the name an event class is registered with
+     */
+    static String name(Class<? extends Event> eventClass) {
+        return eventClass.getName();
+    }
+}
@@ -0,0 +1,23 @@
+package org.nextstate.statemachine;
+
+import java.util.function.Consumer;
+
+/**
+ * An action given the {@link Event} being executed, null if the event was executed by name or id.
+ */
+@FunctionalInterface
+public interface EventAction extends Action {
+    void perform(Event event);
+
+    @Override default void perform() {
+        perform(null);
+    }
+
+    /**
+     * @return an action given the event if it is of the class, else null, e.g. an entry action reading the data of
+     * the event it is entered by
+     */
+    static <E extends Event> EventAction of(Class<E> eventClass, Consumer<? super E> action) {
+        return event -> action.accept(eventClass.isInstance(event) ? eventClass.cast(event) : null);
+    }
+}
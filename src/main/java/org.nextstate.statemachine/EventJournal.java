@@ -0,0 +1,316 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only journal of (instance id, event id, timestamp) records in memory-mapped segment files. A segment is
+ * preallocated and named by the sequence of its first record. Records are fixed size with a check word so a record
+ * torn by a crash ends the journal. The header of a segment is forced to disk when it is created, a last segment left
+ * without header by a crash is created again.
+ * <br>
+ * Appends are written to the mapped segment and are durable after {@link #sync(long)}. Concurrent syncs are grouped:
+ * a thread that finds its sequence already synced by another thread returns without forcing the segment again.
+ * Appends are serialized, sync may be called from any thread.
+ */
+public class EventJournal implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    static final int RECORD_SIZE = 20;
+    private static final int MAGIC = 0x4e534a4c;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment current;
+    // Sequence of the next record
+    private long nextSequence;
+    // Records below are forced to disk
+    private volatile long syncedSequence;
+    private final Object syncLock = new Object();
+
+    /**
+     * Open the journal in the directory, creating it if empty. Appends continue after the last valid record.
+     *
+     * @param segmentSize size of each segment file in bytes
+     */
+    public EventJournal(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("Segment size must hold at least one record");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.recordsPerSegment = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+        List<Path> files = segmentFiles(directory);
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            if (i == files.size() - 1 && Segment.isBlank(file)) {
+                // Created before a crash with the header not yet on disk, holds no records
+                Files.delete(file);
+                break;
+            }
+            Segment segment = Segment.map(file);
+            if (current != null && segment.firstSequence != nextSequence) {
+                // A crash ended the previous segment early, the later records can not be replayed
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            current = segment;
+            nextSequence = segment.firstSequence + segment.scan();
+        }
+        if (current == null || current.count == current.capacity) {
+            roll();
+        } else {
+            current.clearTail();
+        }
+        syncedSequence = nextSequence;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return sequence of the record
+     */
+    public synchronized long append(int instanceId, int eventId, long timestamp) {
+        if (current.count == current.capacity) {
+            roll();
+        }
+        current.write(instanceId, eventId, timestamp);
+        return nextSequence++;
+    }
+
+    /**
+     * @return sequence of the next record appended
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Force all records before the sequence to disk.
+     */
+    public void sync(long sequence) {
+        if (syncedSequence >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            List<Segment> dirty;
+            long end;
+            synchronized (this) {
+                end = nextSequence;
+                dirty = new ArrayList<>();
+                for (Segment segment : segments) {
+                    if (segment.firstSequence + segment.count > syncedSequence) {
+                        dirty.add(segment);
+                    }
+                }
+            }
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            syncedSequence = end;
+        }
+    }
+
+    /**
+     * Force all appended records to disk.
+     */
+    public void sync() {
+        sync(getNextSequence());
+    }
+
+    /**
+     * Read the records from the sequence in order.
+     */
+    public synchronized void replay(long fromSequence, RecordHandler handler) {
+        for (Segment segment : segments) {
+            long end = segment.firstSequence + segment.count;
+            if (end <= fromSequence) {
+                continue;
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            for (long sequence = Math.max(fromSequence, segment.firstSequence); sequence < end; sequence++) {
+                int position = segment.position(sequence - segment.firstSequence);
+                handler.record(sequence, buffer.getInt(position), buffer.getInt(position + 4),
+                        buffer.getLong(position + 8));
+            }
+        }
+    }
+
+    /**
+     * Delete the segments with only records before the sequence, e.g. when covered by a snapshot.
+     */
+    public synchronized void truncateBefore(long sequence) throws IOException {
+        while (segments.size() > 1 && segments.get(1).firstSequence <= sequence) {
+            segments.remove(0).delete();
+        }
+    }
+
+    @Override public void close() {
+        sync();
+    }
+
+    private void roll() {
+        try {
+            Path file = directory.resolve(String.format("%020d%s", nextSequence, SUFFIX));
+            current = Segment.create(file, nextSequence, recordsPerSegment);
+            segments.add(current);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create journal segment", e);
+        }
+    }
+
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        // Zero padded sequences sort by name
+        files.sort(null);
+        return files;
+    }
+
+    private static int check(int instanceId, int eventId, long timestamp) {
+        long hash = (instanceId * 0x9e3779b97f4a7c15L) ^ (eventId * 0xc2b2ae3d27d4eb4fL) ^ timestamp ^ MAGIC;
+        hash ^= hash >>> 31;
+        int check = (int) (hash ^ (hash >>> 32));
+        // A zero filled slot is never valid
+        return check == 0 ? 1 : check;
+    }
+
+    /**
+     * Receives replayed records.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void record(long sequence, int instanceId, int eventId, long timestamp);
+    }
+
+    private static final class Segment {
+        final Path file;
+        final long firstSequence;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        // Records written
+        int count;
+
+        private Segment(Path file, long firstSequence, MappedByteBuffer buffer, int capacity) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        static Segment create(Path file, long firstSequence, int capacity) throws IOException {
+            MappedByteBuffer buffer = mapFile(file, capacity);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, firstSequence);
+            buffer.putInt(16, RECORD_SIZE);
+            // Else a crash before the first sync leaves a zero filled file
+            buffer.force();
+            return new Segment(file, firstSequence, buffer, capacity);
+        }
+
+        static Segment map(Path file) throws IOException {
+            // Segments keep their size if the journal is opened with another segment size
+            int capacity = (int) ((Files.size(file) - HEADER_SIZE) / RECORD_SIZE);
+            MappedByteBuffer buffer = mapFile(file, capacity);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(16) != RECORD_SIZE) {
+                throw new IllegalStateException("Not a journal segment of version " + VERSION + ": " + file);
+            }
+            return new Segment(file, buffer.getLong(8), buffer, capacity);
+        }
+
+        /**
+         * @return true if the file is shorter than the header or its header is zero filled
+         */
+        static boolean isBlank(Path file) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                int read = 0;
+                while (header.hasRemaining() && read >= 0) {
+                    read = channel.read(header);
+                }
+            }
+            if (header.hasRemaining()) {
+                return true;
+            }
+            for (int i = 0; i < HEADER_SIZE; i++) {
+                if (header.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static MappedByteBuffer mapFile(Path file, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            }
+        }
+
+        /**
+         * Count the valid records.
+         *
+         * @return number of records
+         */
+        int scan() {
+            count = 0;
+            while (count < capacity) {
+                int position = position(count);
+                int check = buffer.getInt(position + 16);
+                if (check != check(buffer.getInt(position), buffer.getInt(position + 4), buffer.getLong(position + 8))) {
+                    break;
+                }
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Clear records left after the last valid record by a crash so they are not taken as valid when the torn
+         * record is overwritten.
+         */
+        void clearTail() {
+            for (int index = count; index < capacity && buffer.getInt(position(index) + 16) != 0; index++) {
+                buffer.putInt(position(index) + 16, 0);
+            }
+        }
+
+        void write(int instanceId, int eventId, long timestamp) {
+            int position = position(count);
+            buffer.putInt(position, instanceId);
+            buffer.putInt(position + 4, eventId);
+            buffer.putLong(position + 8, timestamp);
+            buffer.putInt(position + 16, check(instanceId, eventId, timestamp));
+            count++;
+        }
+
+        int position(long index) {
+            return HEADER_SIZE + (int) index * RECORD_SIZE;
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+}
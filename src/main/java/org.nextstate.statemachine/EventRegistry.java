@@ -0,0 +1,85 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns event names to dense int ids. The ids are used to index the compiled transition table of each state.
+ */
+public class EventRegistry {
+    public static final int UNKNOWN_EVENT = -1;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Register the event if not already known.
+     *
+     * @return the id of the event
+     */
+    public int register(String event) {
+        Integer id = ids.get(event);
+        if (id == null) {
+            id = names.size();
+            ids.put(event, id);
+            names.add(event);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the event or {@link #UNKNOWN_EVENT} if no transition is guarded by the event
+     */
+    public int idOf(String event) {
+        Integer id = ids.get(event);
+        return id == null ? UNKNOWN_EVENT : id;
+    }
+
+    /**
+     * Resolve an event object for the state, see {@link Event}: the first class of the event, its superclasses and
+     * then their interfaces, guarding a transition from the state.
+     *
+     * @return the id of the class matched, else the id of the event class or {@link #UNKNOWN_EVENT}
+     */
+    public int idOf(Class<? extends Event> eventClass, State state) {
+        for (Class<?> type = eventClass; type != null; type = type.getSuperclass()) {
+            int id = idOf(type.getName());
+            if (id != UNKNOWN_EVENT && state.pathFor(id) != null) {
+                return id;
+            }
+        }
+        for (Class<?> type = eventClass; type != null; type = type.getSuperclass()) {
+            int id = interfaceIdOf(type, state);
+            if (id != UNKNOWN_EVENT) {
+                return id;
+            }
+        }
+        return idOf(eventClass.getName());
+    }
+
+    private int interfaceIdOf(Class<?> type, State state) {
+        for (Class<?> implemented : type.getInterfaces()) {
+            int id = idOf(implemented.getName());
+            if (id != UNKNOWN_EVENT && state.pathFor(id) != null) {
+                return id;
+            }
+        }
+        for (Class<?> implemented : type.getInterfaces()) {
+            int id = interfaceIdOf(implemented, state);
+            if (id != UNKNOWN_EVENT) {
+                return id;
+            }
+        }
+        return UNKNOWN_EVENT;
+    }
+
+    public String nameOf(int eventId) {
+        return names.get(eventId);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
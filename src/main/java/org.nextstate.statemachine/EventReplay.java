@@ -0,0 +1,501 @@
+package org.nextstate.statemachine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replay a recorded event log, e.g. the {@link EventJournal} of a {@link DurableStateMachinePool}, against a
+ * definition and optionally a changed candidate definition, to compare the outcome before rolling the candidate out.
+ * <br>
+ * The log is read in chunks. Each chunk is partitioned by instance id and the partitions are executed in parallel on
+ * a {@link ForkJoinPool}, every partition owning the sessions of its instance ids so the events of a session are
+ * executed in log order. Sessions only hold the active state ids, the actions are not performed but stubbed or given
+ * to an {@link ActionRecorder}. Listeners and metrics of the definitions are not notified.
+ * <br>
+ * A session starts in the initial state when its instance is allocated or, if the allocation is not in the log, at
+ * its first event. It ends when the instance is freed or the log ends, counted in the state it ends in. The events of
+ * the log are the ids of the recorded definition, they are mapped to the candidate by name. Instance ids are not
+ * negative.
+ */
+public final class EventReplay {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final StateMachineDefinition definition;
+    private StateMachineDefinition candidate;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int partitions;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private ActionRecorder recorder;
+
+    private EventReplay(StateMachineDefinition definition) {
+        this.definition = definition;
+    }
+
+    /**
+     * @param definition the definition the log was recorded with
+     */
+    public static EventReplay replay(StateMachineDefinition definition) {
+        return new EventReplay(definition);
+    }
+
+    /**
+     * Replay the same events on the candidate, see {@link ReplayReport#getCandidate()}.
+     */
+    public EventReplay compareWith(StateMachineDefinition candidateDefinition) {
+        this.candidate = candidateDefinition;
+        return this;
+    }
+
+    /**
+     * @param forkJoinPool runs the partitions, the common pool by default
+     */
+    public EventReplay pool(ForkJoinPool forkJoinPool) {
+        this.pool = forkJoinPool;
+        return this;
+    }
+
+    /**
+     * @param count partitions of the sessions, four per thread of the pool by default
+     */
+    public EventReplay partitions(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Partitions must be at least 1");
+        }
+        this.partitions = count;
+        return this;
+    }
+
+    /**
+     * @param records records of the log read and executed at the time
+     */
+    public EventReplay chunkSize(int records) {
+        if (records < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+        this.chunkSize = records;
+        return this;
+    }
+
+    /**
+     * Give each action to the recorder instead of stubbing it. Called concurrently from the partitions.
+     */
+    public EventReplay recordActions(ActionRecorder actionRecorder) {
+        this.recorder = actionRecorder;
+        return this;
+    }
+
+    /**
+     * Replay the journal from the first record.
+     */
+    public ReplayReport run(EventJournal journal) {
+        Run run = new Run(chunkSize);
+        journal.replay(0, (sequence, instanceId, eventId, timestamp) -> run.add(instanceId, eventId));
+        return run.finish();
+    }
+
+    /**
+     * Replay the log of instance ids and the recorded event ids of the definition in order.
+     */
+    public ReplayReport run(int[] instanceIds, int[] eventIds) {
+        if (instanceIds.length != eventIds.length) {
+            throw new IllegalArgumentException("Instance ids and event ids must be the same length");
+        }
+        Run run = new Run(Math.max(Math.min(chunkSize, instanceIds.length), 1));
+        for (int i = 0; i < instanceIds.length; i++) {
+            run.add(instanceIds[i], eventIds[i]);
+        }
+        return run.finish();
+    }
+
+    /**
+     * Receives the actions a replayed session would perform.
+     */
+    @FunctionalInterface
+    public interface ActionRecorder {
+        void performed(StateMachineDefinition definition, int instanceId, Action action);
+    }
+
+    /**
+     * One replay: the chunk being read and the partitions with their sessions and counts.
+     */
+    private final class Run {
+        private final int partitionCount = partitions > 0 ? partitions : pool.getParallelism() * 4;
+        private final Partition[] partitionsOf = new Partition[partitionCount];
+        private final int[] instanceIds;
+        private final int[] eventIds;
+        // The chunk sorted by partition
+        private final int[] sortedInstanceIds;
+        private final int[] sortedEventIds;
+        // Start of the records of each partition in the sorted chunk
+        private final int[] starts = new int[partitionCount + 1];
+        private final Replayed recorded;
+        private final Replayed replayedCandidate;
+        private int size;
+
+        Run(int capacity) {
+            instanceIds = new int[capacity];
+            eventIds = new int[capacity];
+            sortedInstanceIds = new int[capacity];
+            sortedEventIds = new int[capacity];
+            recorded = new Replayed(definition, null);
+            replayedCandidate = candidate != null ? new Replayed(candidate, definition) : null;
+            for (int p = 0; p < partitionCount; p++) {
+                partitionsOf[p] = new Partition();
+            }
+        }
+
+        void add(int instanceId, int eventId) {
+            if (instanceId < 0) {
+                throw new IllegalStateException("Negative instance id " + instanceId);
+            }
+            instanceIds[size] = instanceId;
+            eventIds[size] = eventId;
+            if (++size == instanceIds.length) {
+                executeChunk();
+            }
+        }
+
+        ReplayReport finish() {
+            executeChunk();
+            for (Partition partition : partitionsOf) {
+                partition.endAll();
+            }
+            ReplayReport candidateReport = null;
+            long divergentSessions = 0;
+            Map<String, Long> divergence = new HashMap<>();
+            if (replayedCandidate != null) {
+                candidateReport = replayedCandidate.report(partitionsOf, 1, null, 0, null);
+                for (Partition partition : partitionsOf) {
+                    divergentSessions += partition.divergentSessions;
+                    partition.finalStateDivergence.forEach((key, count) -> divergence.merge(
+                            definition.state((int) (key >>> 32)).getName() + " -> "
+                                    + candidate.state((int) (long) key).getName(), count[0], Long::sum));
+                }
+            }
+            return recorded.report(partitionsOf, 0, candidateReport, divergentSessions, divergence);
+        }
+
+        /**
+         * Counting sort of the chunk by partition, then the partitions in parallel.
+         */
+        private void executeChunk() {
+            if (size == 0) {
+                return;
+            }
+            Arrays.fill(starts, 0);
+            for (int i = 0; i < size; i++) {
+                starts[instanceIds[i] % partitionCount + 1]++;
+            }
+            for (int p = 0; p < partitionCount; p++) {
+                starts[p + 1] += starts[p];
+            }
+            int[] next = Arrays.copyOf(starts, partitionCount);
+            for (int i = 0; i < size; i++) {
+                int k = next[instanceIds[i] % partitionCount]++;
+                sortedInstanceIds[k] = instanceIds[i];
+                sortedEventIds[k] = eventIds[i];
+            }
+            pool.invoke(new ChunkTask(0, partitionCount));
+            size = 0;
+        }
+
+        /**
+         * Split the partitions in halves down to one.
+         */
+        private final class ChunkTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int from;
+            private final int to;
+
+            ChunkTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override protected void compute() {
+                if (to - from == 1) {
+                    partitionsOf[from].execute(starts[from], starts[from + 1]);
+                } else {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new ChunkTask(from, middle), new ChunkTask(middle, to));
+                }
+            }
+        }
+
+        /**
+         * The sessions with instance id modulo the partition count equal to the partition, by instance id divided by
+         * the partition count.
+         */
+        private final class Partition {
+            // Active state id of each session in the definitions, NONE if no session
+            private int[][] activeStates = new int[replayedCandidate != null ? 2 : 1][16];
+            private boolean[] diverged = new boolean[16];
+            private final Replayed.Counts[] counts = {recorded.new Counts(),
+                    replayedCandidate != null ? replayedCandidate.new Counts() : null};
+            long divergentSessions;
+            // Sessions by recorded state id << 32 | candidate state id of the final states differing by name
+            final Map<Long, long[]> finalStateDivergence = new HashMap<>();
+
+            {
+                for (int[] states : activeStates) {
+                    Arrays.fill(states, Replayed.NONE);
+                }
+            }
+
+            void execute(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    int instanceId = sortedInstanceIds[k];
+                    int eventId = sortedEventIds[k];
+                    int session = instanceId / partitionCount;
+                    ensureCapacity(session);
+                    if (eventId == DurableStateMachinePool.ALLOCATED) {
+                        end(session);
+                        start(session, instanceId);
+                    } else if (eventId == DurableStateMachinePool.FREED) {
+                        end(session);
+                    } else {
+                        if (activeStates[0][session] == Replayed.NONE) {
+                            start(session, instanceId);
+                        }
+                        activeStates[0][session] = recorded.execute(counts[0], activeStates[0][session], eventId,
+                                instanceId);
+                        if (replayedCandidate != null) {
+                            int state = replayedCandidate.execute(counts[1], activeStates[1][session],
+                                    replayedCandidate.eventId(eventId), instanceId);
+                            activeStates[1][session] = state;
+                            if (!diverged[session] && replayedCandidate.stateIds[activeStates[0][session]] != state) {
+                                diverged[session] = true;
+                                divergentSessions++;
+                            }
+                        }
+                    }
+                }
+            }
+
+            private void start(int session, int instanceId) {
+                activeStates[0][session] = recorded.start(counts[0], instanceId);
+                if (replayedCandidate != null) {
+                    activeStates[1][session] = replayedCandidate.start(counts[1], instanceId);
+                    diverged[session] = false;
+                }
+            }
+
+            private void end(int session) {
+                int state = activeStates[0][session];
+                if (state == Replayed.NONE) {
+                    return;
+                }
+                counts[0].finalStates[state]++;
+                activeStates[0][session] = Replayed.NONE;
+                if (replayedCandidate != null) {
+                    int candidateState = activeStates[1][session];
+                    counts[1].finalStates[candidateState]++;
+                    if (replayedCandidate.stateIds[state] != candidateState) {
+                        finalStateDivergence.computeIfAbsent((long) state << 32 | candidateState,
+                                key -> new long[1])[0]++;
+                    }
+                    activeStates[1][session] = Replayed.NONE;
+                }
+            }
+
+            void endAll() {
+                for (int session = 0; session < diverged.length; session++) {
+                    end(session);
+                }
+            }
+
+            private void ensureCapacity(int session) {
+                if (session < diverged.length) {
+                    return;
+                }
+                int capacity = Math.max(diverged.length * 2, session + 1);
+                for (int d = 0; d < activeStates.length; d++) {
+                    int length = activeStates[d].length;
+                    activeStates[d] = Arrays.copyOf(activeStates[d], capacity);
+                    Arrays.fill(activeStates[d], length, capacity, Replayed.NONE);
+                }
+                diverged = Arrays.copyOf(diverged, capacity);
+            }
+        }
+    }
+
+    /**
+     * A definition being replayed: its states by id, the paths of the states visited and the mapping from the recorded
+     * definition.
+     */
+    private final class Replayed {
+        static final int NONE = -1;
+
+        final StateMachineDefinition replayedDefinition;
+        final State[] states;
+        // Paths by state id, resolved when the state is first visited. Read without lock, the arrays of a row are
+        // filled before it is constructed so its final fields publish them complete.
+        private final Row[] rows;
+        // Event id of this definition by recorded event id, null for the recorded definition
+        final int[] eventIds;
+        // State id of this definition by recorded state id with the same name, NONE if there is no such state
+        final int[] stateIds;
+
+        Replayed(StateMachineDefinition replayedDefinition, StateMachineDefinition recordedDefinition) {
+            replayedDefinition.requireNoPredicateGuards("a replay");
+            this.replayedDefinition = replayedDefinition;
+            this.states = replayedDefinition.getStates().toArray(new State[0]);
+            this.rows = new Row[states.length];
+            if (recordedDefinition == null) {
+                eventIds = null;
+                stateIds = null;
+                return;
+            }
+            EventRegistry recordedEvents = recordedDefinition.getEvents();
+            eventIds = new int[recordedEvents.size()];
+            for (int e = 0; e < eventIds.length; e++) {
+                eventIds[e] = replayedDefinition.eventId(recordedEvents.nameOf(e));
+            }
+            List<State> recordedStates = recordedDefinition.getStates();
+            stateIds = new int[recordedStates.size()];
+            for (State state : recordedStates) {
+                stateIds[state.getId()] = replayedDefinition.stateId(state.getName());
+            }
+        }
+
+        /**
+         * @return the event id of this definition with the name of the recorded event id
+         */
+        int eventId(int recordedEventId) {
+            return recordedEventId >= 0 && recordedEventId < eventIds.length ? eventIds[recordedEventId]
+                    : EventRegistry.UNKNOWN_EVENT;
+        }
+
+        int start(Counts counts, int instanceId) {
+            TransitionPath path = replayedDefinition.getInitialPath();
+            counts.sessions++;
+            if (recorder != null) {
+                record(path, instanceId);
+            }
+            return path.getTarget().getId();
+        }
+
+        /**
+         * @return the new active state id
+         */
+        int execute(Counts counts, int stateId, int eventId, int instanceId) {
+            counts.events++;
+            Row row = rows[stateId];
+            if (row == null) {
+                row = resolve(stateId);
+            }
+            int i = eventId - row.firstEventId;
+            if (eventId < 0 || i < 0 || i >= row.targets.length || row.targets[i] == NONE) {
+                counts.unmatched[stateId]++;
+                return stateId;
+            }
+            counts.transitions[row.transitionIds[i]]++;
+            if (recorder != null) {
+                record(row.paths[i], instanceId);
+            }
+            return row.targets[i];
+        }
+
+        /**
+         * Resolve the paths of the state for the events guarding its transitions and those of its ancestors. Locked
+         * so the partitions do not compile the paths of a state concurrently.
+         */
+        private synchronized Row resolve(int stateId) {
+            Row row = rows[stateId];
+            if (row != null) {
+                return row;
+            }
+            EventRegistry events = replayedDefinition.getEvents();
+            int first = Integer.MAX_VALUE;
+            int last = NONE;
+            for (State state = states[stateId]; state != null; state = state.getParent().orElse(null)) {
+                for (Transition transition : state.getTransitions()) {
+                    int eventId = events.idOf(transition.guardEvent);
+                    if (eventId < 0) {
+                        continue;
+                    }
+                    first = Math.min(first, eventId);
+                    last = Math.max(last, eventId);
+                }
+            }
+            if (last == NONE) {
+                first = 0;
+            }
+            int length = last + 1 - first;
+            TransitionPath[] paths = new TransitionPath[length];
+            int[] targets = new int[length];
+            int[] transitionIds = new int[length];
+            for (int i = 0; i < length; i++) {
+                TransitionPath path = states[stateId].pathFor(first + i);
+                paths[i] = path;
+                targets[i] = path == null ? NONE : path.getTarget().getId();
+                transitionIds[i] = path == null ? NONE : path.getTransition().getId();
+            }
+            row = new Row(first, paths, targets, transitionIds);
+            rows[stateId] = row;
+            return row;
+        }
+
+        private void record(TransitionPath path, int instanceId) {
+            for (int a = 0; a < path.actions.length; a++) {
+                recorder.performed(replayedDefinition, instanceId, path.actions[a]);
+            }
+        }
+
+        ReplayReport report(Run.Partition[] partitions, int index, ReplayReport candidateReport,
+                            long divergentSessions, Map<String, Long> divergence) {
+            Counts total = new Counts();
+            for (Run.Partition partition : partitions) {
+                total.add(partition.counts[index]);
+            }
+            return new ReplayReport(replayedDefinition, total.sessions, total.events, total.finalStates,
+                    total.transitions, total.unmatched, candidateReport, divergentSessions, divergence);
+        }
+
+        /**
+         * The paths of a state by event id from the lowest to the highest event guarding its transitions, with their
+         * target state and transition ids, NONE if no path.
+         */
+        final class Row {
+            final int firstEventId;
+            final TransitionPath[] paths;
+            final int[] targets;
+            final int[] transitionIds;
+
+            Row(int firstEventId, TransitionPath[] paths, int[] targets, int[] transitionIds) {
+                this.firstEventId = firstEventId;
+                this.paths = paths;
+                this.targets = targets;
+                this.transitionIds = transitionIds;
+            }
+        }
+
+        /**
+         * Counts of one partition or the total.
+         */
+        final class Counts {
+            long sessions;
+            long events;
+            final long[] finalStates = new long[states.length];
+            final long[] transitions = new long[replayedDefinition.getTransitions().size()];
+            final long[] unmatched = new long[states.length];
+
+            void add(Counts counts) {
+                sessions += counts.sessions;
+                events += counts.events;
+                for (int s = 0; s < states.length; s++) {
+                    finalStates[s] += counts.finalStates[s];
+                    unmatched[s] += counts.unmatched[s];
+                }
+                for (int t = 0; t < transitions.length; t++) {
+                    transitions[t] += counts.transitions[t];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The paths of a state for one event when the first transition guarded by the event has a predicate guard, in the
+ * order of the transitions up to the first without a predicate. The first path whose guard holds is taken.
+ * <br>
+ * Consecutive {@link Transition#isExclusiveGuard() exclusive} guards hold one at the time at most, so trying them in
+ * another order takes the same path. Every {@link #REORDER_INTERVAL} selections each such run is sorted by the times
+ * its guards held, most first, and the counts are halved to follow changes. The counts are shared by all sessions and
+ * not synchronized, an increment lost to a race only delays a reorder.
+ */
+final class GuardedPaths {
+    static final int REORDER_INTERVAL = 1024;
+
+    private final TransitionPath[] declared;
+    // Runs of exclusive guards as from, to index pairs in declared, empty if none
+    private final int[] runs;
+    // Indexes of declared in the order tried, replaced on reorder
+    private volatile int[] order;
+    private final long[] held;
+    private int selections;
+
+    GuardedPaths(List<TransitionPath> paths) {
+        declared = paths.toArray(new TransitionPath[0]);
+        int[] tried = new int[declared.length];
+        List<Integer> runBounds = new ArrayList<>();
+        for (int i = 0; i < declared.length; i++) {
+            tried[i] = i;
+            if (declared[i].getTransition().exclusiveGuard) {
+                int from = i;
+                while (i + 1 < declared.length && declared[i + 1].getTransition().exclusiveGuard) {
+                    i++;
+                    tried[i] = i;
+                }
+                if (i > from) {
+                    runBounds.add(from);
+                    runBounds.add(i + 1);
+                }
+            }
+        }
+        runs = runBounds.stream().mapToInt(Integer::intValue).toArray();
+        order = tried;
+        held = new long[declared.length];
+    }
+
+    /**
+     * @return the first path whose guard holds for the context, null if none
+     */
+    TransitionPath select(Object context) {
+        int[] tried = order;
+        for (int i : tried) {
+            TransitionPath path = declared[i];
+            Predicate<Object> guard = path.getTransition().guard;
+            if (guard == null || guard.test(context)) {
+                if (runs.length > 0) {
+                    held[i]++;
+                    if (++selections >= REORDER_INTERVAL) {
+                        reorder();
+                    }
+                }
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private void reorder() {
+        selections = 0;
+        int[] reordered = order.clone();
+        for (int r = 0; r < runs.length; r += 2) {
+            // Insertion sort of a run by times held, the runs are short
+            for (int i = runs[r] + 1; i < runs[r + 1]; i++) {
+                int index = reordered[i];
+                int j = i - 1;
+                while (j >= runs[r] && held[reordered[j]] < held[index]) {
+                    reordered[j + 1] = reordered[j];
+                    j--;
+                }
+                reordered[j + 1] = index;
+            }
+        }
+        for (int i = 0; i < held.length; i++) {
+            held[i] >>= 1;
+        }
+        order = reordered;
+    }
+
+    /**
+     * @return the paths in the order they are tried
+     */
+    List<TransitionPath> getOrder() {
+        List<TransitionPath> paths = new ArrayList<>(declared.length);
+        for (int i : order) {
+            paths.add(declared[i]);
+        }
+        return paths;
+    }
+}
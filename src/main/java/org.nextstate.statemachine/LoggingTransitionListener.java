@@ -0,0 +1,31 @@
+package org.nextstate.statemachine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log the execution on debug level.
+ */
+public class LoggingTransitionListener implements TransitionListener {
+    private static final Logger log = LoggerFactory.getLogger(LoggingTransitionListener.class);
+
+    @Override public void beforeEvent(StateMachineDefinition definition, State activeState, String event) {
+        log.debug("execute - {} activeState: {} event: {}", definition.getName(), activeState.getName(), event);
+    }
+
+    @Override public void transitionTaken(StateMachineDefinition definition, State source, Transition transition,
+                                          String event) {
+        if (log.isDebugEnabled()) {
+            log.debug("execute - {} event: {} transition: {} to state: {}", definition.getName(), event,
+                    transition.getName(), transition.getTargetState().getName());
+        }
+    }
+
+    @Override public void eventUnmatched(StateMachineDefinition definition, State activeState, String event) {
+        log.debug("execute - No transition match event: {} in state: {}", event, activeState.getName());
+    }
+
+    @Override public void entryExecuted(StateMachineDefinition definition, State state) {
+        log.debug("execute - new active state: {}", state.getName());
+    }
+}
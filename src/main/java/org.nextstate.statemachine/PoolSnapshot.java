@@ -0,0 +1,104 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Active state id of every instance of a {@link StateMachinePool} after the journal records before a sequence: a
+ * header with the sequence followed by a {@link StateMachineSnapshot}. Written to a temporary file and moved in place
+ * so a snapshot file is always complete.
+ */
+final class PoolSnapshot {
+    private static final int MAGIC = 0x4e53534e;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final String SUFFIX = ".snapshot";
+
+    final long sequence;
+    final int[] activeStateIds;
+    final int highWaterMark;
+
+    PoolSnapshot(long sequence, int[] activeStateIds, int highWaterMark) {
+        this.sequence = sequence;
+        this.activeStateIds = activeStateIds;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return the written file
+     */
+    static Path write(Path directory, StateMachineDefinition definition, long sequence, int[] activeStateIds,
+                      int highWaterMark) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", sequence, SUFFIX));
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + StateMachineSnapshot.size(definition, highWaterMark));
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(sequence);
+            StateMachineSnapshot.write(definition, activeStateIds, highWaterMark, buffer);
+            buffer.force();
+        }
+        return Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the snapshot with the highest sequence in the directory
+     */
+    static Optional<PoolSnapshot> readLatest(Path directory, StateMachineDefinition definition) throws IOException {
+        List<Path> files = snapshotFiles(directory);
+        if (files.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(read(files.get(files.size() - 1), definition));
+    }
+
+    /**
+     * @throws IllegalStateException if the snapshot is not of the definition
+     */
+    static PoolSnapshot read(Path file, StateMachineDefinition definition) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IllegalStateException("Not a pool snapshot of version " + VERSION + ": " + file);
+            }
+            long sequence = buffer.getLong();
+            int[] activeStateIds = StateMachineSnapshot.read(definition, buffer);
+            return new PoolSnapshot(sequence, activeStateIds, activeStateIds.length);
+        }
+    }
+
+    /**
+     * Delete the snapshots before the sequence and temporary files left by a crash.
+     */
+    static void deleteBefore(Path directory, long sequence) throws IOException {
+        for (Path file : snapshotFiles(directory)) {
+            if (Long.parseLong(file.getFileName().toString().replace(SUFFIX, "")) < sequence) {
+                Files.delete(file);
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX + ".tmp")) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static List<Path> snapshotFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+}
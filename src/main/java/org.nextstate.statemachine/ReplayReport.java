@@ -0,0 +1,162 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Outcome of an {@link EventReplay} of one definition. The counts are by state and transition of the definition, maps
+ * are keyed by state name in state id order and only hold the states counted.
+ */
+public final class ReplayReport {
+    private final StateMachineDefinition definition;
+    private final long sessions;
+    private final long events;
+    private final long[] finalStates;
+    private final long[] transitions;
+    private final long[] unmatched;
+    private final ReplayReport candidate;
+    private final long divergentSessions;
+    private final Map<String, Long> finalStateDivergence;
+
+    ReplayReport(StateMachineDefinition definition, long sessions, long events, long[] finalStates, long[] transitions,
+                 long[] unmatched, ReplayReport candidate, long divergentSessions,
+                 Map<String, Long> finalStateDivergence) {
+        this.definition = definition;
+        this.sessions = sessions;
+        this.events = events;
+        this.finalStates = finalStates;
+        this.transitions = transitions;
+        this.unmatched = unmatched;
+        this.candidate = candidate;
+        this.divergentSessions = divergentSessions;
+        this.finalStateDivergence = finalStateDivergence == null ? Collections.emptyMap()
+                : Collections.unmodifiableMap(finalStateDivergence);
+    }
+
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    public long getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return events executed, matched or not, without allocations and frees
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * @return sessions by the state they ended in
+     */
+    public Map<String, Long> getFinalStateCounts() {
+        return byStateName(finalStates);
+    }
+
+    /**
+     * @return times each transition was taken by transition id
+     */
+    public long getTransitionCount(int transitionId) {
+        return transitions[transitionId];
+    }
+
+    /**
+     * @return transitions never taken, by id
+     */
+    public List<Transition> getUncoveredTransitions() {
+        List<Transition> uncovered = new ArrayList<>();
+        List<Transition> all = definition.getTransitions();
+        for (int t = 0; t < transitions.length; t++) {
+            if (transitions[t] == 0) {
+                uncovered.add(all.get(t));
+            }
+        }
+        return uncovered;
+    }
+
+    /**
+     * @return the fraction of the transitions taken at least once, 1 if the definition has none
+     */
+    public double getTransitionCoverage() {
+        if (transitions.length == 0) {
+            return 1;
+        }
+        int covered = 0;
+        for (long count : transitions) {
+            if (count > 0) {
+                covered++;
+            }
+        }
+        return (double) covered / transitions.length;
+    }
+
+    /**
+     * @return events without a transition from the active state by the active state
+     */
+    public Map<String, Long> getUnmatchedEventCounts() {
+        return byStateName(unmatched);
+    }
+
+    public long getUnmatchedEvents() {
+        long total = 0;
+        for (long count : unmatched) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the report of the candidate definition the events were also replayed on
+     */
+    public Optional<ReplayReport> getCandidate() {
+        return Optional.ofNullable(candidate);
+    }
+
+    /**
+     * @return sessions that were in a state with another name in the candidate after some event
+     */
+    public long getDivergentSessions() {
+        return divergentSessions;
+    }
+
+    /**
+     * @return sessions ending in a state with another name in the candidate, by "state -&gt; candidate state"
+     */
+    public Map<String, Long> getFinalStateDivergence() {
+        return finalStateDivergence;
+    }
+
+    private Map<String, Long> byStateName(long[] counts) {
+        Map<String, Long> byName = new LinkedHashMap<>();
+        for (int s = 0; s < counts.length; s++) {
+            if (counts[s] > 0) {
+                byName.merge(definition.state(s).getName(), counts[s], Long::sum);
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * @return the counts, one per line
+     */
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder();
+        String newLine = System.lineSeparator();
+        sb.append(definition.getName()).append(": ").append(sessions).append(" sessions, ").append(events)
+                .append(" events, ").append(getUnmatchedEvents()).append(" unmatched").append(newLine);
+        sb.append("Final states: ").append(getFinalStateCounts()).append(newLine);
+        sb.append(String.format("Transition coverage: %.1f%%", getTransitionCoverage() * 100)).append(newLine);
+        if (candidate != null) {
+            sb.append("Divergent sessions: ").append(divergentSessions).append(newLine);
+            sb.append("Final state divergence: ").append(finalStateDivergence).append(newLine);
+            sb.append(candidate);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer single-consumer ring of preallocated (key, event) slots. Producers claim a sequence, write
+ * the slot and publish the sequence in the slot. The consumer reads published slots in sequence order and releases
+ * them by advancing its own sequence.
+ */
+class RingBuffer<K> {
+    private final int mask;
+    private final Object[] keys;
+    private final String[] events;
+    // Sequence published in each slot, -1 until first published
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final WaitStrategy waitStrategy;
+
+    RingBuffer(int size, WaitStrategy waitStrategy) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring buffer size must be a power of 2");
+        }
+        this.mask = size - 1;
+        this.keys = new Object[size];
+        this.events = new String[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean tryPublish(K key, String event) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() > mask) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        write(sequence, key, event);
+        return true;
+    }
+
+    /**
+     * Publish, waiting with the wait strategy while the ring is full.
+     */
+    void publish(K key, String event) {
+        long sequence = claimed.getAndIncrement();
+        int attempt = 0;
+        while (sequence - consumed.get() > mask) {
+            waitStrategy.idle(++attempt);
+        }
+        write(sequence, key, event);
+    }
+
+    private void write(long sequence, K key, String event) {
+        int slot = (int) sequence & mask;
+        keys[slot] = key;
+        events[slot] = event;
+        published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Consume the published events in order, up to the end of the ring.
+     *
+     * @return number of events consumed
+     */
+    @SuppressWarnings("unchecked")
+    int consume(Consumer<K> consumer) {
+        long next = consumed.get();
+        int count = 0;
+        int slot = (int) next & mask;
+        while (published.get(slot) == next + count) {
+            consumer.accept((K) keys[slot], events[slot]);
+            keys[slot] = null;
+            events[slot] = null;
+            count++;
+            if (++slot > mask) {
+                break;
+            }
+        }
+        if (count > 0) {
+            consumed.lazySet(next + count);
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return consumed.get() == claimed.get();
+    }
+
+    WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    interface Consumer<K> {
+        void accept(K key, String event);
+    }
+}
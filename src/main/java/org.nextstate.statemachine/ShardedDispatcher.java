@@ -0,0 +1,171 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spread state machine instances over worker threads by the hash of the instance key. Each worker owns the machines
+ * of its shard and executes their events with {@link StateMachine#execute(String)}, so the machines need no locks.
+ * <br>
+ * Producers publish events into a bounded ring buffer per shard. When the ring is full {@link #publish(Object, String)}
+ * waits with the wait strategy and {@link #tryPublish(Object, String)} returns false. Events for the same key are
+ * executed in publish order for each producer thread.
+ * <br>
+ * The rings only carry events, so a machine whose definition has a
+ * {@link StateMachineDefinition#setTimingWheel(TimingWheel) timing wheel} is rejected when it is created, its timers
+ * would expire outside the shard. Timed transitions of the other machines are only taken by their guard event.
+ *
+ * @param <K> The type of the instance key
+ */
+public class ShardedDispatcher<K> implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ShardedDispatcher.class);
+
+    private final List<Shard> shards;
+    private final Function<K, StateMachine> factory;
+    private final BiConsumer<K, StateMachine> afterEvent;
+    private final CountDownLatch stopped;
+    private volatile boolean running = true;
+
+    /**
+     * @param ringSize   slots in the ring buffer of each shard, a power of 2
+     * @param factory    creates the machine for a key on the first event for the key
+     * @param afterEvent called on the worker thread after each event, may be null
+     */
+    public ShardedDispatcher(int shardCount, int ringSize, WaitStrategy waitStrategy,
+                             Function<K, StateMachine> factory, BiConsumer<K, StateMachine> afterEvent) {
+        this.factory = factory;
+        this.afterEvent = afterEvent;
+        this.shards = new ArrayList<>(shardCount);
+        this.stopped = new CountDownLatch(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            Shard shard = new Shard(new RingBuffer<>(ringSize, waitStrategy));
+            shards.add(shard);
+            Thread worker = new Thread(shard, "statemachine-shard-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    public ShardedDispatcher(int shardCount, int ringSize, WaitStrategy waitStrategy,
+                             Function<K, StateMachine> factory) {
+        this(shardCount, ringSize, waitStrategy, factory, null);
+    }
+
+    /**
+     * Publish the event for the instance, waiting while the ring buffer of the shard is full.
+     */
+    public void publish(K key, String event) {
+        checkRunning();
+        shard(key).ring.publish(key, event);
+    }
+
+    /**
+     * @return false if the ring buffer of the shard is full
+     */
+    public boolean tryPublish(K key, String event) {
+        checkRunning();
+        return shard(key).ring.tryPublish(key, event);
+    }
+
+    public int shardOf(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % shards.size();
+    }
+
+    /**
+     * Visit all machines. Only allowed after the dispatcher is closed.
+     */
+    public void forEach(BiConsumer<K, StateMachine> visitor) {
+        if (running) {
+            throw new IllegalStateException("Machines are owned by the workers until the dispatcher is closed");
+        }
+        for (Shard shard : shards) {
+            shard.machines.forEach(visitor);
+        }
+    }
+
+    /**
+     * Stop accepting events, execute the published events and stop the workers. Producers must have stopped
+     * publishing, an event published while closing may not be executed. If interrupted while waiting the interrupt
+     * status is set again and the workers stop on their own.
+     */
+    @Override public void close() {
+        running = false;
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        return stopped.await(timeout, unit);
+    }
+
+    private Shard shard(K key) {
+        return shards.get(shardOf(key));
+    }
+
+    private void checkRunning() {
+        if (!running) {
+            throw new IllegalStateException("Dispatcher is closed");
+        }
+    }
+
+    private final class Shard implements Runnable, RingBuffer.Consumer<K> {
+        final RingBuffer<K> ring;
+        final Map<K, StateMachine> machines = new HashMap<>();
+
+        Shard(RingBuffer<K> ring) {
+            this.ring = ring;
+        }
+
+        @Override public void run() {
+            try {
+                int attempt = 0;
+                while (running || !ring.isEmpty()) {
+                    if (ring.consume(this) > 0) {
+                        attempt = 0;
+                    } else {
+                        ring.getWaitStrategy().idle(++attempt);
+                    }
+                }
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        private StateMachine create(K key) {
+            StateMachine machine = factory.apply(key);
+            if (machine.getDefinition().getTimingWheel().isPresent()) {
+                throw new IllegalStateException("Machine " + machine.getName() + " has a timing wheel, its timers would "
+                        + "expire outside the shard");
+            }
+            return machine;
+        }
+
+        @Override public void accept(K key, String event) {
+            try {
+                // A failing factory is tried again on the next event for the key
+                StateMachine machine = machines.computeIfAbsent(key, this::create);
+                machine.execute(event);
+                if (afterEvent != null) {
+                    afterEvent.accept(key, machine);
+                }
+            } catch (RuntimeException e) {
+                log.error("Event {} for {} failed", event, key, e);
+            }
+        }
+    }
+}
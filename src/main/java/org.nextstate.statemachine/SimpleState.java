@@ -1,15 +1,16 @@
 package org.nextstate.statemachine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+/**
+ * A state with entry and exit actions and transitions. A state with substates is a composite state: entering it
+ * enters its initial substate and the transitions of the composite state apply to all substates that have no
+ * transition for the event.
+ */
 public class SimpleState implements State {
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
-
     protected Optional<Action> entry = Optional.empty();
     protected Optional<String> entryActionName = Optional.empty();
     protected Optional<Action> exit = Optional.empty();
@@ -17,6 +18,18 @@ public class SimpleState implements State {
 
     protected final String name;
     protected final List<Transition> transitions = new ArrayList<>();
+    protected final List<State> substates = new ArrayList<>();
+    protected State initialSubstate;
+    protected State parent;
+
+    // Compiled paths by event id. First transition guarded by the event wins, then the first of the parent...
+    // The path of a transition with a predicate guard selects among the transitions guarded by the event
+    private int id = -1;
+    private EventRegistry events;
+    private PathTable pathTable;
+    // Event id by event class, cached with the paths
+    private ClassValue<Integer> eventIdsByClass;
+    private Boolean toFinalState;
 
     public SimpleState(String name) {
         this.name = name;
@@ -30,16 +43,194 @@ public class SimpleState implements State {
         return entryActionName;
     }
 
+    @Override public Optional<Action> getExit() {
+        return exit;
+    }
+
     public String getName() {
         return name;
     }
 
+    @Override public int getId() {
+        return id;
+    }
+
+    @Override public List<Transition> getTransitions() {
+        return transitions;
+    }
+
     public void addTransition(Transition transition) {
         this.transitions.add(transition);
+        this.pathTable = null;
+        this.eventIdsByClass = null;
+        this.toFinalState = null;
     }
 
     public void addTransitions(List<Transition> transitionList) {
         this.transitions.addAll(transitionList);
+        this.pathTable = null;
+        this.eventIdsByClass = null;
+        this.toFinalState = null;
+    }
+
+    /**
+     * Add a substate, making this a composite state. The first substate is the initial substate unless another is
+     * set. Add the substates before the state machine is compiled.
+     */
+    public void addSubstate(SimpleState substate) {
+        if (substate.parent != null && substate.parent != this) {
+            throw new IllegalStateException("State " + substate.getName() + " is already a substate of "
+                    + substate.parent.getName());
+        }
+        substate.parent = this;
+        if (!substates.contains(substate)) {
+            substates.add(substate);
+        }
+        if (initialSubstate == null) {
+            initialSubstate = substate;
+        }
+    }
+
+    @Override public Optional<State> getParent() {
+        return Optional.ofNullable(parent);
+    }
+
+    @Override public List<State> getSubstates() {
+        return Collections.unmodifiableList(substates);
+    }
+
+    @Override public Optional<State> getInitialSubstate() {
+        return Optional.ofNullable(initialSubstate);
+    }
+
+    /**
+     * Compile the transitions of this state and the inherited transitions of its ancestors to paths indexed by event
+     * id. A composite state is never active so only its own transitions are compiled.
+     */
+    @Override public void compile(int id, EventRegistry events) {
+        if (this.events != null && this.events != events) {
+            // Sessions of the other definition index the paths with its event ids
+            throw new IllegalStateException("State " + name + " is already compiled into another definition");
+        }
+        compilePaths(id, events);
+    }
+
+    /**
+     * @return the table compiled, also when discarded meanwhile
+     */
+    private PathTable compilePaths(int id, EventRegistry events) {
+        List<Transition> effective = new ArrayList<>(getTransitions());
+        if (substates.isEmpty()) {
+            for (State ancestor = parent; ancestor != null; ancestor = ancestor.getParent().orElse(null)) {
+                effective.addAll(ancestor.getTransitions());
+            }
+        }
+        // Indexed from the lowest event id, in generated machines each state may have its own events
+        int[] eventIds = new int[effective.size()];
+        int firstEventId = Integer.MAX_VALUE;
+        int lastEventId = -1;
+        for (int i = 0; i < eventIds.length; i++) {
+            int eventId = events.register(effective.get(i).guardEvent);
+            firstEventId = Math.min(firstEventId, eventId);
+            lastEventId = Math.max(lastEventId, eventId);
+            eventIds[i] = eventId;
+        }
+        if (lastEventId < 0) {
+            firstEventId = 0;
+        }
+        for (int i = 0; i < eventIds.length; i++) {
+            eventIds[i] -= firstEventId;
+        }
+        int size = lastEventId + 1 - firstEventId;
+        TransitionPath[] table = new TransitionPath[size];
+        List<List<TransitionPath>> guarded = null;
+        for (int i = 0; i < eventIds.length; i++) {
+            TransitionPath first = table[eventIds[i]];
+            if (first == null) {
+                first = TransitionPath.of(this, effective.get(i));
+                table[eventIds[i]] = first;
+                if (first.getTransition().guard != null) {
+                    if (guarded == null) {
+                        guarded = new ArrayList<>(Collections.nCopies(size, null));
+                    }
+                    guarded.set(eventIds[i], new ArrayList<>(Collections.singletonList(first)));
+                }
+            } else if (guarded != null && guarded.get(eventIds[i]) != null) {
+                // Tried after the guarded paths before it, up to the first without a guard
+                List<TransitionPath> candidates = guarded.get(eventIds[i]);
+                if (candidates.get(candidates.size() - 1).getTransition().guard != null) {
+                    candidates.add(TransitionPath.of(this, effective.get(i)));
+                }
+            }
+        }
+        if (guarded != null) {
+            for (int e = 0; e < size; e++) {
+                if (guarded.get(e) != null) {
+                    table[e].guarded = new GuardedPaths(guarded.get(e));
+                }
+            }
+        }
+        PathTable compiled = new PathTable(firstEventId, table);
+        this.id = id;
+        this.events = events;
+        this.pathTable = compiled;
+        this.eventIdsByClass = new ClassValue<Integer>() {
+            @SuppressWarnings("unchecked")
+            @Override protected Integer computeValue(Class<?> type) {
+                return events.idOf((Class<? extends Event>) type, SimpleState.this);
+            }
+        };
+        this.toFinalState = transitionToFinalState(getTransitions());
+        return compiled;
+    }
+
+    /**
+     * Set the id and events without compiling, the paths are compiled on the first {@link #pathFor(int)}.
+     */
+    void assign(int id, EventRegistry events) {
+        this.id = id;
+        this.events = events;
+        this.pathTable = null;
+        this.eventIdsByClass = null;
+    }
+
+    /**
+     * Drop the compiled paths, they are compiled again on the next {@link #pathFor(int)}.
+     */
+    void discardPaths() {
+        this.pathTable = null;
+        this.eventIdsByClass = null;
+        this.toFinalState = null;
+    }
+
+    @Override public Transition transitionFor(int eventId) {
+        TransitionPath path = pathFor(eventId);
+        return path == null ? null : path.getTransition();
+    }
+
+    @Override public TransitionPath pathFor(int eventId) {
+        PathTable table = pathTable;
+        if (table == null) {
+            if (events == null) {
+                throw new IllegalStateException("State " + name + " is not compiled");
+            }
+            table = compilePaths(id, events);
+        }
+        int index = eventId - table.firstEventId;
+        return eventId >= 0 && index >= 0 && index < table.paths.length ? table.paths[index] : null;
+    }
+
+    @Override public int eventIdFor(Class<? extends Event> eventClass) {
+        ClassValue<Integer> ids = eventIdsByClass;
+        if (ids == null) {
+            pathFor(EventRegistry.UNKNOWN_EVENT);
+            ids = eventIdsByClass;
+            if (ids == null) {
+                // Discarded meanwhile
+                return events.idOf(eventClass, this);
+            }
+        }
+        return ids.get(eventClass);
     }
 
     @Override public void onEntry() {
@@ -50,22 +241,29 @@ public class SimpleState implements State {
         exit.ifPresent(Action::perform);
     }
 
+    @Deprecated
     @Override public Optional<State> execute(String event) {
         return stateTransition(event);
     }
 
+    /**
+     * @see State#execute(String)
+     * @deprecated execute the event on a {@link StateMachine}, or resolve it with {@link #pathFor(int)}
+     */
+    @Deprecated
     public Optional<State> stateTransition(String event) {
 
-        Optional<Transition> matchedTransition = transitions.stream()
-                .filter(t -> t.guardEvent == null || t.guardEvent.equals(event))
-                .findFirst();
-
-        log.debug("execute - {} event: {} ", name, event, (matchedTransition.isPresent() ?
-                " transition to state: " + matchedTransition.get().getTargetState().getName() :
-                " no transition match."));
+        List<Transition> transitions = getTransitions();
+        Optional<Transition> matchedTransition = Optional.empty();
+        for (int i = 0; i < transitions.size(); i++) {
+            Transition t = transitions.get(i);
+            if (t.guardEvent == null || t.guardEvent.equals(event)) {
+                matchedTransition = Optional.of(t);
+                break;
+            }
+        }
 
         if (!matchedTransition.isPresent()) {
-            log.debug("execute - No transition match event: {} in state: {}", event, name);
             return Optional.empty();
         }
 
@@ -74,19 +272,36 @@ public class SimpleState implements State {
         return Optional.ofNullable(transition.getTargetState());
     }
 
+    /**
+     * Computed when the state is compiled or first called.
+     */
     public boolean transitionToFinalState() {
-        Optional<Transition> transition = transitions.stream().filter(
-                t -> t.guardEvent.equals(FinalState.FINAL_EVENT)).findFirst();
+        Boolean result = toFinalState;
+        if (result == null) {
+            result = transitionToFinalState(getTransitions());
+            toFinalState = result;
+        }
+        return result;
+    }
 
-        return transition.isPresent() && (transition.get().getTargetState() instanceof FinalState);
+    /**
+     * @return true if the first transition guarded by {@link FinalState#FINAL_EVENT} goes to a final state
+     */
+    static boolean transitionToFinalState(List<Transition> transitions) {
+        for (Transition transition : transitions) {
+            if (FinalState.FINAL_EVENT.equals(transition.guardEvent)) {
+                return transition.getTargetState() instanceof FinalState;
+            }
+        }
+        return false;
     }
 
     @Override public void toDot(StringBuilder sb) {
 
-        for (Transition t : transitions) {
-            sb.append(name.replaceAll("\\s+", "_"));
+        for (Transition t : getTransitions()) {
+            sb.append(StateGraph.nodeId(name));
             sb.append(" -> ");
-            sb.append(t.getTargetState().getName().replaceAll("\\s+", "_"));
+            sb.append(StateGraph.nodeId(t.getTargetState().getName()));
             if (t.getName() != null) {
                 sb.append(" [label=\"");
                 sb.append(t.getName());
@@ -142,6 +357,22 @@ public class SimpleState implements State {
             return this;
         }
 
+        /**
+         * Make the state a composite state of the substates, the first is the initial substate unless set.
+         */
+        public StateBuilder substates(SimpleState... substates) {
+            for (SimpleState substate : substates) {
+                state.addSubstate(substate);
+            }
+            return this;
+        }
+
+        public StateBuilder initialSubstate(SimpleState substate) {
+            state.addSubstate(substate);
+            state.initialSubstate = substate;
+            return this;
+        }
+
         public SimpleState build() {
             // Add current transition on build
             if (transitionBuilder != null) {
@@ -150,4 +381,18 @@ public class SimpleState implements State {
             return state;
         }
     }
+
+    /**
+     * The compiled paths by event id from the lowest event id of the transitions. Filled before it is constructed,
+     * so sessions on other threads see the complete table.
+     */
+    private static final class PathTable {
+        final int firstEventId;
+        final TransitionPath[] paths;
+
+        PathTable(int firstEventId, TransitionPath[] paths) {
+            this.firstEventId = firstEventId;
+            this.paths = paths;
+        }
+    }
 }
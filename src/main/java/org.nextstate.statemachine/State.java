@@ -1,15 +1,82 @@
 package org.nextstate.statemachine;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public interface State {
 
     String getName();
 
+    /**
+     * @return the id of the state in the {@link StateMachineDefinition} it is compiled for
+     */
+    int getId();
+
     boolean transitionToFinalState();
 
+    /**
+     * Perform the action of the first own transition guarded by the event or unguarded, without exit and entry
+     * actions. Unlike {@link StateMachine#execute(String)} it ignores the transitions of the parents and takes a
+     * transition with a predicate guard without evaluating the predicate.
+     *
+     * @return the target state of the transition, empty if no transition match
+     * @deprecated execute the event on a {@link StateMachine}, or resolve it with {@link #pathFor(int)}
+     */
+    @Deprecated
     Optional<State> execute(String event);
 
+    List<Transition> getTransitions();
+
+    /**
+     * Compile the transitions to a table indexed by event id. Must be called before {@link #transitionFor(int)}.
+     *
+     * @param id the id of the state in the definition
+     * @throws IllegalStateException if the state is compiled into a definition with other events
+     */
+    void compile(int id, EventRegistry events);
+
+    /**
+     * @return the first transition guarded by the event or null if no transition match
+     */
+    Transition transitionFor(int eventId);
+
+    /**
+     * @return the compiled path of the transition guarded by the event or null if no transition match. The path of a
+     * transition with a predicate guard is {@link TransitionPath#select(Object) selected} on the context.
+     */
+    default TransitionPath pathFor(int eventId) {
+        Transition transition = transitionFor(eventId);
+        return transition == null ? null : TransitionPath.of(this, transition);
+    }
+
+    /**
+     * @return the id of the event an event object of the class executes from this state, see
+     * {@link EventRegistry#idOf(Class, State)}
+     */
+    int eventIdFor(Class<? extends Event> eventClass);
+
+    /**
+     * @return the composite state containing this state
+     */
+    default Optional<State> getParent() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return the substates if this is a composite state
+     */
+    default List<State> getSubstates() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the substate entered when this composite state is entered
+     */
+    default Optional<State> getInitialSubstate() {
+        return Optional.empty();
+    }
+
     void onEntry();
 
     Optional<Action> getEntry();
@@ -18,5 +85,7 @@ public interface State {
 
     void onExit();
 
+    Optional<Action> getExit();
+
     void toDot(StringBuilder sb);
 }
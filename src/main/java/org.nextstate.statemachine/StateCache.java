@@ -0,0 +1,189 @@
+package org.nextstate.statemachine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded cache of the states of a lazily loaded definition, see {@link DefinitionLoader#lazy(int)}. A state is
+ * resolved from the definition source when it is first referenced, its transitions and compiled paths when they are
+ * first needed. The states with transitions are held in least recently used order and above the capacity the least
+ * recently used one drops its transitions, to be read again on the next use.
+ * <br>
+ * A state that is the active state of a {@link StateMachine} or an instance of a {@link StateMachinePool} is pinned
+ * and never evicted. A session pins its state until it is {@link StateMachine#close() closed} and an instance until
+ * it is {@link StateMachinePool#free(int) freed}.
+ * <br>
+ * A hit is a state entered with its transitions cached, a miss a state reading its transitions. Operations on the
+ * whole definition, e.g. {@link StateMachineDefinition#getTransitions()} or its analysis, read every state.
+ */
+public final class StateCache {
+    private final int capacity;
+    // States with transitions in access order, guarded by this
+    private final LinkedHashMap<LazyState, Boolean> cached = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+    private int resolved;
+
+    StateCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("State cache capacity must be at least 1");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * A session moved from a state to another, either null.
+     */
+    void moved(State from, State to) {
+        moved(from, to, 1);
+    }
+
+    /**
+     * Sessions moved from a state to another, either null. Locked only when one of them is loaded lazily.
+     */
+    void moved(State from, State to, int sessions) {
+        if (!(from instanceof LazyState) && !(to instanceof LazyState)) {
+            return;
+        }
+        synchronized (this) {
+            if (from instanceof LazyState) {
+                ((LazyState) from).pins -= sessions;
+            }
+            if (to instanceof LazyState) {
+                LazyState state = (LazyState) to;
+                state.pins += sessions;
+                if (cached.get(state) != null) {
+                    hits += sessions;
+                }
+            }
+        }
+    }
+
+    /**
+     * A state was resolved from the definition source.
+     */
+    synchronized void resolved() {
+        resolved++;
+    }
+
+    /**
+     * The state read its transitions.
+     */
+    synchronized void loaded(LazyState state) {
+        misses++;
+        cached.put(state, Boolean.TRUE);
+        Iterator<LazyState> leastRecentlyUsed = cached.keySet().iterator();
+        while (cached.size() > capacity && leastRecentlyUsed.hasNext()) {
+            LazyState candidate = leastRecentlyUsed.next();
+            if (candidate.pins == 0 && candidate != state) {
+                leastRecentlyUsed.remove();
+                candidate.unload();
+                evictions++;
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return states with transitions, above the capacity only if the others are pinned
+     */
+    public synchronized int getSize() {
+        return cached.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return states resolved from the definition source, with or without transitions
+     */
+    public synchronized int getResolvedStates() {
+        return resolved;
+    }
+
+    /**
+     * @return hits of all lookups, 0 if none
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override public synchronized String toString() {
+        return String.format("%d/%d states, %d hits, %d misses, %d evictions, %.1f%% hit rate", cached.size(),
+                capacity, hits, misses, evictions, getHitRate() * 100);
+    }
+
+    /**
+     * A state reading its transitions from the definition source when first needed and dropping them when evicted.
+     */
+    abstract static class LazyState extends SimpleState {
+        private final StateCache cache;
+        private volatile List<Transition> loaded;
+        // Sessions in the state, guarded by the cache
+        int pins;
+
+        LazyState(String name, StateCache cache) {
+            super(name);
+            this.cache = cache;
+            cache.resolved();
+        }
+
+        /**
+         * @return the transitions read from the source, in order
+         */
+        abstract List<Transition> read();
+
+        @Override public List<Transition> getTransitions() {
+            List<Transition> result = loaded;
+            if (result == null) {
+                result = load();
+            }
+            return result;
+        }
+
+        private List<Transition> load() {
+            List<Transition> result;
+            synchronized (this) {
+                result = loaded;
+                if (result != null) {
+                    return result;
+                }
+                result = read();
+                loaded = result;
+            }
+            cache.loaded(this);
+            return result;
+        }
+
+        /**
+         * Drop the transitions and compiled paths. Sessions holding a path keep using it.
+         */
+        void unload() {
+            loaded = null;
+            discardPaths();
+        }
+
+        @Override public void addTransition(Transition transition) {
+            throw new IllegalStateException("State " + name + " is loaded lazily and can not be changed");
+        }
+
+        @Override public void addTransitions(List<Transition> transitionList) {
+            throw new IllegalStateException("State " + name + " is loaded lazily and can not be changed");
+        }
+    }
+}
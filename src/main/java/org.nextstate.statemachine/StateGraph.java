@@ -0,0 +1,93 @@
+package org.nextstate.statemachine;
+
+import java.util.List;
+
+/**
+ * The transitions of a {@link StateMachineDefinition} as adjacency arrays by state id, outgoing and incoming, built
+ * once per definition for graph algorithms. The edges of state s are at index {@code start[s]} up to
+ * {@code start[s + 1]}. The index of an outgoing edge is the id of its transition.
+ */
+final class StateGraph {
+    final int stateCount;
+    final int[] outStart;
+    final int[] outTarget;
+    final int[] inStart;
+    final int[] inSource;
+    // DOT node id of each state
+    private volatile String[] nodeIds;
+    private final StateMachineDefinition definition;
+
+    StateGraph(StateMachineDefinition definition) {
+        this.definition = definition;
+        List<State> states = definition.getStates();
+        stateCount = states.size();
+        int edgeCount = 0;
+        for (State state : states) {
+            edgeCount += state.getTransitions().size();
+        }
+        outStart = new int[stateCount + 1];
+        outTarget = new int[edgeCount];
+        inStart = new int[stateCount + 1];
+        inSource = new int[edgeCount];
+        int edge = 0;
+        for (State state : states) {
+            outStart[state.getId()] = edge;
+            for (Transition transition : state.getTransitions()) {
+                int target = transition.getTargetState().getId();
+                outTarget[edge] = target;
+                inStart[target + 1]++;
+                edge++;
+            }
+        }
+        outStart[stateCount] = edge;
+        for (int s = 0; s < stateCount; s++) {
+            inStart[s + 1] += inStart[s];
+        }
+        int[] next = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            for (int e = outStart[s]; e < outStart[s + 1]; e++) {
+                int target = outTarget[e];
+                inSource[inStart[target] + next[target]++] = s;
+            }
+        }
+    }
+
+    /**
+     * @return the name of the state with each run of whitespace replaced by an underscore, computed once per state
+     */
+    String nodeId(int stateId) {
+        String[] ids = nodeIds;
+        if (ids == null) {
+            ids = new String[stateCount];
+            for (int s = 0; s < stateCount; s++) {
+                ids[s] = nodeId(definition.state(s).getName());
+            }
+            nodeIds = ids;
+        }
+        return ids[stateId];
+    }
+
+    /**
+     * Same as {@code name.replaceAll("\\s+", "_")} without a regular expression.
+     */
+    static String nodeId(String name) {
+        StringBuilder id = null;
+        boolean inWhitespace = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean whitespace = c == ' ' || c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r';
+            if (whitespace && id == null) {
+                id = new StringBuilder(name.length()).append(name, 0, i);
+            }
+            if (id != null) {
+                if (!whitespace) {
+                    id.append(c);
+                } else if (!inWhitespace) {
+                    id.append('_');
+                }
+            }
+            inWhitespace = whitespace;
+        }
+        return id == null ? name : id.toString();
+    }
+}
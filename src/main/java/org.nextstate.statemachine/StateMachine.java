@@ -1,35 +1,155 @@
 package org.nextstate.statemachine;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * StateMachine - Subclass and use the builder in the constructor. See the unit tests for examples.
  * <br>
  * To state should not have the same name. If to states have the same name it is not deterministic which one is chosen
  * when the active stave is loaded.
+ * <br>
+ * Events are interned to int ids and the transitions of all states are compiled to tables indexed by event id when
+ * the state machine is validated (or lazily on the first execute). Use {@link #eventId(String)} and
+ * {@link #execute(int)} to dispatch without the name lookup. Event objects carrying data are executed with
+ * {@link #execute(Event)}, see {@link Event}.
+ * <br>
+ * To run many sessions of the same state machine build a {@link StateMachineDefinition} once and create each session
+ * with {@link StateMachineDefinition#newInstance()} or the {@link #StateMachine(StateMachineDefinition)} constructor.
+ * The session shares the definition and only holds the active state.
+ * <br>
+ * Register a {@link TransitionListener}, e.g. {@link LoggingTransitionListener}, on the definition to trace the
+ * execution.
+ * <br>
+ * States can be nested with {@link SimpleState.StateBuilder#substates(SimpleState...)}. The active state is always a
+ * state without substates, each transition runs its {@link TransitionPath} compiled for the active state.
+ * <br>
+ * Execution is run-to-completion: an event executed from an action, e.g. an entry action raising a follow-up event,
+ * is queued and executed after the current transition, before the outermost {@link #execute(String)} returns. The
+ * queue is a ring of event ids grown on demand and reused, so raising events allocates nothing in steady state. More
+ * than {@link #setMaxRaisedEvents(int) max raised events} in one execute is taken as an event storm and fails.
+ * <br>
+ * Transitions can have predicate guards on the {@link #getContext() context} of the session, e.g. a retry count. Only
+ * the transitions of the active state guarded by the event are tried, in order, and the first whose guard holds is
+ * taken.
+ * <br>
+ * Timed transitions are scheduled on the {@link StateMachineDefinition#setTimingWheel(TimingWheel) timing wheel} of
+ * the definition when their source state is entered and cancelled when it is exited. An expired timer takes its own
+ * transition, on the thread advancing the wheel or through the {@link #setTimerExecutor(Executor) timer executor}.
+ * <br>
+ * Independent concerns, e.g. the media, billing and recording of a call, are modelled as orthogonal
+ * {@link #addRegion(StateMachine) regions} instead of a cross-product of states. Each region is a state machine with
+ * its own active state and receives every event executed on this one, after this machine or, with a
+ * {@link #setRegionPool(ForkJoinPool) region pool}, concurrently with it. Regions are not part of snapshots and pools.
+ * <br>
+ * A session of a lazily loaded definition pins its active state in the {@link StateCache}, {@link #close() close} it
+ * when it is dropped.
  */
-public class StateMachine {
-    private final Logger log = LoggerFactory.getLogger(this.getClass());
+public class StateMachine implements AutoCloseable {
+    public static final int DEFAULT_MAX_RAISED_EVENTS = 1024;
+    private static final int INITIAL_RAISED_CAPACITY = 8;
 
+    private StateMachineDefinition definition;
     private State activeState;
-    private final List<State> states = new ArrayList<>();
+    // True while an event is executed, events executed meanwhile are raised
+    private boolean executing;
+    // Ring of raised event ids, the queue is raisedHead up to raisedTail counted from the outermost execute
+    private int[] raised;
+    // Raised event objects at the positions of their ids, created when the first is raised
+    private Event[] raisedEvents;
+    // Raised event names at the positions of their ids when unknown to this machine, kept for the regions
+    private String[] raisedNames;
+    private int raisedHead;
+    private int raisedTail;
+    private int maxRaisedEvents = DEFAULT_MAX_RAISED_EVENTS;
+    // Timer of each timed transition by timer index, created when first scheduled
+    private TransitionTimer[] timers;
+    // Fires the expired timers, null to fire them on the thread advancing the wheel
+    private Executor timerExecutor;
+    // Time the active state was entered when metrics are enabled
+    private long stateEnteredNanos;
+    // Transitions and initial entries counted to pick those timed by the metrics
+    private int timingSamples;
+    // States added by a subclass, null for sessions of a shared definition
+    private List<State> states;
+    // Orthogonal regions in the order added, null if none
+    private Region[] regions;
+    // Steps the regions concurrently when set
+    private ForkJoinPool regionPool;
+    // Given to the predicate guards of the transitions
+    private Object context = this;
+
+    public StateMachine() {
+    }
+
+    /**
+     * Create a session of the shared definition with the initial state as active state.
+     */
+    public StateMachine(StateMachineDefinition definition) {
+        this.definition = definition;
+        activeState(definition.getInitialState());
+    }
 
     protected void addStates(List<State> states) {
+        if (this.states == null) {
+            if (definition != null) {
+                throw new IllegalStateException("States can not be added to a session of a shared definition");
+            }
+            this.states = new ArrayList<>();
+        }
         this.states.addAll(states);
+        if (definition != null) {
+            compile();
+        }
     }
 
+    /**
+     * Enter the state from the top: the entry actions of its ancestors, the state and its initial substates are
+     * performed and the innermost initial substate is the active state.
+     */
     protected void activeState(State state) {
-        this.activeState = state;
-        this.activeState.onEntry();
+        TransitionPath path = definition != null && state == definition.getInitialState() ? definition.getInitialPath()
+                : TransitionPath.initial(state);
+        moveTo(path.getTarget());
+        if (definition != null && definition.timedTransitions != null) {
+            scheduleTimers(path.entered);
+        }
+        if (definition == null || !definition.instrumented) {
+            path.performEntry();
+            return;
+        }
+        StateMachineMetrics metrics = definition.metrics;
+        for (State entered : path.entered) {
+            entered.onEntry();
+            if (metrics != null) {
+                stateEnteredNanos = metrics.initialEntryExecuted(entered, ++timingSamples);
+            }
+            for (TransitionListener listener : definition.listeners) {
+                listener.entryExecuted(definition, entered);
+            }
+        }
+    }
+
+    /**
+     * Set the active state, pinning it in the state cache of a lazily loaded definition.
+     */
+    private void moveTo(State state) {
+        if (definition != null && definition.stateCache != null) {
+            definition.stateCache.moved(activeState, state);
+        }
+        activeState = state;
     }
 
     public String getName() {
-        return this.getClass().getSimpleName();
+        return definition != null ? definition.getName() : this.getClass().getSimpleName();
     }
 
     public String getActiveStateName() {
@@ -37,100 +157,734 @@ public class StateMachine {
     }
 
     public List<State> getStates() {
-        return states;
+        if (states != null) {
+            return states;
+        }
+        return definition != null ? definition.getStates() : Collections.emptyList();
     }
 
     public State getActiveState() {
         return activeState;
     }
 
+    /**
+     * Compile and analyze the definition.
+     *
+     * @throws IllegalStateException if there is no active state or the definition is not
+     *                               {@link DefinitionAnalysis#isValid() valid}
+     */
     public void validate() {
         if (activeState == null) {
             throw new IllegalStateException("No active state");
         }
+        compile();
+        DefinitionAnalysis analysis = definition.analysis();
+        if (!analysis.isValid()) {
+            throw new IllegalStateException(getName() + " is not valid:" + System.lineSeparator() + analysis);
+        }
+    }
+
+    /**
+     * Intern all guard events and compile the transition table of every state reachable from the added states.
+     * Called by {@link #validate()}, run it again if states or transitions are added afterwards. Sessions of a shared
+     * definition are already compiled. Listeners and metrics are kept when compiled again.
+     */
+    public void compile() {
+        if (states != null || definition == null) {
+            // Timer indexes are by definition
+            cancelAllTimers();
+            timers = null;
+            StateMachineDefinition previous = definition;
+            // The states keep the event ids of the previous definition
+            definition = new StateMachineDefinition(getClass().getSimpleName(),
+                    previous != null ? previous.getEvents() : new EventRegistry(), getStates(), activeState);
+            if (previous != null) {
+                definition.instrumentLike(previous);
+            }
+        }
+    }
+
+    /**
+     * Add a listener to the definition. For a session of a shared definition the listener is notified by all
+     * sessions.
+     */
+    public void addListener(TransitionListener listener) {
+        getDefinition().addListener(listener);
+    }
+
+    public StateMachineDefinition getDefinition() {
+        if (definition == null) {
+            compile();
+        }
+        return definition;
+    }
+
+    public EventRegistry getEvents() {
+        return getDefinition().getEvents();
+    }
+
+    /**
+     * @return the id of the event or {@link EventRegistry#UNKNOWN_EVENT} if no transition is guarded by the event
+     */
+    public int eventId(String event) {
+        return getEvents().idOf(event);
+    }
+
+    /**
+     * @param maxRaisedEvents max events raised by actions during one execute before it fails as an event storm
+     */
+    public void setMaxRaisedEvents(int maxRaisedEvents) {
+        if (maxRaisedEvents < 0) {
+            throw new IllegalArgumentException("Max raised events must not be negative");
+        }
+        this.maxRaisedEvents = maxRaisedEvents;
+    }
+
+    public int getMaxRaisedEvents() {
+        return maxRaisedEvents;
+    }
+
+    /**
+     * @return the context given to the {@link Transition.TransitionBuilder#when(java.util.function.Predicate) predicate
+     * guards} of the transitions, this state machine unless set
+     */
+    @SuppressWarnings("unchecked")
+    public <C> C getContext() {
+        return (C) context;
+    }
+
+    /**
+     * @param context the extended state of this session, e.g. retry counts, given to the predicate guards
+     */
+    public void setContext(Object context) {
+        this.context = context;
     }
 
+    /**
+     * @return the name of the active state followed by the configurations of the regions, separated by ", "
+     */
     public String getActiveStateConfiguration() {
-        return activeState.getName();
+        if (regions == null) {
+            return activeState.getName();
+        }
+        StringBuilder sb = new StringBuilder(activeState.getName());
+        for (Region region : regions) {
+            sb.append(", ").append(region.machine.getActiveStateConfiguration());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Add an orthogonal region executing every event executed on this state machine. Actions of a region raise events
+     * on their region, or on this machine to reach all regions unless the regions are stepped concurrently.
+     *
+     * @return the region
+     */
+    public StateMachine addRegion(StateMachine region) {
+        if (region == this || region.executing) {
+            throw new IllegalArgumentException("A region must be another idle state machine");
+        }
+        if (executing) {
+            throw new IllegalStateException("Regions can not be added while executing");
+        }
+        Region added = new Region(region);
+        if (regions == null) {
+            regions = new Region[] {added};
+        } else {
+            regions = Arrays.copyOf(regions, regions.length + 1);
+            regions[regions.length - 1] = added;
+        }
+        return region;
+    }
+
+    /**
+     * Add a session of the definition as orthogonal region, see {@link #addRegion(StateMachine)}.
+     */
+    public StateMachine addRegion(StateMachineDefinition regionDefinition) {
+        return addRegion(regionDefinition.newInstance());
+    }
+
+    /**
+     * Release the session: cancel its timers and unpin its active state and those of its regions from the
+     * {@link StateCache} of a lazily loaded definition. The session has no active state afterwards.
+     */
+    @Override public void close() {
+        if (executing) {
+            throw new IllegalStateException("A session can not be closed while executing");
+        }
+        cancelAllTimers();
+        moveTo(null);
+        if (regions != null) {
+            for (Region region : regions) {
+                region.machine.close();
+            }
+        }
+    }
+
+    public List<StateMachine> getRegions() {
+        if (regions == null) {
+            return Collections.emptyList();
+        }
+        List<StateMachine> machines = new ArrayList<>(regions.length);
+        for (Region region : regions) {
+            machines.add(region.machine);
+        }
+        return Collections.unmodifiableList(machines);
+    }
+
+    /**
+     * Step the regions concurrently with this machine on the pool, e.g. when they have expensive actions. Execute
+     * returns when all of them have taken the event. The calling thread steps this machine.
+     *
+     * @param pool the pool or null to step the regions one at the time after this machine
+     */
+    public void setRegionPool(ForkJoinPool pool) {
+        this.regionPool = pool;
+    }
+
+    /**
+     * @return the id of the active state in the definition, see {@link StateMachineDefinition#getFingerprint()}
+     */
+    public int getActiveStateId() {
+        // Ids are assigned when compiled
+        getDefinition();
+        return activeState.getId();
+    }
+
+    /**
+     * Set the active state by id without performing any actions, e.g. when restored from a
+     * {@link StateMachineSnapshot}. For a composite state its innermost initial substate is set.
+     */
+    public void activeStateConfiguration(int stateId) {
+        List<State> compiledStates = getDefinition().getStates();
+        if (stateId < 0 || stateId >= compiledStates.size()) {
+            throw new IllegalStateException("No state with id " + stateId + " exists in " + getName());
+        }
+        moveTo(TransitionPath.drillDown(compiledStates.get(stateId), new ArrayList<>()));
+        rescheduleTimers();
     }
 
     public void activeStateConfiguration(String stateName) {
 
-        Optional<State> state = states.stream().filter(s -> stateName.equals(s.getName())).findFirst();
+        Optional<State> state = getDefinition().state(stateName);
         state.orElseThrow(() -> new IllegalStateException("No state named " + stateName
                 + " exists. Add all states to the StateMachine before setting active state configuration."));
 
-        activeState = state.get();
-        log.debug("activeStateConfiguration - active state: {}", activeState.getName());
+        moveTo(TransitionPath.drillDown(state.get(), new ArrayList<>()));
+        rescheduleTimers();
+    }
+
+    /**
+     * Set the timing wheel of the definition and schedule the timed transitions of the active state and its
+     * ancestors from now.
+     */
+    public void setTimingWheel(TimingWheel timingWheel) {
+        getDefinition().setTimingWheel(timingWheel);
+        rescheduleTimers();
+    }
+
+    /**
+     * Fire the expired timers of this machine through the executor instead of on the thread advancing the wheel. Set
+     * it when the events of the machine are executed on another thread, e.g. to the queue of a
+     * {@link ConcurrentStateMachine} or a {@link StateMachineExecutor.Mailbox}, which set it themselves. The executor
+     * must run the firing in order with the events of the machine.
+     */
+    public void setTimerExecutor(Executor executor) {
+        this.timerExecutor = executor;
+    }
+
+    /**
+     * Cancel all timers and schedule the timed transitions of the active state and its ancestors.
+     */
+    private void rescheduleTimers() {
+        cancelAllTimers();
+        if (definition != null && definition.timedTransitions != null && activeState != null) {
+            scheduleTimers(TransitionPath.ancestorsOf(activeState).toArray(new State[0]));
+        }
+    }
+
+    private void cancelAllTimers() {
+        if (timers != null) {
+            for (TransitionTimer timer : timers) {
+                if (timer != null) {
+                    timer.disarm();
+                }
+            }
+        }
+    }
+
+    private void scheduleTimers(State[] entered) {
+        TimingWheel wheel = definition.timingWheel;
+        if (wheel == null) {
+            return;
+        }
+        for (State state : entered) {
+            Transition[] timed = definition.timedTransitions[state.getId()];
+            if (timed == null) {
+                continue;
+            }
+            if (timers == null) {
+                timers = new TransitionTimer[definition.timerCount];
+            }
+            for (Transition transition : timed) {
+                int index = definition.timerIndexes[transition.getId()];
+                if (timers[index] == null) {
+                    timers[index] = new TransitionTimer(transition);
+                }
+                timers[index].armed = true;
+                wheel.schedule(timers[index], timers[index].delayNanos);
+            }
+        }
+    }
+
+    private void cancelTimers(State[] exited) {
+        if (timers == null) {
+            return;
+        }
+        for (State state : exited) {
+            Transition[] timed = definition.timedTransitions[state.getId()];
+            if (timed == null) {
+                continue;
+            }
+            for (Transition transition : timed) {
+                TransitionTimer timer = timers[definition.timerIndexes[transition.getId()]];
+                if (timer != null) {
+                    timer.disarm();
+                }
+            }
+        }
     }
 
     public void execute(String event) {
         if (activeState == null) {
             throw new IllegalStateException("No active state");
         }
-        log.debug("execute - activeState: " + activeState.getName() + " event: " + event);
+        execute(eventId(event), event, null);
+    }
+
+    /**
+     * Execute the event given by the id from {@link #eventId(String)}.
+     */
+    public void execute(int eventId) {
+        execute(eventId, null, null);
+    }
+
+    /**
+     * Execute the event object, giving it to the {@link EventAction}s of the transition. The transition is resolved
+     * by the class of the event from the active state, see {@link Event}.
+     */
+    public void execute(Event event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event must not be null");
+        }
+        execute(EventRegistry.UNKNOWN_EVENT, null, event);
+    }
+
+    private void execute(int eventId, String event, Event typed) {
+        if (activeState == null) {
+            throw new IllegalStateException("No active state");
+        }
+        if (executing) {
+            raise(eventId, event, typed);
+            return;
+        }
+        if (definition == null) {
+            compile();
+        }
+        executing = true;
+        try {
+            dispatch(eventId, event, typed);
+            dispatchRaised();
+        } finally {
+            executed();
+        }
+    }
+
+    private void dispatchRaised() {
+        while (raisedHead != raisedTail) {
+            int index = raisedHead++ & (raised.length - 1);
+            Event raisedEvent = null;
+            if (raisedEvents != null) {
+                raisedEvent = raisedEvents[index];
+                raisedEvents[index] = null;
+            }
+            String raisedName = null;
+            if (raisedNames != null) {
+                raisedName = raisedNames[index];
+                raisedNames[index] = null;
+            }
+            dispatch(raised[index], raisedName, raisedEvent);
+        }
+    }
+
+    private void executed() {
+        // Events raised before an action failed are dropped with the failure
+        executing = false;
+        if (raisedEvents != null && raisedHead != raisedTail) {
+            Arrays.fill(raisedEvents, null);
+        }
+        if (raisedNames != null && raisedHead != raisedTail) {
+            Arrays.fill(raisedNames, null);
+        }
+        raisedHead = 0;
+        raisedTail = 0;
+    }
+
+    /**
+     * Take the transition of the timer if it is still armed. Fired while an event is executed, by an action advancing
+     * the wheel, the timer expires again on the next tick.
+     */
+    private void fire(TransitionTimer timer) {
+        if (!timer.armed) {
+            // Cancelled after it expired
+            return;
+        }
+        TimingWheel wheel = definition.timingWheel;
+        if (executing) {
+            if (wheel != null) {
+                wheel.schedule(timer, 0);
+            }
+            return;
+        }
+        timer.armed = false;
+        TransitionPath path = timer.pathFrom(activeState);
+        executing = true;
+        try {
+            if (definition.instrumented) {
+                for (TransitionListener listener : definition.listeners) {
+                    listener.beforeEvent(definition, activeState, timer.transition.guardEvent);
+                }
+                takeInstrumented(path, timer.transition.guardEvent, null);
+            } else {
+                take(path, null);
+            }
+            dispatchRaised();
+        } finally {
+            executed();
+        }
+    }
+
+    private void raise(int eventId, String event, Event typed) {
+        if (raisedTail >= maxRaisedEvents) {
+            throw new IllegalStateException("Event storm in " + getName() + ": more than " + maxRaisedEvents
+                    + " events raised in one execute");
+        }
+        if (raised == null) {
+            raised = new int[INITIAL_RAISED_CAPACITY];
+        } else if (raisedTail - raisedHead == raised.length) {
+            // Full, copy the queue to a ring twice the size at the same positions
+            int[] grown = new int[raised.length * 2];
+            for (int i = raisedHead; i < raisedTail; i++) {
+                grown[i & (grown.length - 1)] = raised[i & (raised.length - 1)];
+            }
+            raised = grown;
+            if (raisedEvents != null) {
+                Event[] grownEvents = new Event[grown.length];
+                for (int i = raisedHead; i < raisedTail; i++) {
+                    grownEvents[i & (grown.length - 1)] = raisedEvents[i & (raisedEvents.length - 1)];
+                }
+                raisedEvents = grownEvents;
+            }
+            if (raisedNames != null) {
+                String[] grownNames = new String[grown.length];
+                for (int i = raisedHead; i < raisedTail; i++) {
+                    grownNames[i & (grown.length - 1)] = raisedNames[i & (raisedNames.length - 1)];
+                }
+                raisedNames = grownNames;
+            }
+        }
+        int index = raisedTail++ & (raised.length - 1);
+        raised[index] = eventId;
+        if (typed != null) {
+            if (raisedEvents == null) {
+                raisedEvents = new Event[raised.length];
+            }
+            raisedEvents[index] = typed;
+        } else if (eventId == EventRegistry.UNKNOWN_EVENT && event != null) {
+            // Unknown here but maybe known to a region, which maps it by name
+            if (raisedNames == null) {
+                raisedNames = new String[raised.length];
+            }
+            raisedNames[index] = event;
+        }
+    }
+
+    /**
+     * Step this machine and the regions.
+     */
+    private void dispatch(int eventId, String event, Event typed) {
+        Region[] stepped = regions;
+        if (stepped == null) {
+            step(eventId, event, typed);
+            return;
+        }
+        for (Region region : stepped) {
+            region.prepare(eventId, event, typed);
+        }
+        ForkJoinPool pool = regionPool;
+        if (pool == null) {
+            step(eventId, event, typed);
+            for (Region region : stepped) {
+                region.compute();
+            }
+            return;
+        }
+
+        boolean inPool = ForkJoinTask.getPool() == pool;
+        for (Region region : stepped) {
+            region.reinitialize();
+            if (inPool) {
+                region.fork();
+            } else {
+                pool.execute(region);
+            }
+        }
+        RuntimeException failure = null;
+        try {
+            step(eventId, event, typed);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // Join all before rethrowing the first failure
+        for (Region region : stepped) {
+            region.quietlyJoin();
+            Throwable regionFailure = region.getException();
+            if (regionFailure != null && failure == null) {
+                failure = regionFailure instanceof RuntimeException ? (RuntimeException) regionFailure
+                        : new IllegalStateException(regionFailure);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Take the transition for the event from the active state. An event object is resolved for the active state.
+     */
+    private void step(int eventId, String event, Event typed) {
+        if (typed != null) {
+            eventId = activeState.eventIdFor(typed.getClass());
+        }
+        if (definition.instrumented) {
+            executeInstrumented(eventId, event != null ? event : typed != null ? Event.name(typed.getClass())
+                    : definition.eventName(eventId), typed);
+            return;
+        }
+
+        TransitionPath path = activeState.pathFor(eventId);
+        if (path != null && path.guarded != null) {
+            path = path.guarded.select(context);
+        }
+        if (path != null) {
+            take(path, typed);
+        }
+    }
 
-        Optional<State> state = activeState.execute(event);
+    private void take(TransitionPath path, Event typed) {
+        if (definition.timedTransitions != null) {
+            cancelTimers(path.exited);
+        }
+        // Execute the transition action, onExit on the old and onEntry on the new active states
+        path.performExit(typed);
+        moveTo(path.getTarget());
+        if (definition.timedTransitions != null) {
+            scheduleTimers(path.entered);
+        }
+        path.performEntry(typed);
+    }
+
+    /**
+     * Execute notifying listeners and recording metrics.
+     */
+    private void executeInstrumented(int eventId, String event, Event typed) {
+        TransitionListener[] listeners = definition.listeners;
+        StateMachineMetrics metrics = definition.metrics;
+        State source = activeState;
+        for (TransitionListener listener : listeners) {
+            listener.beforeEvent(definition, source, event);
+        }
+        TransitionPath path = source.pathFor(eventId);
+        if (path != null && path.guarded != null) {
+            path = path.guarded.select(context);
+        }
+        if (path == null) {
+            if (metrics != null) {
+                metrics.unmatched(source);
+            }
+            for (TransitionListener listener : listeners) {
+                listener.eventUnmatched(definition, source, event);
+            }
+            return;
+        }
+        takeInstrumented(path, event, typed);
+    }
 
-        // Check if new active state and execute onExit on the old and onEntry on the new ...
-        if (state.isPresent()) {
-            activeState.onExit();
-            activeState = state.get();
-            activeState.onEntry();
-            log.debug("execute - new active state: {}", activeState.getName());
+    private void takeInstrumented(TransitionPath path, String event, Event typed) {
+        TransitionListener[] listeners = definition.listeners;
+        StateMachineMetrics metrics = definition.metrics;
+        State source = activeState;
+        if (definition.timedTransitions != null) {
+            cancelTimers(path.exited);
+        }
+        Transition transition = path.getTransition();
+        long now = metrics != null ? metrics.transitionTaken(transition, ++timingSamples) : 0;
+        if (transition.onTransition.isPresent()) {
+            TransitionPath.perform(transition.onTransition.get(), typed);
+        }
+        if (metrics != null) {
+            now = metrics.transitionActionExecuted(transition, now);
+        }
+        for (TransitionListener listener : listeners) {
+            listener.transitionTaken(definition, source, transition, event);
+        }
+        for (State exited : path.exited) {
+            if (typed == null) {
+                exited.onExit();
+            } else if (exited.getExit().isPresent()) {
+                TransitionPath.perform(exited.getExit().get(), typed);
+            }
+            if (metrics != null) {
+                now = metrics.exitExecuted(exited, now, exited == source ? stateEnteredNanos : 0);
+            }
+            for (TransitionListener listener : listeners) {
+                listener.exitExecuted(definition, exited);
+            }
+        }
+        moveTo(path.getTarget());
+        if (definition.timedTransitions != null) {
+            scheduleTimers(path.entered);
+        }
+        for (State entered : path.entered) {
+            if (typed == null) {
+                entered.onEntry();
+            } else if (entered.getEntry().isPresent()) {
+                TransitionPath.perform(entered.getEntry().get(), typed);
+            }
+            if (metrics != null) {
+                stateEnteredNanos = metrics.entryExecuted(entered, now);
+            }
+            for (TransitionListener listener : listeners) {
+                listener.entryExecuted(definition, entered);
+            }
         }
     }
 
     /**
      * DOT graph description language for the State Machine.
-     * Composite states is filled with grey but internal states is not included. Should be possible at least for one
-     * level with DOT attrs compound:
+     * Composite states are drawn as clusters of their substates with the DOT attr compound:
      * See: http://www.graphviz.org/content/attrs#dcompound and
      * http://stackoverflow.com/questions/2012036/graphviz-how-to-connect-subgraphs
+     * <br>
+     * Use {@link #dot()} to stream large graphs or draw a part of them.
      *
      * @return sting describing the state machine graph
      */
     public String toDot(boolean showActiveState) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("digraph ");
-        sb.append(getName().replaceAll("\\s+", "_"));
-        sb.append(" { ");
-        sb.append(System.lineSeparator());
-        sb.append(getActiveState().getName().replaceAll("\\s+", "_"));
-        sb.append("[label=\"");
-        sb.append(getActiveState().getName());
-        // Add entry action to state
-        if (getActiveState().getEntry().isPresent() && getActiveState().getEntryActionName().isPresent()) {
-            sb.append("\\nEntry:");
-            sb.append(getActiveState().getEntryActionName().get());
-        }
-        sb.append("\"");
-        if (showActiveState) {
-            sb.append(", style=filled, fillcolor=lightblue");
-        }
-        sb.append("];");
-        sb.append(System.lineSeparator());
-
-        getActiveState().toDot(sb);
-
-        getStates().stream().filter(state -> state != getActiveState()).forEach(state -> {
-            sb.append(state.getName().replaceAll("\\s+", "_"));
-            sb.append("[label=\"");
-            sb.append(state.getName());
-            // Add entry action to state
-            if (state.getEntry().isPresent() && state.getEntryActionName().isPresent()) {
-                sb.append("\\nEntry:");
-                sb.append(state.getEntryActionName().get());
-            }
-            sb.append("\"");
-            sb.append("];");
-            sb.append(System.lineSeparator());
-            state.toDot(sb);
-        });
-        sb.append("} ");
-        sb.append(System.lineSeparator());
-        return sb.toString();
+        return dot().highlightActiveState(showActiveState).toDot();
     }
 
+    /**
+     * @return an exporter of the definition with the active state set
+     */
+    public DotExporter dot() {
+        return DotExporter.dot(getDefinition()).name(getName()).activeState(getActiveState().getId());
+    }
+
+    /**
+     * Takes a timed transition when it expires, whatever other transitions are guarded by its guard event.
+     */
+    private final class TransitionTimer extends TimingWheel.Timer implements Runnable {
+        final Transition transition;
+        final long delayNanos;
+        // Scheduled and not cancelled since, read and written by the thread executing the events of the machine
+        boolean armed;
+        // Path compiled for the active state it was last taken from
+        private TransitionPath path;
+        private State pathSource;
+
+        TransitionTimer(Transition transition) {
+            this.transition = transition;
+            this.delayNanos = transition.getAfter().map(Duration::toNanos).orElse(0L);
+        }
+
+        TransitionPath pathFrom(State source) {
+            if (pathSource != source) {
+                path = TransitionPath.of(source, transition);
+                pathSource = source;
+            }
+            return path;
+        }
+
+        void disarm() {
+            armed = false;
+            cancel();
+        }
+
+        @Override protected void expired() {
+            Executor executor = timerExecutor;
+            if (executor != null) {
+                executor.execute(this);
+            } else {
+                fire(this);
+            }
+        }
+
+        @Override public void run() {
+            fire(this);
+        }
+    }
+
+    /**
+     * A region and the event it executes next, by its own event id mapped by name from this machine.
+     */
+    private final class Region extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final StateMachine machine;
+        // Event id of the region by event id of this machine, mapped for the definition
+        private int[] eventIds;
+        private StateMachineDefinition mappedFor;
+        private int eventId;
+        private String event;
+        private Event typed;
+
+        Region(StateMachine machine) {
+            this.machine = machine;
+        }
+
+        void prepare(int id, String name, Event object) {
+            typed = object;
+            event = null;
+            eventId = EventRegistry.UNKNOWN_EVENT;
+            if (object != null) {
+                return;
+            }
+            if (mappedFor != definition) {
+                EventRegistry events = definition.getEvents();
+                int[] mapped = new int[events.size()];
+                for (int e = 0; e < mapped.length; e++) {
+                    mapped[e] = machine.eventId(events.nameOf(e));
+                }
+                eventIds = mapped;
+                mappedFor = definition;
+            }
+            if (id >= 0 && id < eventIds.length && eventIds[id] != EventRegistry.UNKNOWN_EVENT) {
+                eventId = eventIds[id];
+            } else {
+                // Unknown to one of the machines, executed by name
+                event = name != null ? name : definition.eventName(id);
+            }
+        }
+
+        @Override protected void compute() {
+            if (typed != null) {
+                machine.execute(typed);
+            } else if (event != null) {
+                machine.execute(event);
+            } else {
+                machine.execute(eventId);
+            }
+        }
+    }
 }
@@ -0,0 +1,265 @@
+package org.nextstate.statemachine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Opt-in compiler of a {@link StateMachineDefinition} to a specialized {@link CompiledStateMachine} class. The
+ * generated Java source has a case per distinct sequence of actions of the compiled {@link TransitionPath}s calling
+ * each action through a static final field, the target and case of each state and event are in flat tables. The
+ * source is compiled in memory with the system Java compiler and loaded in its own class loader, so it needs to run on
+ * a JDK.
+ * <br>
+ * The states and transitions must not be changed after the definition is compiled.
+ */
+public final class StateMachineCompiler {
+    static final String PACKAGE = "org.nextstate.statemachine.generated";
+    /**
+     * Bound of the tables and the generated source, larger definitions stay interpreted.
+     */
+    public static final int MAX_STATES = 10_000;
+    /**
+     * Bound of the states times the events, the size of each flat table.
+     */
+    public static final int MAX_TABLE_SIZE = 1 << 24;
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    private StateMachineCompiler() {
+    }
+
+    /**
+     * Generate and load the class of the definition.
+     *
+     * @return creates new instances in the initial state
+     * @throws IllegalStateException if no Java compiler is available, the definition has more than
+     *                               {@link #MAX_STATES} states, more than {@link #MAX_TABLE_SIZE} states times
+     *                               events, predicate guards or timed transitions, or the generated source does not
+     *                               compile
+     */
+    public static Supplier<CompiledStateMachine> compile(StateMachineDefinition definition) {
+        definition.requireNoPredicateGuards("a compiled state machine");
+        if (definition.timedTransitions != null) {
+            throw new IllegalStateException(definition.getName() + " has timed transitions, they need the timers of "
+                    + "a StateMachine and can not be used by a compiled state machine");
+        }
+        if (definition.getStates().size() > MAX_STATES) {
+            throw new IllegalStateException(definition.getName() + " has more than " + MAX_STATES + " states");
+        }
+        tableSize(definition);
+        String simpleName = "Compiled" + definition.getName().replaceAll("[^A-Za-z0-9_]", "_") + "$"
+                + CLASS_COUNTER.incrementAndGet();
+        String className = PACKAGE + "." + simpleName;
+        Generated generated = generate(definition, simpleName);
+
+        Class<?> compiled = new InMemoryCompiler().compile(className, generated.source);
+        CompiledStateMachine.handOver(className, generated.tables);
+        try {
+            Constructor<? extends CompiledStateMachine> constructor = compiled.asSubclass(CompiledStateMachine.class)
+                    .getConstructor(StateMachineDefinition.class);
+            // Run the static initializer now, while the tables are handed over
+            Class.forName(className, true, compiled.getClassLoader());
+            return () -> {
+                try {
+                    return constructor.newInstance(definition);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Failed to create " + className, e);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to load " + className, e);
+        }
+    }
+
+    /**
+     * Transitions with the same actions in the same order share a case of the switch, so executing random events of a
+     * machine with few distinct actions does not mispredict a jump table.
+     */
+    static Generated generate(StateMachineDefinition definition, String simpleName) {
+        int eventCount = definition.getEvents().size();
+        int tableSize = tableSize(definition);
+        List<Action> actions = new ArrayList<>();
+        Map<Action, Integer> constants = new IdentityHashMap<>();
+        // Case number by the body of the case
+        Map<String, Integer> sequences = new LinkedHashMap<>();
+        int[] targetTable = new int[tableSize];
+        int[] sequenceTable = new int[tableSize];
+        for (State state : definition.getStates()) {
+            for (int eventId = 0; eventId < eventCount; eventId++) {
+                TransitionPath path = state.pathFor(eventId);
+                if (path == null) {
+                    continue;
+                }
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < path.actions.length; i++) {
+                    if (i == path.firstEntryAction) {
+                        body.append("                activeStateId = TARGETS[i];\n");
+                    }
+                    Integer constant = constants.computeIfAbsent(path.actions[i], action -> {
+                        actions.add(action);
+                        return actions.size() - 1;
+                    });
+                    body.append("                A").append(constant).append(".perform();\n");
+                }
+                if (path.firstEntryAction == path.actions.length) {
+                    body.append("                activeStateId = TARGETS[i];\n");
+                }
+                int i = state.getId() * eventCount + eventId;
+                targetTable[i] = path.getTarget().getId();
+                sequenceTable[i] = sequences.computeIfAbsent(body.toString(), b -> sequences.size() + 1);
+            }
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE).append(";\n\n")
+                .append("import org.nextstate.statemachine.Action;\n")
+                .append("import org.nextstate.statemachine.CompiledStateMachine;\n")
+                .append("import org.nextstate.statemachine.StateMachineDefinition;\n\n")
+                .append("public final class ").append(simpleName).append(" extends CompiledStateMachine {\n")
+                .append("    private static final Tables TABLES = takeOver(\"").append(PACKAGE).append('.')
+                .append(simpleName).append("\");\n")
+                .append("    private static final int EVENTS = ").append(eventCount).append(";\n")
+                .append("    private static final int[] TARGETS = TABLES.targets;\n")
+                .append("    private static final int[] SEQUENCES = TABLES.sequences;\n");
+        for (int i = 0; i < actions.size(); i++) {
+            source.append("    private static final Action A").append(i).append(" = TABLES.actions[").append(i)
+                    .append("];\n");
+        }
+        source.append("\n    public ").append(simpleName).append("(StateMachineDefinition definition) {\n")
+                .append("        super(definition);\n    }\n\n")
+                .append("    @Override protected boolean dispatch(int eventId) {\n")
+                .append("        if (eventId < 0 || eventId >= EVENTS) {\n            return false;\n        }\n")
+                .append("        int i = activeStateId * EVENTS + eventId;\n")
+                .append("        switch (SEQUENCES[i]) {\n");
+        for (Map.Entry<String, Integer> sequence : sequences.entrySet()) {
+            source.append("            case ").append(sequence.getValue()).append(":\n").append(sequence.getKey())
+                    .append("                return true;\n");
+        }
+        source.append("            default:\n                return false;\n        }\n    }\n}\n");
+        return new Generated(source.toString(),
+                new CompiledStateMachine.Tables(actions.toArray(new Action[0]), targetTable, sequenceTable));
+    }
+
+    /**
+     * @return the states times the events
+     * @throws IllegalStateException if above {@link #MAX_TABLE_SIZE}
+     */
+    private static int tableSize(StateMachineDefinition definition) {
+        long size = (long) definition.getStates().size() * definition.getEvents().size();
+        if (size > MAX_TABLE_SIZE) {
+            throw new IllegalStateException(definition.getName() + " has more than " + MAX_TABLE_SIZE
+                    + " states times events");
+        }
+        return (int) size;
+    }
+
+    static final class Generated {
+        final String source;
+        final CompiledStateMachine.Tables tables;
+
+        Generated(String source, CompiledStateMachine.Tables tables) {
+            this.source = source;
+            this.tables = tables;
+        }
+    }
+
+    /**
+     * Compiles one source to class files in memory and loads them.
+     */
+    private static final class InMemoryCompiler {
+        private final Map<String, ByteArrayOutputStream> classFiles = new HashMap<>();
+
+        Class<?> compile(String className, String source) {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                throw new IllegalStateException("No Java compiler available, compiling state machines needs a JDK");
+            }
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+            JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+                @Override public JavaFileObject getJavaFileForOutput(Location location, String name,
+                                                                     JavaFileObject.Kind kind, FileObject sibling) {
+                    return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension),
+                            kind) {
+                        @Override public OutputStream openOutputStream() {
+                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            classFiles.put(name, bytes);
+                            return bytes;
+                        }
+                    };
+                }
+            };
+            JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///"
+                    + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+                @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            List<String> options = Arrays.asList("-classpath", classPath(), "-g:none");
+            if (!compiler.getTask(null, fileManager, diagnostics, options, null, Collections.singletonList(sourceFile))
+                    .call()) {
+                StringBuilder errors = new StringBuilder();
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    errors.append(System.lineSeparator()).append(diagnostic.getMessage(null));
+                }
+                throw new IllegalStateException("Failed to compile " + className + errors);
+            }
+
+            ClassLoader loader = new ClassLoader(CompiledStateMachine.class.getClassLoader()) {
+                @Override protected Class<?> findClass(String name) throws ClassNotFoundException {
+                    ByteArrayOutputStream bytes = classFiles.get(name);
+                    if (bytes == null) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    byte[] classFile = bytes.toByteArray();
+                    return defineClass(name, classFile, 0, classFile.length);
+                }
+            };
+            try {
+                return loader.loadClass(className);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Compiled class " + className + " not found", e);
+            }
+        }
+
+        /**
+         * @return the class path of this library and the running application
+         */
+        private static String classPath() {
+            String classPath = System.getProperty("java.class.path");
+            CodeSource codeSource = CompiledStateMachine.class.getProtectionDomain().getCodeSource();
+            if (codeSource != null) {
+                try {
+                    classPath = new File(codeSource.getLocation().toURI()).getPath() + File.pathSeparator + classPath;
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    // Keep the application class path
+                }
+            }
+            return classPath;
+        }
+    }
+}
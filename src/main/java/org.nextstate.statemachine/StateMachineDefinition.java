@@ -0,0 +1,481 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Immutable definition of a state machine: the states, their compiled transitions and the initial state.
+ * <br>
+ * The states get ids in the order they are given, states only reachable through transitions, substates and parents
+ * are appended. The ids are
+ * stable: a definition built from the same states and transitions in the same order gets the same ids and the same
+ * {@link #getFingerprint() fingerprint}.
+ * <br>
+ * Build the definition once and share it between all sessions. Each session is a {@link StateMachine} created by
+ * {@link #newInstance()} holding only the active state. The states and transitions must not be changed after the
+ * definition is built.
+ * <br>
+ * Timed transitions, see {@link Transition.TransitionBuilder#after(java.time.Duration)}, are scheduled on the
+ * {@link #setTimingWheel(TimingWheel) timing wheel} when their source state is entered and cancelled when it is
+ * exited. Without a timing wheel they are only taken by their guard event.
+ */
+public class StateMachineDefinition {
+    static final TransitionListener[] NO_LISTENERS = new TransitionListener[0];
+
+    private final String name;
+    private final List<State> states;
+    private final State initialState;
+    // Entering the initial state and its initial substates
+    private final TransitionPath initialPath;
+    private final EventRegistry events;
+    // Collected when first needed if the definition is loaded from a cache
+    private volatile List<Transition> transitions;
+    private final int transitionCount;
+    // First state by id order with the name, built when first needed
+    private volatile Map<String, State> statesByName;
+    private final long fingerprint;
+    private volatile StateGraph graph;
+    private volatile DefinitionAnalysis analysis;
+    // Copy on write, read once per event
+    volatile TransitionListener[] listeners = NO_LISTENERS;
+    volatile StateMachineMetrics metrics;
+    // Listeners or metrics
+    volatile boolean instrumented;
+    // Timed transitions of each state by state id, null if the definition has none
+    final Transition[][] timedTransitions;
+    // Index of the timer of each timed transition by transition id
+    final int[] timerIndexes;
+    final int timerCount;
+    // True if a transition has a predicate guard, false for cached definitions
+    private final boolean predicateGuards;
+    // Holds the states of a lazily loaded definition, null if all states are loaded
+    final StateCache stateCache;
+    volatile TimingWheel timingWheel;
+
+    /**
+     * Compile the transition table of the given states and every state reachable from them.
+     */
+    public StateMachineDefinition(String name, List<State> states, State initialState) {
+        this(name, new EventRegistry(), states, initialState);
+    }
+
+    /**
+     * @param registry the events of the definition, those of a definition compiled again from the same states
+     */
+    StateMachineDefinition(String name, EventRegistry registry, List<State> states, State initialState) {
+        this(name, compileStates(registry, states, initialState), initialState, registry, null, 0, null);
+    }
+
+    /**
+     * @param compiledStates  states with ids in list order and events registered
+     * @param fingerprint     the known fingerprint of the states, null to assign transition ids and compute it. If
+     *                        known the transitions are collected from the states first time they are needed.
+     * @param transitionCount the number of transitions if the fingerprint is known
+     * @param stateCache      the cache of the lazily loaded states, whose list resolves each state when first got,
+     *                        null if all states are loaded
+     */
+    StateMachineDefinition(String name, List<State> compiledStates, State initialState, EventRegistry events,
+                           Long fingerprint, int transitionCount, StateCache stateCache) {
+        this.name = name;
+        this.stateCache = stateCache;
+        this.states = Collections.unmodifiableList(compiledStates);
+        this.initialState = initialState;
+        this.initialPath = TransitionPath.initial(initialState);
+        this.events = events;
+        boolean guards = false;
+        if (fingerprint == null) {
+            List<Transition> compiledTransitions = new ArrayList<>();
+            for (State state : compiledStates) {
+                for (Transition transition : state.getTransitions()) {
+                    transition.id = compiledTransitions.size();
+                    compiledTransitions.add(transition);
+                    guards |= transition.guard != null;
+                }
+            }
+            this.transitions = Collections.unmodifiableList(compiledTransitions);
+            this.transitionCount = compiledTransitions.size();
+            this.fingerprint = fingerprint();
+        } else {
+            this.transitionCount = transitionCount;
+            this.fingerprint = fingerprint;
+        }
+        // Transitions loaded from a cache are not timed
+        Transition[][] timed = null;
+        int[] indexes = null;
+        int count = 0;
+        if (fingerprint == null) {
+            for (State state : compiledStates) {
+                List<Transition> timedOfState = new ArrayList<>();
+                for (Transition transition : state.getTransitions()) {
+                    if (transition.getAfter().isPresent()) {
+                        timedOfState.add(transition);
+                    }
+                }
+                if (timedOfState.isEmpty()) {
+                    continue;
+                }
+                if (timed == null) {
+                    timed = new Transition[compiledStates.size()][];
+                    indexes = new int[transitions.size()];
+                }
+                timed[state.getId()] = timedOfState.toArray(new Transition[0]);
+                for (Transition transition : timedOfState) {
+                    indexes[transition.getId()] = count++;
+                }
+            }
+        }
+        this.timedTransitions = timed;
+        this.timerIndexes = indexes;
+        this.timerCount = count;
+        this.predicateGuards = guards;
+    }
+
+    private static List<State> compileStates(EventRegistry registry, List<State> states, State initialState) {
+        if (initialState == null) {
+            throw new IllegalStateException("No initial state");
+        }
+        List<State> compiledStates = new ArrayList<>(states.size());
+        Set<State> compiled = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<State> toCompile = new ArrayDeque<>(states);
+        toCompile.add(initialState);
+        while (!toCompile.isEmpty()) {
+            State state = toCompile.poll();
+            if (compiled.add(state)) {
+                state.compile(compiledStates.size(), registry);
+                compiledStates.add(state);
+                for (Transition transition : state.getTransitions()) {
+                    toCompile.add(transition.getTargetState());
+                }
+                toCompile.addAll(state.getSubstates());
+                state.getParent().ifPresent(toCompile::add);
+            }
+        }
+        return compiledStates;
+    }
+
+    /**
+     * FNV-1a hash of the state names and parents, events and transitions by id.
+     */
+    private long fingerprint() {
+        Fnv hash = new Fnv();
+        hash.add(states.size()).add(initialState.getId());
+        for (int i = 0; i < events.size(); i++) {
+            hash.add(events.nameOf(i));
+        }
+        for (State state : states) {
+            hash.add(state.getName()).add(state.getTransitions().size());
+            state.getParent().ifPresent(parent -> hash.add(parent.getId()));
+            for (Transition transition : state.getTransitions()) {
+                hash.add(events.idOf(transition.guardEvent)).add(transition.getTargetState().getId());
+            }
+        }
+        return hash.value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<State> getStates() {
+        return states;
+    }
+
+    /**
+     * @return all transitions, the index is the transition id
+     */
+    public List<Transition> getTransitions() {
+        List<Transition> result = transitions;
+        if (result == null) {
+            List<Transition> collected = new ArrayList<>();
+            for (State state : states) {
+                collected.addAll(state.getTransitions());
+            }
+            result = Collections.unmodifiableList(collected);
+            transitions = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of transitions, without reading the states of a lazily loaded definition
+     */
+    int transitionCount() {
+        return transitionCount;
+    }
+
+    public State state(int stateId) {
+        return states.get(stateId);
+    }
+
+    /**
+     * @return the id of the state or -1 if no state has the name
+     */
+    public int stateId(String stateName) {
+        State state = statesByName().get(stateName);
+        return state == null ? -1 : state.getId();
+    }
+
+    /**
+     * @return hash of the states, events and transitions by id. Definitions with the same fingerprint give the same
+     * meaning to state and event ids, e.g. in a {@link StateMachineSnapshot}.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public State getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * @return the path entering the initial state from the top, the target is the first active state
+     */
+    public TransitionPath getInitialPath() {
+        return initialPath;
+    }
+
+    /**
+     * @return true if any state has substates
+     */
+    public boolean isHierarchical() {
+        for (State state : states) {
+            if (!state.getSubstates().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the adjacency arrays of the states, built on first use
+     */
+    StateGraph graph() {
+        StateGraph result = graph;
+        if (result == null) {
+            result = new StateGraph(this);
+            graph = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the reachability, dead ends, shadowed transitions and duplicate names of the states, computed once
+     */
+    public DefinitionAnalysis analysis() {
+        DefinitionAnalysis result = analysis;
+        if (result == null) {
+            result = new DefinitionAnalysis(this);
+            analysis = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if a transition has a predicate guard, evaluated on the context of a {@link StateMachine}
+     */
+    public boolean hasPredicateGuards() {
+        return predicateGuards;
+    }
+
+    /**
+     * @throws IllegalStateException if a transition has a predicate guard, there is no context to evaluate it on
+     */
+    void requireNoPredicateGuards(String user) {
+        if (predicateGuards) {
+            throw new IllegalStateException(name + " has predicate guards, they need the context of a StateMachine "
+                    + "and can not be used by " + user);
+        }
+    }
+
+    public EventRegistry getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the id of the event or {@link EventRegistry#UNKNOWN_EVENT} if no transition is guarded by the event
+     */
+    public int eventId(String event) {
+        return events.idOf(event);
+    }
+
+    /**
+     * @return the name of the event or null if the id is unknown
+     */
+    public String eventName(int eventId) {
+        return eventId >= 0 && eventId < events.size() ? events.nameOf(eventId) : null;
+    }
+
+    /**
+     * Add a listener notified by all state machines of this definition.
+     */
+    public synchronized void addListener(TransitionListener listener) {
+        TransitionListener[] current = listeners;
+        TransitionListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+        instrumented = true;
+    }
+
+    public synchronized void removeListener(TransitionListener listener) {
+        List<TransitionListener> updated = new ArrayList<>(Arrays.asList(listeners));
+        updated.remove(listener);
+        listeners = updated.toArray(NO_LISTENERS);
+        instrumented = listeners.length != 0 || metrics != null;
+    }
+
+    /**
+     * Collect metrics for all state machines of this definition, timing every
+     * {@link StateMachineMetrics#DEFAULT_TIMING_SAMPLE_INTERVAL} transition.
+     *
+     * @return the metrics, the same if already enabled
+     */
+    public StateMachineMetrics enableMetrics() {
+        return enableMetrics(StateMachineMetrics.DEFAULT_TIMING_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param timingSampleInterval time every n:th transition, a power of 2
+     * @return the metrics, the same if already enabled
+     */
+    public synchronized StateMachineMetrics enableMetrics(int timingSampleInterval) {
+        if (metrics == null) {
+            metrics = new StateMachineMetrics(this, timingSampleInterval);
+            instrumented = true;
+        }
+        return metrics;
+    }
+
+    public synchronized void disableMetrics() {
+        metrics = null;
+        instrumented = listeners.length != 0;
+    }
+
+    /**
+     * Schedule the timed transitions of all sessions on the wheel, null to only take them by their guard event. Set
+     * it before the sessions are created, the timers of sessions already in a state with timed transitions are
+     * scheduled when the state is entered again.
+     */
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public Optional<TimingWheel> getTimingWheel() {
+        return Optional.ofNullable(timingWheel);
+    }
+
+    /**
+     * Keep the listeners, metrics and timing wheel of a previous definition of the same state machine.
+     */
+    synchronized void instrumentLike(StateMachineDefinition previous) {
+        timingWheel = previous.timingWheel;
+        listeners = previous.listeners;
+        if (previous.metrics != null) {
+            metrics = new StateMachineMetrics(this, previous.metrics.getTimingSampleInterval());
+        }
+        instrumented = previous.instrumented;
+    }
+
+    public Optional<StateMachineMetrics> getMetrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    public Optional<State> state(String stateName) {
+        return Optional.ofNullable(statesByName().get(stateName));
+    }
+
+    private Map<String, State> statesByName() {
+        Map<String, State> result = statesByName;
+        if (result == null) {
+            result = new HashMap<>();
+            for (State state : states) {
+                result.putIfAbsent(state.getName(), state);
+            }
+            statesByName = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the cache of the states if the definition is {@link DefinitionLoader#lazy(int) loaded lazily}
+     */
+    public Optional<StateCache> getStateCache() {
+        return Optional.ofNullable(stateCache);
+    }
+
+    /**
+     * @return a new session with the initial state as active state
+     */
+    public StateMachine newInstance() {
+        return new StateMachine(this);
+    }
+
+    private static final class Fnv {
+        long value = 0xcbf29ce484222325L;
+
+        Fnv add(int i) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                value = (value ^ ((i >>> shift) & 0xff)) * 0x100000001b3L;
+            }
+            return this;
+        }
+
+        Fnv add(String s) {
+            if (s == null) {
+                return add(-1);
+            }
+            add(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                value = (value ^ s.charAt(i)) * 0x100000001b3L;
+            }
+            return this;
+        }
+    }
+
+    // =================
+    //      Builder
+    // =================
+    public static DefinitionBuilder definition(String name) {
+        return new DefinitionBuilder(name);
+    }
+
+    public static class DefinitionBuilder {
+        private final String name;
+        private final List<State> states = new ArrayList<>();
+        private State initialState;
+        private TimingWheel timingWheel;
+
+        public DefinitionBuilder(String name) {
+            this.name = name;
+        }
+
+        public DefinitionBuilder states(List<State> stateList) {
+            this.states.addAll(stateList);
+            return this;
+        }
+
+        public DefinitionBuilder initialState(State state) {
+            this.initialState = state;
+            return this;
+        }
+
+        public DefinitionBuilder timingWheel(TimingWheel wheel) {
+            this.timingWheel = wheel;
+            return this;
+        }
+
+        public StateMachineDefinition build() {
+            StateMachineDefinition definition = new StateMachineDefinition(name, states, initialState);
+            definition.setTimingWheel(timingWheel);
+            return definition;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package org.nextstate.statemachine;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execute events asynchronously. Each state machine gets a {@link Mailbox} with an ordered queue of events. A mailbox
+ * with events is run as one task on the executor and executes up to a batch of events before it is rescheduled. An
+ * idle mailbox has no task or thread. Expired timers of timed transitions are queued in the mailbox like events.
+ * <br>
+ * The default executor runs each task on a virtual thread when running on a JVM with virtual threads, otherwise on a
+ * small pool of daemon threads.
+ * <br>
+ * {@link AsyncAction Asynchronous actions} started by the events are in flight until their stage completes. A mailbox
+ * does not execute its next event while its state machine or the whole executor has the max number of actions in
+ * flight, it is parked without a thread until an action completes. The events wait in the mailbox and their results
+ * complete later, so producers waiting for the results are slowed down to the rate the actions complete. The bounds
+ * are checked before each event, the actions started by the event itself may exceed them.
+ */
+public class StateMachineExecutor {
+    public static final int DEFAULT_DRAIN_BATCH = 64;
+
+    // Mailbox executing an event on the thread, to account for the async actions it starts
+    private static final ThreadLocal<Mailbox> EXECUTING = new ThreadLocal<>();
+    private static final int RUNNING = 0;
+    private static final int PARKED_BY_MACHINE = 1;
+    private static final int PARKED_BY_EXECUTOR = 2;
+
+    private final Executor executor;
+    private final int drainBatch;
+    private final int maxInFlightPerMachine;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Mailboxes waiting for the executor wide in-flight count to go down, may hold mailboxes no longer parked
+    private final Queue<Mailbox> parked = new ConcurrentLinkedQueue<>();
+
+    public StateMachineExecutor() {
+        this(defaultExecutor(), DEFAULT_DRAIN_BATCH);
+    }
+
+    /**
+     * @param drainBatch max events executed each time a mailbox is run
+     */
+    public StateMachineExecutor(Executor executor, int drainBatch) {
+        this(executor, drainBatch, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param drainBatch            max events executed each time a mailbox is run
+     * @param maxInFlightPerMachine max async actions in flight for one state machine before its events are held back
+     * @param maxInFlight           max async actions in flight for all state machines before events are held back
+     */
+    public StateMachineExecutor(Executor executor, int drainBatch, int maxInFlightPerMachine, int maxInFlight) {
+        if (drainBatch < 1) {
+            throw new IllegalArgumentException("Drain batch must be at least 1");
+        }
+        if (maxInFlightPerMachine < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be at least 1");
+        }
+        this.executor = executor;
+        this.drainBatch = drainBatch;
+        this.maxInFlightPerMachine = maxInFlightPerMachine;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return async actions started and not yet completed by all mailboxes
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public Mailbox mailbox(StateMachine stateMachine) {
+        return new Mailbox(stateMachine);
+    }
+
+    /**
+     * @return virtual thread per task executor if available (Java 21+), else a pool of daemon threads, one per core
+     */
+    public static ExecutorService defaultExecutor() {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threads = new AtomicInteger();
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "statemachine-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Account for an async action started by the current thread. Outside a mailbox a waiting action is joined.
+     */
+    static void started(CompletionStage<?> stage, AsyncAction.Policy policy) {
+        Mailbox mailbox = EXECUTING.get();
+        if (mailbox != null) {
+            mailbox.started(stage, policy);
+        } else if (policy == AsyncAction.Policy.WAIT) {
+            try {
+                stage.toCompletableFuture().join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+    }
+
+    private void released(Mailbox mailbox) {
+        mailbox.inFlight.decrementAndGet();
+        inFlight.decrementAndGet();
+        mailbox.unpark(PARKED_BY_MACHINE);
+        // Run the first mailbox still parked, skipping entries of mailboxes that have been run meanwhile
+        for (Mailbox next = parked.poll(); next != null; next = parked.poll()) {
+            if (next.unpark(PARKED_BY_EXECUTOR)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Ordered queue of events for one state machine.
+     */
+    public final class Mailbox implements Runnable {
+        private final StateMachine stateMachine;
+        private final Queue<Envelope> events = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger parkState = new AtomicInteger(RUNNING);
+        // Stages of the waiting actions started by the event being executed
+        private final List<CompletableFuture<?>> awaited = new ArrayList<>();
+
+        private Mailbox(StateMachine stateMachine) {
+            this.stateMachine = stateMachine;
+            stateMachine.setTimerExecutor(timer -> {
+                events.offer(new Envelope(timer, new CompletableFuture<>()));
+                schedule();
+            });
+        }
+
+        /**
+         * @return completed with the name of the active state after the event is executed or exceptionally if an
+         * action throws
+         */
+        public CompletableFuture<String> submit(String event) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            events.offer(new Envelope(event, result));
+            schedule();
+            return result;
+        }
+
+        public StateMachine getStateMachine() {
+            return stateMachine;
+        }
+
+        /**
+         * @return async actions started and not yet completed by the events of this mailbox
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override public void run() {
+            for (int i = 0; i < drainBatch; i++) {
+                // An idle mailbox is not parked, it would take the wake up of a mailbox with events
+                if (events.isEmpty()) {
+                    break;
+                }
+                if (park()) {
+                    return;
+                }
+                Envelope envelope = events.poll();
+                RuntimeException failure = null;
+                String activeState = null;
+                EXECUTING.set(this);
+                try {
+                    if (envelope.timer != null) {
+                        envelope.timer.run();
+                    } else {
+                        stateMachine.execute(envelope.event);
+                    }
+                    activeState = stateMachine.getActiveStateName();
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    EXECUTING.remove();
+                }
+                if (!awaited.isEmpty()) {
+                    // Resume with the next event when the waiting actions complete, the mailbox stays scheduled
+                    awaitActions(envelope, activeState, failure);
+                    return;
+                }
+                complete(envelope, activeState, failure);
+            }
+            scheduled.set(false);
+            // Events submitted after the last poll are not scheduled by the submitter while this was running
+            if (!events.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void awaitActions(Envelope envelope, String activeState, RuntimeException failure) {
+            CompletableFuture<Void> all = CompletableFuture.allOf(awaited.toArray(new CompletableFuture<?>[0]));
+            awaited.clear();
+            all.whenComplete((ignored, e) -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                complete(envelope, activeState, failure != null ? failure : cause);
+                executor.execute(this);
+            });
+        }
+
+        private void complete(Envelope envelope, String activeState, Throwable failure) {
+            if (failure != null) {
+                envelope.result.completeExceptionally(failure);
+            } else {
+                envelope.result.complete(activeState);
+            }
+        }
+
+        private void started(CompletionStage<?> stage, AsyncAction.Policy policy) {
+            inFlight.incrementAndGet();
+            StateMachineExecutor.this.inFlight.incrementAndGet();
+            CompletableFuture<Object> done = new CompletableFuture<>();
+            stage.whenComplete((result, e) -> {
+                released(this);
+                if (e != null) {
+                    done.completeExceptionally(e);
+                } else {
+                    done.complete(result);
+                }
+            });
+            if (policy == AsyncAction.Policy.WAIT) {
+                awaited.add(done);
+            }
+        }
+
+        /**
+         * Park the mailbox if the state machine or the executor has the max actions in flight. The count is checked
+         * again after parking since an action may have completed in between without seeing the mailbox parked.
+         *
+         * @return true if parked, run again by {@link #released(Mailbox)}
+         */
+        private boolean park() {
+            if (inFlight.get() >= maxInFlightPerMachine) {
+                parkState.set(PARKED_BY_MACHINE);
+                if (inFlight.get() >= maxInFlightPerMachine || !parkState.compareAndSet(PARKED_BY_MACHINE, RUNNING)) {
+                    return true;
+                }
+            }
+            AtomicInteger executorInFlight = StateMachineExecutor.this.inFlight;
+            if (executorInFlight.get() >= maxInFlight) {
+                parkState.set(PARKED_BY_EXECUTOR);
+                parked.offer(this);
+                if (executorInFlight.get() >= maxInFlight || !parkState.compareAndSet(PARKED_BY_EXECUTOR, RUNNING)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if the mailbox was parked for the reason and is run again
+         */
+        private boolean unpark(int reason) {
+            if (parkState.compareAndSet(reason, RUNNING)) {
+                executor.execute(this);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Envelope {
+        final String event;
+        // Expired timer fired instead of an event
+        final Runnable timer;
+        final CompletableFuture<String> result;
+
+        Envelope(String event, CompletableFuture<String> result) {
+            this.event = event;
+            this.timer = null;
+            this.result = result;
+        }
+
+        Envelope(Runnable timer, CompletableFuture<String> result) {
+            this.event = null;
+            this.timer = timer;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.nextstate.statemachine;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics for all state machines of a {@link StateMachineDefinition}, enabled with
+ * {@link StateMachineDefinition#enableMetrics()}. Counters are striped ({@link LongAdder}) and latencies are recorded
+ * in nanoseconds in lock-free {@link LogLinearHistogram}s. Counters and histograms are created on first use.
+ * <br>
+ * Occupancy of a state is the number of entries minus the number of exits. A session that is discarded still counts
+ * in its active state, instances freed from a {@link StateMachinePool} do not.
+ * <br>
+ * Counting costs a few striped increments per event. Reading the clock costs more, so action latency and time in state
+ * are sampled: only every n:th transition of a session or pool is timed (1 times all), with one clock read for the
+ * transition and one for each entry, exit and transition action performed. Each session and pool counts its own
+ * samples, so the counting is deterministic and shares no memory between threads.
+ */
+public class StateMachineMetrics {
+    public static final int DEFAULT_TIMING_SAMPLE_INTERVAL = 16;
+
+    private final StateMachineDefinition definition;
+    // Source state and name of each transition by id, collected for the first snapshot
+    private volatile String[] transitionNames;
+    private final int sampleMask;
+
+    private final AtomicReferenceArray<LongAdder> transitionCounts;
+    private final AtomicReferenceArray<LongAdder> entries;
+    private final AtomicReferenceArray<LongAdder> exits;
+    private final AtomicReferenceArray<LongAdder> unmatched;
+    private final AtomicReferenceArray<LogLinearHistogram> transitionActionNanos;
+    private final AtomicReferenceArray<LogLinearHistogram> entryActionNanos;
+    private final AtomicReferenceArray<LogLinearHistogram> exitActionNanos;
+    private final AtomicReferenceArray<LogLinearHistogram> dwellNanos;
+
+    StateMachineMetrics(StateMachineDefinition definition, int timingSampleInterval) {
+        if (Integer.bitCount(timingSampleInterval) != 1) {
+            throw new IllegalArgumentException("Timing sample interval must be a power of 2");
+        }
+        this.definition = definition;
+        this.sampleMask = timingSampleInterval - 1;
+        // Sized without reading the states of a lazily loaded definition
+        int stateCount = definition.getStates().size();
+        int transitionCount = definition.transitionCount();
+        this.transitionCounts = new AtomicReferenceArray<>(transitionCount);
+        this.transitionActionNanos = new AtomicReferenceArray<>(transitionCount);
+        this.entries = new AtomicReferenceArray<>(stateCount);
+        this.exits = new AtomicReferenceArray<>(stateCount);
+        this.unmatched = new AtomicReferenceArray<>(stateCount);
+        this.entryActionNanos = new AtomicReferenceArray<>(stateCount);
+        this.exitActionNanos = new AtomicReferenceArray<>(stateCount);
+        this.dwellNanos = new AtomicReferenceArray<>(stateCount);
+    }
+
+    // ---- Recording, called by the state machines ----
+
+    void unmatched(State state) {
+        adder(unmatched, state.getId()).increment();
+    }
+
+    /**
+     * @param sample the number of the transition or initial entry in the session or pool
+     * @return time the transition started or 0 if the transition is not timed
+     */
+    long transitionTaken(Transition transition, int sample) {
+        adder(transitionCounts, transition.getId()).increment();
+        return (sample & sampleMask) == 0 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return now if timed and the transition has an action, else the given start
+     */
+    long transitionActionExecuted(Transition transition, long start) {
+        if (start == 0 || !transition.onTransition.isPresent()) {
+            return start;
+        }
+        long now = System.nanoTime();
+        histogram(transitionActionNanos, transition.getId()).record(now - start);
+        return now;
+    }
+
+    /**
+     * @param start     time before the exit action, 0 if not timed
+     * @param enteredAt time the state was entered, 0 if the visit is not timed
+     * @return now if timed and the state has an exit action, else the given start
+     */
+    long exitExecuted(State state, long start, long enteredAt) {
+        adder(exits, state.getId()).increment();
+        if (enteredAt != 0) {
+            // The visit was timed on entry, finish it even if this transition is not timed
+            histogram(dwellNanos, state.getId()).record((start != 0 ? start : System.nanoTime()) - enteredAt);
+        }
+        if (start == 0 || !state.getExit().isPresent()) {
+            return start;
+        }
+        long now = System.nanoTime();
+        histogram(exitActionNanos, state.getId()).record(now - start);
+        return now;
+    }
+
+    /**
+     * @param start time before the entry action, 0 if not timed
+     * @return time the state was entered, 0 if not timed
+     */
+    long entryExecuted(State state, long start) {
+        adder(entries, state.getId()).increment();
+        if (start == 0 || !state.getEntry().isPresent()) {
+            return start;
+        }
+        long now = System.nanoTime();
+        histogram(entryActionNanos, state.getId()).record(now - start);
+        return now;
+    }
+
+    /**
+     * Initial state entered by a new session or pool instance.
+     *
+     * @param sample the number of the transition or initial entry in the session or pool
+     * @return time the state was entered, 0 if not timed
+     */
+    long initialEntryExecuted(State state, int sample) {
+        adder(entries, state.getId()).increment();
+        return (sample & sampleMask) == 0 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Pool instance freed in the state.
+     */
+    void freed(State state) {
+        adder(exits, state.getId()).increment();
+    }
+
+    // ---- Reading ----
+
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @return number of events executed, matched or not
+     */
+    public long getEvents() {
+        long events = 0;
+        for (int i = 0; i < transitionCounts.length(); i++) {
+            events += sum(transitionCounts, i);
+        }
+        for (int i = 0; i < unmatched.length(); i++) {
+            events += sum(unmatched, i);
+        }
+        return events;
+    }
+
+    public int getTimingSampleInterval() {
+        return sampleMask + 1;
+    }
+
+    public long getTransitionCount(Transition transition) {
+        return sum(transitionCounts, transition.getId());
+    }
+
+    public long getOccupancy(State state) {
+        return sum(entries, state.getId()) - sum(exits, state.getId());
+    }
+
+    public long getUnmatched(State state) {
+        return sum(unmatched, state.getId());
+    }
+
+    /**
+     * Counters and histograms by name:
+     * <ul>
+     * <li>events</li>
+     * <li>state.&lt;state&gt;.entries / exits / occupancy / unmatched</li>
+     * <li>state.&lt;state&gt;.dwell / entry / exit - sampled time in state and entry and exit action latency</li>
+     * <li>transition.&lt;state&gt;.&lt;transition&gt;.count</li>
+     * <li>transition.&lt;state&gt;.&lt;transition&gt;.action - sampled transition action latency</li>
+     * </ul>
+     * Only counters and histograms with recorded values are included. The first snapshot reads the transitions of
+     * every state for their names.
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        Map<String, LogLinearHistogram.Snapshot> histograms = new LinkedHashMap<>();
+        counters.put("events", getEvents());
+        for (int i = 0; i < entries.length(); i++) {
+            if (entries.get(i) == null && exits.get(i) == null && unmatched.get(i) == null
+                    && dwellNanos.get(i) == null && entryActionNanos.get(i) == null && exitActionNanos.get(i) == null) {
+                continue;
+            }
+            String prefix = "state." + definition.state(i).getName();
+            if (entries.get(i) != null || exits.get(i) != null) {
+                counters.put(prefix + ".entries", sum(entries, i));
+                counters.put(prefix + ".exits", sum(exits, i));
+                counters.put(prefix + ".occupancy", sum(entries, i) - sum(exits, i));
+            }
+            putCounter(counters, prefix + ".unmatched", unmatched, i);
+            putHistogram(histograms, prefix + ".dwell", dwellNanos, i);
+            putHistogram(histograms, prefix + ".entry", entryActionNanos, i);
+            putHistogram(histograms, prefix + ".exit", exitActionNanos, i);
+        }
+        String[] transitionNames = transitionNames();
+        for (int i = 0; i < transitionNames.length; i++) {
+            putCounter(counters, "transition." + transitionNames[i] + ".count", transitionCounts, i);
+            putHistogram(histograms, "transition." + transitionNames[i] + ".action", transitionActionNanos, i);
+        }
+        return new Snapshot(counters, histograms);
+    }
+
+    private String[] transitionNames() {
+        String[] names = transitionNames;
+        if (names == null) {
+            names = new String[transitionCounts.length()];
+            for (State state : definition.getStates()) {
+                for (Transition transition : state.getTransitions()) {
+                    names[transition.getId()] = state.getName() + "." + (transition.getName() != null
+                            ? transition.getName() : "transition" + transition.getId());
+                }
+            }
+            transitionNames = names;
+        }
+        return names;
+    }
+
+    private static void putCounter(Map<String, Long> counters, String name, AtomicReferenceArray<LongAdder> adders,
+                                   int i) {
+        LongAdder adder = adders.get(i);
+        if (adder != null) {
+            counters.put(name, adder.sum());
+        }
+    }
+
+    private static void putHistogram(Map<String, LogLinearHistogram.Snapshot> histograms, String name,
+                                     AtomicReferenceArray<LogLinearHistogram> array, int i) {
+        LogLinearHistogram histogram = array.get(i);
+        if (histogram != null) {
+            histograms.put(name, histogram.snapshot());
+        }
+    }
+
+    private static long sum(AtomicReferenceArray<LongAdder> adders, int i) {
+        LongAdder adder = adders.get(i);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    private static LongAdder adder(AtomicReferenceArray<LongAdder> adders, int i) {
+        LongAdder adder = adders.get(i);
+        if (adder == null) {
+            adders.compareAndSet(i, null, new LongAdder());
+            adder = adders.get(i);
+        }
+        return adder;
+    }
+
+    private static LogLinearHistogram histogram(AtomicReferenceArray<LogLinearHistogram> histograms, int i) {
+        LogLinearHistogram histogram = histograms.get(i);
+        if (histogram == null) {
+            histograms.compareAndSet(i, null, new LogLinearHistogram());
+            histogram = histograms.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Metrics at the time of the snapshot.
+     */
+    public static class Snapshot {
+        private final Map<String, Long> counters;
+        private final Map<String, LogLinearHistogram.Snapshot> histograms;
+
+        Snapshot(Map<String, Long> counters, Map<String, LogLinearHistogram.Snapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public Map<String, LogLinearHistogram.Snapshot> getHistograms() {
+            return histograms;
+        }
+    }
+}
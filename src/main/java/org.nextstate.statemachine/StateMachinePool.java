@@ -0,0 +1,466 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Many instances of the same {@link StateMachineDefinition} without an object per instance. The active state of each
+ * instance is stored as the state id in an int array indexed by the instance id.
+ * <br>
+ * Instance ids are dense, freed ids are reused by the next allocation. Entry, exit and transition actions are
+ * performed as in {@link StateMachine#execute(int)}. Not thread safe. Timed transitions are only taken by their guard
+ * event, the instances have no timers. The active states of the instances are pinned in the {@link StateCache} of a
+ * lazily loaded definition until they are freed.
+ * <br>
+ * Batches of events for many instances can be executed in one pass with {@link #executeAll(int[], int[], int[])}.
+ */
+public class StateMachinePool {
+    private static final int FREE = -1;
+
+    private final StateMachineDefinition definition;
+    // States by id, null for a lazily loaded definition whose states are got when referenced
+    private final State[] states;
+    private final int stateCount;
+    // Pins the active states of a lazily loaded definition, null if loaded eagerly
+    private final StateCache stateCache;
+
+    // Active state id by instance id, FREE if the instance is not allocated
+    private int[] activeStates;
+    // Stack of freed instance ids
+    private int[] freeIds;
+    private int freeCount;
+    // Instance ids below are allocated or free
+    private int highWaterMark;
+    // Time the active state was entered by instance id, created when metrics are enabled
+    private long[] stateEnteredNanos;
+    // Transitions and initial entries of all instances counted to pick those timed by the metrics
+    private int timingSamples;
+
+    // Reused by executeAll
+    private int[] batchCounts = new int[0];
+    private int[] batchOrder = new int[0];
+    private long[] batchKeys = new long[0];
+
+    public StateMachinePool(StateMachineDefinition definition, int initialCapacity) {
+        definition.requireNoPredicateGuards("a pool");
+        this.definition = definition;
+        this.stateCache = definition.stateCache;
+        this.states = stateCache == null ? definition.getStates().toArray(new State[0]) : null;
+        this.stateCount = definition.getStates().size();
+        this.activeStates = new int[Math.max(initialCapacity, 1)];
+        this.freeIds = new int[0];
+    }
+
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Allocate an instance with the initial state as active state.
+     *
+     * @return the instance id
+     */
+    public int allocate() {
+        int instanceId;
+        if (freeCount > 0) {
+            instanceId = freeIds[--freeCount];
+        } else {
+            if (highWaterMark == activeStates.length) {
+                activeStates = Arrays.copyOf(activeStates, activeStates.length * 2);
+            }
+            instanceId = highWaterMark++;
+        }
+        TransitionPath initialPath = definition.getInitialPath();
+        moved(null, initialPath.getTarget());
+        activeStates[instanceId] = initialPath.getTarget().getId();
+        if (!definition.instrumented) {
+            initialPath.performEntry();
+            return instanceId;
+        }
+        StateMachineMetrics metrics = definition.metrics;
+        for (State entered : initialPath.entered) {
+            entered.onEntry();
+            if (metrics != null) {
+                enteredNanos()[instanceId] = metrics.initialEntryExecuted(entered, ++timingSamples);
+            }
+            for (TransitionListener listener : definition.listeners) {
+                listener.entryExecuted(definition, entered);
+            }
+        }
+        return instanceId;
+    }
+
+    /**
+     * Allocate one instance for each element of the array.
+     *
+     * @param instanceIds filled with the allocated instance ids
+     */
+    public void allocate(int[] instanceIds) {
+        int needed = instanceIds.length - freeCount + highWaterMark;
+        if (needed > activeStates.length) {
+            activeStates = Arrays.copyOf(activeStates, Math.max(needed, activeStates.length * 2));
+        }
+        for (int i = 0; i < instanceIds.length; i++) {
+            instanceIds[i] = allocate();
+        }
+    }
+
+    public void free(int instanceId) {
+        checkAllocated(instanceId);
+        StateMachineMetrics metrics = definition.metrics;
+        if (metrics != null) {
+            metrics.freed(state(activeStates[instanceId]));
+        }
+        moved(state(activeStates[instanceId]), null);
+        activeStates[instanceId] = FREE;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIds.length * 2));
+        }
+        freeIds[freeCount++] = instanceId;
+    }
+
+    public void free(int[] instanceIds) {
+        for (int instanceId : instanceIds) {
+            free(instanceId);
+        }
+    }
+
+    /**
+     * @return number of allocated instances
+     */
+    public int size() {
+        return highWaterMark - freeCount;
+    }
+
+    public boolean isAllocated(int instanceId) {
+        return instanceId >= 0 && instanceId < highWaterMark && activeStates[instanceId] != FREE;
+    }
+
+    public void execute(int instanceId, String event) {
+        execute(instanceId, definition.eventId(event), event);
+    }
+
+    /**
+     * Execute the event given by the id from {@link StateMachineDefinition#eventId(String)} on the instance.
+     */
+    public void execute(int instanceId, int eventId) {
+        execute(instanceId, eventId, null);
+    }
+
+    private void execute(int instanceId, int eventId, String event) {
+        checkAllocated(instanceId);
+        if (definition.instrumented) {
+            executeInstrumented(instanceId, eventId, event != null ? event : definition.eventName(eventId));
+            return;
+        }
+        State source = state(activeStates[instanceId]);
+        TransitionPath path = source.pathFor(eventId);
+        if (path == null) {
+            return;
+        }
+
+        path.performExit();
+        moved(source, path.getTarget());
+        activeStates[instanceId] = path.getTarget().getId();
+        path.performEntry();
+    }
+
+    /**
+     * Execute notifying listeners and recording metrics.
+     *
+     * @return false if no transition match
+     */
+    private boolean executeInstrumented(int instanceId, int eventId, String event) {
+        TransitionListener[] listeners = definition.listeners;
+        StateMachineMetrics metrics = definition.metrics;
+        State source = state(activeStates[instanceId]);
+        for (TransitionListener listener : listeners) {
+            listener.beforeEvent(definition, source, event);
+        }
+        TransitionPath path = source.pathFor(eventId);
+        if (path == null) {
+            if (metrics != null) {
+                metrics.unmatched(source);
+            }
+            for (TransitionListener listener : listeners) {
+                listener.eventUnmatched(definition, source, event);
+            }
+            return false;
+        }
+
+        Transition transition = path.getTransition();
+        long now = metrics != null ? metrics.transitionTaken(transition, ++timingSamples) : 0;
+        transition.onTransition.ifPresent(Action::perform);
+        if (metrics != null) {
+            now = metrics.transitionActionExecuted(transition, now);
+        }
+        for (TransitionListener listener : listeners) {
+            listener.transitionTaken(definition, source, transition, event);
+        }
+        for (State exited : path.exited) {
+            exited.onExit();
+            if (metrics != null) {
+                now = metrics.exitExecuted(exited, now, exited == source ? enteredNanos()[instanceId] : 0);
+            }
+            for (TransitionListener listener : listeners) {
+                listener.exitExecuted(definition, exited);
+            }
+        }
+        moved(source, path.getTarget());
+        activeStates[instanceId] = path.getTarget().getId();
+        for (State entered : path.entered) {
+            entered.onEntry();
+            if (metrics != null) {
+                enteredNanos()[instanceId] = metrics.entryExecuted(entered, now);
+            }
+            for (TransitionListener listener : listeners) {
+                listener.entryExecuted(definition, entered);
+            }
+        }
+        return true;
+    }
+
+    private long[] enteredNanos() {
+        if (stateEnteredNanos == null || stateEnteredNanos.length < activeStates.length) {
+            stateEnteredNanos = stateEnteredNanos == null ? new long[activeStates.length]
+                    : Arrays.copyOf(stateEnteredNanos, activeStates.length);
+        }
+        return stateEnteredNanos;
+    }
+
+    public BitSet executeAll(int[] instanceIds, String[] events) {
+        int[] eventIds = new int[events.length];
+        for (int i = 0; i < events.length; i++) {
+            eventIds[i] = definition.eventId(events[i]);
+        }
+        return executeAll(instanceIds, eventIds, null);
+    }
+
+    public BitSet executeAll(int[] instanceIds, int[] eventIds) {
+        return executeAll(instanceIds, eventIds, null);
+    }
+
+    /**
+     * Execute a batch of events where event i is for instance i. The events of an instance are executed in batch
+     * order. Within each round (the first event of every instance, then the second ...) the events are grouped by
+     * active state and event so the transition path is looked up once per group. Actions of different
+     * instances may therefore be performed in another order than the batch order. With listeners or metrics on the
+     * definition the events are executed one by one in batch order.
+     *
+     * @param activeStateIds if not null, filled with the active state id of the instance after event i
+     * @return the indexes of the events with no transition match
+     */
+    public BitSet executeAll(int[] instanceIds, int[] eventIds, int[] activeStateIds) {
+        int size = instanceIds.length;
+        if (eventIds.length != size || (activeStateIds != null && activeStateIds.length < size)) {
+            throw new IllegalArgumentException("Batch arrays must have the same length");
+        }
+        long eventCount = definition.getEvents().size() + 1;
+        if (stateCount * eventCount > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many states and events to group a batch");
+        }
+        for (int instanceId : instanceIds) {
+            checkAllocated(instanceId);
+        }
+        if (definition.instrumented) {
+            BitSet unmatched = new BitSet(size);
+            for (int i = 0; i < size; i++) {
+                if (!executeInstrumented(instanceIds[i], eventIds[i], definition.eventName(eventIds[i]))) {
+                    unmatched.set(i);
+                }
+                if (activeStateIds != null) {
+                    activeStateIds[i] = activeStates[instanceIds[i]];
+                }
+            }
+            return unmatched;
+        }
+        ensureBatchCapacity(size);
+
+        // Round of each event is the number of earlier events for the same instance, bucket the events by round
+        int[] counts = batchCounts;
+        int[] order = batchOrder;
+        long[] keys = batchKeys;
+        int rounds = 0;
+        for (int i = 0; i < size; i++) {
+            order[i] = counts[instanceIds[i]]++;
+            rounds = Math.max(rounds, order[i] + 1);
+        }
+        for (int i = 0; i < size; i++) {
+            counts[instanceIds[i]] = 0;
+        }
+        int[] roundStart = new int[rounds + 1];
+        for (int i = 0; i < size; i++) {
+            roundStart[order[i] + 1]++;
+        }
+        for (int r = 0; r < rounds; r++) {
+            roundStart[r + 1] += roundStart[r];
+        }
+        int[] next = Arrays.copyOf(roundStart, rounds);
+        for (int i = 0; i < size; i++) {
+            keys[next[order[i]]++] = i;
+        }
+
+        BitSet unmatched = new BitSet(size);
+        for (int r = 0; r < rounds; r++) {
+            int from = roundStart[r];
+            int to = roundStart[r + 1];
+            // Sort by group (active state, event) keeping the index in the low bits
+            for (int k = from; k < to; k++) {
+                int i = (int) keys[k];
+                int eventId = eventIds[i] >= 0 && eventIds[i] < eventCount - 1 ? eventIds[i] : -1;
+                long group = activeStates[instanceIds[i]] * eventCount + eventId + 1;
+                keys[k] = group << 32 | i;
+            }
+            Arrays.sort(keys, from, to);
+
+            int k = from;
+            while (k < to) {
+                long group = keys[k] >>> 32;
+                int groupEnd = k + 1;
+                while (groupEnd < to && keys[groupEnd] >>> 32 == group) {
+                    groupEnd++;
+                }
+                executeGroup(keys, k, groupEnd, instanceIds, eventIds, activeStateIds, unmatched);
+                k = groupEnd;
+            }
+        }
+        return unmatched;
+    }
+
+    private void executeGroup(long[] keys, int from, int to, int[] instanceIds, int[] eventIds,
+                              int[] activeStateIds, BitSet unmatched) {
+        int first = (int) keys[from];
+        State source = state(activeStates[instanceIds[first]]);
+        TransitionPath path = source.pathFor(eventIds[first]);
+        if (path == null) {
+            for (int k = from; k < to; k++) {
+                int i = (int) keys[k];
+                unmatched.set(i);
+                if (activeStateIds != null) {
+                    activeStateIds[i] = source.getId();
+                }
+            }
+            return;
+        }
+
+        int targetId = path.getTarget().getId();
+        if (stateCache != null) {
+            stateCache.moved(source, path.getTarget(), to - from);
+        }
+        for (int k = from; k < to; k++) {
+            int i = (int) keys[k];
+            path.performExit();
+            activeStates[instanceIds[i]] = targetId;
+            path.performEntry();
+            if (activeStateIds != null) {
+                activeStateIds[i] = targetId;
+            }
+        }
+    }
+
+    private void ensureBatchCapacity(int size) {
+        if (batchCounts.length < highWaterMark) {
+            batchCounts = new int[activeStates.length];
+        }
+        if (batchOrder.length < size) {
+            batchOrder = new int[size];
+            batchKeys = new long[size];
+        }
+    }
+
+    public int getActiveStateId(int instanceId) {
+        checkAllocated(instanceId);
+        return activeStates[instanceId];
+    }
+
+    public State getActiveState(int instanceId) {
+        return state(getActiveStateId(instanceId));
+    }
+
+    public String getActiveStateName(int instanceId) {
+        return getActiveState(instanceId).getName();
+    }
+
+    public void activeStateConfiguration(int instanceId, String stateName) {
+        checkAllocated(instanceId);
+        State state = definition.state(stateName).orElseThrow(() -> new IllegalStateException("No state named "
+                + stateName + " exists in " + definition.getName()));
+        State active = TransitionPath.drillDown(state, new ArrayList<>());
+        moved(state(activeStates[instanceId]), active);
+        activeStates[instanceId] = active.getId();
+    }
+
+    private State state(int stateId) {
+        return states != null ? states[stateId] : definition.state(stateId);
+    }
+
+    /**
+     * The active state of an instance changed, either null if not allocated.
+     */
+    private void moved(State from, State to) {
+        if (stateCache != null) {
+            stateCache.moved(from, to);
+        }
+    }
+
+    /**
+     * @return number of instance ids in use or free, the active state ids below are valid
+     */
+    int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the active state id by instance id, -1 if free. Not a copy.
+     */
+    int[] activeStateIds() {
+        return activeStates;
+    }
+
+    /**
+     * Replace all instances without performing any actions, e.g. when recovered from a snapshot. Instance ids below
+     * the high water mark with active state -1 are free. The pool takes over the array.
+     */
+    void restore(int[] activeStateIds, int highWaterMark) {
+        for (int i = 0; i < highWaterMark; i++) {
+            if (activeStateIds[i] < FREE || activeStateIds[i] >= stateCount) {
+                throw new IllegalStateException("No state with id " + activeStateIds[i] + " in "
+                        + definition.getName());
+            }
+        }
+        if (stateCache != null) {
+            for (int i = 0; i < this.highWaterMark; i++) {
+                if (activeStates[i] != FREE) {
+                    stateCache.moved(state(activeStates[i]), null);
+                }
+            }
+            for (int i = 0; i < highWaterMark; i++) {
+                if (activeStateIds[i] != FREE) {
+                    stateCache.moved(null, state(activeStateIds[i]));
+                }
+            }
+        }
+        this.activeStates = activeStateIds.length > highWaterMark ? activeStateIds
+                : Arrays.copyOf(activeStateIds, Math.max(highWaterMark * 2, 16));
+        Arrays.fill(activeStates, highWaterMark, activeStates.length, FREE);
+        this.highWaterMark = highWaterMark;
+        this.freeCount = 0;
+        // Push in reverse so the lowest free id is allocated first
+        for (int i = highWaterMark - 1; i >= 0; i--) {
+            if (activeStates[i] == FREE) {
+                if (freeCount == freeIds.length) {
+                    freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIds.length * 2));
+                }
+                freeIds[freeCount++] = i;
+            }
+        }
+        this.stateEnteredNanos = null;
+    }
+
+    private void checkAllocated(int instanceId) {
+        if (!isAllocated(instanceId)) {
+            throw new IllegalStateException("No instance with id " + instanceId);
+        }
+    }
+}
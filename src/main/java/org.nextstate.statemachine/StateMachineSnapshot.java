@@ -0,0 +1,192 @@
+package org.nextstate.statemachine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary snapshot of the active state of many instances of a {@link StateMachineDefinition}, e.g. all instances of a
+ * {@link StateMachinePool}. The state ids are packed with just enough bits for the number of states.
+ * <br>
+ * Layout, little endian:
+ * <pre>
+ *  0 magic          int
+ *  4 version        int
+ *  8 fingerprint    long  {@link StateMachineDefinition#getFingerprint()}
+ * 16 state count    int
+ * 20 bits per id    int
+ * 24 instance count int
+ * 28 reserved       int
+ * 32 packed ids     long[], state id + 1 of each instance, 0 if the instance is free
+ * </pre>
+ * The ids are packed directly into and unpacked directly from the buffer, for a file channel the buffer is a mapping
+ * of the file so no intermediate copies are made. A snapshot of another version or with another fingerprint than the
+ * definition is rejected.
+ */
+public final class StateMachineSnapshot {
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x4e535350;
+
+    private StateMachineSnapshot() {
+    }
+
+    /**
+     * @return size of a snapshot of the instances in bytes
+     */
+    public static long size(StateMachineDefinition definition, int instanceCount) {
+        return HEADER_SIZE + ((long) instanceCount * bitsPerId(definition) + 63) / 64 * 8;
+    }
+
+    /**
+     * Write the active states at the position of the buffer and advance the position.
+     *
+     * @param activeStateIds state id of each instance, -1 if the instance is free
+     * @param count          number of instances
+     */
+    public static void write(StateMachineDefinition definition, int[] activeStateIds, int count, ByteBuffer target) {
+        int bits = bitsPerId(definition);
+        int stateCount = definition.getStates().size();
+        ByteBuffer buffer = target.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < size(definition, count)) {
+            throw new IllegalArgumentException("Snapshot of " + count + " instances needs "
+                    + size(definition, count) + " bytes");
+        }
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(definition.getFingerprint())
+                .putInt(stateCount).putInt(bits).putInt(count).putInt(0);
+        long word = 0;
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            int stateId = activeStateIds[i];
+            if (stateId < -1 || stateId >= stateCount) {
+                throw new IllegalStateException("No state with id " + stateId + " in " + definition.getName());
+            }
+            long value = stateId + 1;
+            word |= value << used;
+            used += bits;
+            if (used >= 64) {
+                buffer.putLong(word);
+                used -= 64;
+                // Bits of the value that did not fit in the word
+                word = used == 0 ? 0 : value >>> (bits - used);
+            }
+        }
+        if (used > 0) {
+            buffer.putLong(word);
+        }
+        target.position(target.position() + buffer.position());
+    }
+
+    /**
+     * Read the active states at the position of the buffer and advance the position.
+     *
+     * @return state id of each instance, -1 if the instance is free
+     */
+    public static int[] read(StateMachineDefinition definition, ByteBuffer source) {
+        ByteBuffer buffer = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a state machine snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Snapshot version " + version + " is not supported, expected " + VERSION);
+        }
+        long fingerprint = buffer.getLong();
+        int stateCount = buffer.getInt();
+        int bits = buffer.getInt();
+        int count = buffer.getInt();
+        buffer.getInt();
+        if (fingerprint != definition.getFingerprint() || stateCount != definition.getStates().size()
+                || bits != bitsPerId(definition)) {
+            throw new IllegalStateException("Snapshot of a definition with " + stateCount + " states and fingerprint "
+                    + Long.toHexString(fingerprint) + " is not compatible with " + definition.getName() + " with "
+                    + definition.getStates().size() + " states and fingerprint "
+                    + Long.toHexString(definition.getFingerprint()));
+        }
+        if (count < 0 || buffer.capacity() < size(definition, count)) {
+            throw new IllegalStateException("Snapshot of " + count + " instances is truncated");
+        }
+
+        int[] activeStateIds = new int[count];
+        long mask = (1L << bits) - 1;
+        long word = 0;
+        int available = 0;
+        for (int i = 0; i < count; i++) {
+            long value;
+            if (available >= bits) {
+                value = word & mask;
+                word >>>= bits;
+                available -= bits;
+            } else {
+                // Low bits from the rest of this word, high bits from the next
+                long next = buffer.getLong();
+                value = (word | next << available) & mask;
+                word = next >>> (bits - available);
+                available += 64 - bits;
+            }
+            int stateId = (int) value - 1;
+            if (stateId >= stateCount) {
+                throw new IllegalStateException("No state with id " + stateId + " in " + definition.getName());
+            }
+            activeStateIds[i] = stateId;
+        }
+        source.position(source.position() + (int) size(definition, count));
+        return activeStateIds;
+    }
+
+    /**
+     * Write all instances of the pool at the position of the buffer.
+     */
+    public static void write(StateMachinePool pool, ByteBuffer target) {
+        write(pool.getDefinition(), pool.activeStateIds(), pool.getHighWaterMark(), target);
+    }
+
+    /**
+     * Replace all instances of the pool with the instances of the snapshot without performing any actions. Instance
+     * ids are kept.
+     */
+    public static void restore(StateMachinePool pool, ByteBuffer source) {
+        int[] activeStateIds = read(pool.getDefinition(), source);
+        pool.restore(activeStateIds, activeStateIds.length);
+    }
+
+    /**
+     * Write all instances of the pool at the position of the channel, which must be open for reading and writing.
+     */
+    public static void write(StateMachinePool pool, FileChannel channel) throws IOException {
+        long size = size(pool.getDefinition(), pool.getHighWaterMark());
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, channel.position(), size);
+        write(pool, buffer);
+        channel.position(channel.position() + size);
+    }
+
+    /**
+     * Restore the pool from the snapshot at the position of the channel.
+     */
+    public static void restore(StateMachinePool pool, FileChannel channel) throws IOException {
+        int[] activeStateIds = read(pool.getDefinition(), channel);
+        pool.restore(activeStateIds, activeStateIds.length);
+    }
+
+    /**
+     * Read the snapshot at the position of the channel and advance the position.
+     *
+     * @return state id of each instance, -1 if the instance is free
+     */
+    public static int[] read(StateMachineDefinition definition, FileChannel channel) throws IOException {
+        long position = channel.position();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position);
+        int[] activeStateIds = read(definition, buffer);
+        channel.position(position + buffer.position());
+        return activeStateIds;
+    }
+
+    /**
+     * @return bits for the state ids and free
+     */
+    static int bitsPerId(StateMachineDefinition definition) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(definition.getStates().size()));
+    }
+}
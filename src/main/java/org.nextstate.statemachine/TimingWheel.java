@@ -0,0 +1,229 @@
+package org.nextstate.statemachine;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Hierarchical hashed timing wheel for the timers of many state machines, e.g. the timed transitions built with
+ * {@link Transition.TransitionBuilder#after(Duration)}. One wheel is shared by all the machines using it.
+ * <br>
+ * Time is counted in ticks. The lowest level has a slot for each of the next 256 ticks, each level above a slot for
+ * 256 slots of the level below. A timer is linked into the slot of its deadline on the lowest level reaching it, and
+ * moved down when the slot of the level above comes due. Scheduling and cancelling link and unlink the timer in O(1)
+ * without allocation. Advancing costs O(1) per tick plus the timers expired or moved down. Deadlines beyond the top
+ * level, 2^32 ticks, are moved down again when the top level slot comes due.
+ * <br>
+ * A timer never expires before its deadline, and at most a tick after it if the wheel is advanced every tick.
+ * <br>
+ * Thread safe, sessions executing on different threads schedule and cancel their timers on the shared wheel. The
+ * wheel is locked while a timer is linked or unlinked, not while it expires. Timers expire on the thread advancing
+ * the wheel, a timer cancelled concurrently may still expire.
+ */
+public final class TimingWheel {
+    public static final Duration DEFAULT_TICK = Duration.ofMillis(1);
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 8;
+    private static final int MASK = (1 << SLOT_BITS) - 1;
+    // Ticks reached by the top level
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+    // Longer delays are cut to about 73 years
+    private static final Duration MAX_DELAY = Duration.ofNanos(Long.MAX_VALUE / 4);
+
+    private final LongSupplier clock;
+    private final long tickNanos;
+    // Clock time of tick zero
+    private final long origin;
+    // Head of the list of timers by level and slot
+    private final Timer[][] slots = new Timer[LEVELS][MASK + 1];
+    private long currentTick;
+    private int size;
+
+    /**
+     * Wheel with the {@link #DEFAULT_TICK} and {@link System#nanoTime()} as clock.
+     */
+    public TimingWheel() {
+        this(System::nanoTime, DEFAULT_TICK);
+    }
+
+    /**
+     * @param clock time in nanoseconds, e.g. {@code System::nanoTime} or a settable clock in tests
+     * @param tick  resolution of the timers
+     */
+    public TimingWheel(LongSupplier clock, Duration tick) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.clock = clock;
+        this.tickNanos = tick.toNanos();
+        this.origin = clock.getAsLong();
+    }
+
+    /**
+     * Schedule the timer to expire after the delay, rescheduling it if it is already scheduled.
+     */
+    public void schedule(Timer timer, Duration delay) {
+        schedule(timer, delay.compareTo(MAX_DELAY) > 0 ? MAX_DELAY.toNanos() : delay.toNanos());
+    }
+
+    /**
+     * Schedule the timer to expire after the delay in nanoseconds, rescheduling it if it is already scheduled.
+     */
+    public synchronized void schedule(Timer timer, long delayNanos) {
+        TimingWheel scheduledOn = timer.wheel;
+        if (scheduledOn != null) {
+            scheduledOn.cancel(timer);
+        }
+        long elapsed = clock.getAsLong() - origin;
+        // Round up so the timer never expires early
+        long delay = Math.max(Math.min(delayNanos, MAX_DELAY.toNanos()), 0);
+        long deadline = elapsed / tickNanos + (elapsed % tickNanos + delay + tickNanos - 1) / tickNanos;
+        // The current tick is done, an overdue timer expires on the next
+        timer.deadline = Math.max(deadline, currentTick + 1);
+        timer.wheel = this;
+        link(timer);
+        size++;
+    }
+
+    /**
+     * Cancel the timer if it is scheduled on this wheel.
+     */
+    public synchronized void cancel(Timer timer) {
+        if (timer.wheel == this) {
+            unlink(timer);
+            timer.wheel = null;
+            size--;
+        }
+    }
+
+    /**
+     * Advance to the current time of the clock, expiring the due timers in deadline order.
+     *
+     * @return the number of timers expired
+     */
+    public int advance() {
+        long target = (clock.getAsLong() - origin) / tickNanos;
+        int expired = 0;
+        // Unlink one at the time, an expired timer may cancel or schedule others
+        for (Timer timer = nextExpired(target); timer != null; timer = nextExpired(target)) {
+            expired++;
+            timer.expired();
+        }
+        return expired;
+    }
+
+    /**
+     * Unlink the next timer due up to the target tick.
+     *
+     * @return the timer or null if none is due up to the target tick
+     */
+    private synchronized Timer nextExpired(long target) {
+        while (true) {
+            Timer timer = slots[0][(int) currentTick & MASK];
+            if (timer != null) {
+                unlink(timer);
+                timer.wheel = null;
+                size--;
+                return timer;
+            }
+            if (currentTick >= target) {
+                return null;
+            }
+            currentTick++;
+            int index = (int) currentTick & MASK;
+            // Move the timers of the levels above down when their slot comes due
+            for (int level = 1; index == 0 && level < LEVELS; level++) {
+                index = (int) (currentTick >>> (SLOT_BITS * level)) & MASK;
+                Timer[] slotsOfLevel = slots[level];
+                for (Timer moved = slotsOfLevel[index]; moved != null; moved = slotsOfLevel[index]) {
+                    unlink(moved);
+                    link(moved);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of timers scheduled
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public Duration getTick() {
+        return Duration.ofNanos(tickNanos);
+    }
+
+    /**
+     * Link the scheduled timer into the slot of its deadline on the lowest level reaching it. The deadline is not
+     * before the current tick.
+     */
+    private void link(Timer timer) {
+        long delta = timer.deadline - currentTick;
+        long slotTick = timer.deadline;
+        if (delta >= SPAN) {
+            slotTick = currentTick + SPAN - 1;
+            delta = SPAN - 1;
+        }
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) (slotTick >>> (SLOT_BITS * level)) & MASK;
+        Timer head = slots[level][slot];
+        timer.level = level;
+        timer.slot = slot;
+        timer.prev = null;
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        slots[level][slot] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            slots[timer.level][timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    /**
+     * A timer linked into the wheel while it is scheduled. Reuse the timer to schedule it again without allocation.
+     */
+    public abstract static class Timer {
+        // The wheel the timer is scheduled on, null if not scheduled. Written under the lock of the wheel.
+        private volatile TimingWheel wheel;
+        private Timer prev;
+        private Timer next;
+        // Tick of the wheel the timer expires
+        private long deadline;
+        private int level;
+        private int slot;
+
+        /**
+         * Called on the thread advancing the wheel when the timer expires, the timer is no longer scheduled.
+         */
+        protected abstract void expired();
+
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+
+        /**
+         * Cancel the timer if it is scheduled.
+         */
+        public void cancel() {
+            TimingWheel scheduledOn = wheel;
+            if (scheduledOn != null) {
+                scheduledOn.cancel(this);
+            }
+        }
+    }
+}
@@ -1,16 +1,46 @@
 package org.nextstate.statemachine;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 public class Transition {
     private final String name;
     private State targetState;
     protected String guardEvent;
     protected Optional<Action> onTransition;
+    // Id in the definition, assigned when compiled
+    int id = -1;
+    // Time the source state is active before the transition is taken, null if not timed
+    private final Duration after;
+    // Predicate on the context of the state machine that must hold for the transition to be taken, null if none
+    final Predicate<Object> guard;
+    final boolean exclusiveGuard;
 
     public Transition(String guardEvent, State state, String name, Action onTransition) {
+        this(guardEvent, state, name, onTransition, null);
+    }
+
+    /**
+     * @param after time the source state is active before the transition is taken, null if not timed. A timed
+     *              transition is also taken by executing the guard event.
+     */
+    public Transition(String guardEvent, State state, String name, Action onTransition, Duration after) {
+        this(guardEvent, state, name, onTransition, after, null, false);
+    }
+
+    /**
+     * @param guard     predicate on the {@link StateMachine#getContext() context} of the state machine that must hold
+     *                  for the transition to be taken, null if none. Transitions of a state guarded by the same event
+     *                  are tried in order and the first with a guard holding is taken.
+     * @param exclusive the guard is side-effect free and never holds together with another exclusive guard of a
+     *                  transition of the state guarded by the same event, so these guards can be tried in any order
+     */
+    @SuppressWarnings("unchecked")
+    public Transition(String guardEvent, State state, String name, Action onTransition, Duration after,
+                      Predicate<?> guard, boolean exclusive) {
         if (state == null) {
             throw new IllegalStateException("Missing target State!");
         }
@@ -21,6 +51,15 @@ public class Transition {
         this.targetState = state;
         this.name = name;
         this.onTransition = Optional.ofNullable(onTransition);
+        if (after != null && after.isNegative()) {
+            throw new IllegalStateException("Negative timeout " + after + " of transition " + name);
+        }
+        this.after = after;
+        if (exclusive && guard == null) {
+            throw new IllegalStateException("Exclusive transition " + name + " has no guard");
+        }
+        this.guard = (Predicate<Object>) guard;
+        this.exclusiveGuard = exclusive;
     }
 
     public State getTargetState() {
@@ -31,6 +70,32 @@ public class Transition {
         return name;
     }
 
+    /**
+     * @return time the source state is active before the transition is taken by the
+     * {@link StateMachineDefinition#setTimingWheel(TimingWheel) timing wheel}, empty if not timed
+     */
+    public Optional<Duration> getAfter() {
+        return Optional.ofNullable(after);
+    }
+
+    /**
+     * @return the predicate on the context of the state machine that must hold for the transition to be taken
+     */
+    public Optional<Predicate<Object>> getGuard() {
+        return Optional.ofNullable(guard);
+    }
+
+    public boolean isExclusiveGuard() {
+        return exclusiveGuard;
+    }
+
+    /**
+     * @return the id of the transition in the {@link StateMachineDefinition} it is compiled for
+     */
+    public int getId() {
+        return id;
+    }
+
     // =================
     //      Builder
     // =================
@@ -49,6 +114,9 @@ public class Transition {
         String guardEvent;
         private State state;
         private Action onTransition;
+        private Duration after;
+        private Predicate<?> guard;
+        private boolean exclusive;
 
         public TransitionBuilder(T parentBuilder, String name) {
             this.parentBuilder = parentBuilder;
@@ -60,6 +128,50 @@ public class Transition {
             return this;
         }
 
+        /**
+         * Guard by the events of the class and its subclasses, see {@link Event}.
+         */
+        public TransitionBuilder<T> guardedBy(Class<? extends Event> eventClass) {
+            this.guardEvent = Event.name(eventClass);
+            return this;
+        }
+
+        /**
+         * Take the transition when the source state has been active for the duration, e.g. from Ringing to OffHook
+         * when no one answers. Guarded by the event "after " + duration unless guarded by another event.
+         * <br>
+         * The timers run for {@link StateMachine} sessions of a definition with a
+         * {@link StateMachineDefinition#setTimingWheel(TimingWheel) timing wheel}. Instances of a
+         * {@link StateMachinePool} and machines of a {@link ShardedDispatcher} have no timers, they only take the
+         * transition by its guard event.
+         */
+        public TransitionBuilder<T> after(Duration duration) {
+            this.after = duration;
+            return this;
+        }
+
+        /**
+         * Take the transition only if the guard holds for the {@link StateMachine#getContext() context} of the state
+         * machine, e.g. {@code .when((Job job) -> job.retries < 3)}. Otherwise the next transition of the state
+         * guarded by the event is tried.
+         */
+        public <C> TransitionBuilder<T> when(Predicate<C> contextGuard) {
+            this.guard = contextGuard;
+            this.exclusive = false;
+            return this;
+        }
+
+        /**
+         * Like {@link #when(Predicate)} for a guard without side effects that never holds together with another
+         * exclusive guard of the state for the event. Consecutive exclusive guards are tried most selective first,
+         * reordered by the times each held.
+         */
+        public <C> TransitionBuilder<T> whenExclusive(Predicate<C> contextGuard) {
+            this.guard = contextGuard;
+            this.exclusive = true;
+            return this;
+        }
+
         public TransitionBuilder<T> onTransition(Action action) {
             this.onTransition = action;
             return this;
@@ -71,7 +183,8 @@ public class Transition {
         }
 
         public Transition build() {
-            return new Transition(guardEvent, state, name, onTransition);
+            String event = guardEvent == null && after != null ? "after " + after : guardEvent;
+            return new Transition(event, state, name, onTransition, after, guard, exclusive);
         }
     }
 
@@ -122,7 +235,7 @@ public class Transition {
             //            return
             transitionBuilder = Transition.transition(this, name);
             transitionBuilder.to(state);
-            transitionBuilder.guardedBy(null);
+            transitionBuilder.guardedBy((String) null);
             return transitionBuilder.build();
         }
     }
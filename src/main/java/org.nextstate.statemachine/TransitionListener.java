@@ -0,0 +1,27 @@
+package org.nextstate.statemachine;
+
+/**
+ * Listener for tracing the execution of the state machines of a {@link StateMachineDefinition}. Register with
+ * {@link StateMachineDefinition#addListener(TransitionListener)}. With no listener registered the execution only
+ * checks for an empty array of listeners.
+ * <br>
+ * The event is null when executed by an event id not guarded by any transition.
+ */
+public interface TransitionListener {
+
+    default void beforeEvent(StateMachineDefinition definition, State activeState, String event) {
+    }
+
+    default void transitionTaken(StateMachineDefinition definition, State source, Transition transition,
+                                 String event) {
+    }
+
+    default void eventUnmatched(StateMachineDefinition definition, State activeState, String event) {
+    }
+
+    default void exitExecuted(StateMachineDefinition definition, State state) {
+    }
+
+    default void entryExecuted(StateMachineDefinition definition, State state) {
+    }
+}
@@ -0,0 +1,207 @@
+package org.nextstate.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A transition compiled for one source state: the states exited up to the least common ancestor of the source and
+ * the target, the states entered down to the target and on into the initial substates of the target, and the actions
+ * of all of them in the order they are performed. The transition action is performed first, then the exit actions
+ * from the source up and the entry actions from the top down.
+ * <br>
+ * Built once when the state is compiled so executing a transition only runs the action array. The active state is
+ * always a state without substates, the {@link #getTarget() target} of the path.
+ */
+public final class TransitionPath {
+    private static final State[] NO_STATES = new State[0];
+
+    private final Transition transition;
+    private final State target;
+    final State[] exited;
+    final State[] entered;
+    final Action[] actions;
+    // Index of the first entry action
+    final int firstEntryAction;
+    // True if an action is an EventAction
+    final boolean eventActions;
+    // The paths of the source for the event when the transition has a predicate guard, set when compiled
+    GuardedPaths guarded;
+
+    private TransitionPath(Transition transition, State target, State[] exited, State[] entered) {
+        this.transition = transition;
+        this.target = target;
+        this.exited = exited;
+        this.entered = entered;
+        List<Action> chain = new ArrayList<>();
+        if (transition != null) {
+            transition.onTransition.ifPresent(chain::add);
+        }
+        for (State state : exited) {
+            state.getExit().ifPresent(chain::add);
+        }
+        this.firstEntryAction = chain.size();
+        for (State state : entered) {
+            state.getEntry().ifPresent(chain::add);
+        }
+        this.actions = chain.toArray(new Action[0]);
+        boolean anyEventAction = false;
+        for (Action action : actions) {
+            anyEventAction |= action instanceof EventAction;
+        }
+        this.eventActions = anyEventAction;
+    }
+
+    /**
+     * Path of the transition from the source, a state without substates. A transition to the source itself or to an
+     * ancestor exits and enters that state again.
+     */
+    public static TransitionPath of(State source, Transition transition) {
+        State targetState = transition.getTargetState();
+        // Least common ancestor: the innermost proper ancestor of the target that contains the source
+        List<State> sourceChain = ancestorsOf(source);
+        State lca = targetState.getParent().orElse(null);
+        while (lca != null && !sourceChain.contains(lca)) {
+            lca = lca.getParent().orElse(null);
+        }
+
+        List<State> exited = new ArrayList<>();
+        for (State state : sourceChain) {
+            if (state == lca) {
+                break;
+            }
+            exited.add(state);
+        }
+        List<State> entered = new ArrayList<>();
+        for (State state = targetState; state != lca; state = state.getParent().orElse(null)) {
+            entered.add(state);
+        }
+        Collections.reverse(entered);
+        State leaf = drillDown(targetState, entered);
+        return new TransitionPath(transition, leaf, exited.toArray(NO_STATES), entered.toArray(NO_STATES));
+    }
+
+    /**
+     * Path entering the state from the top, e.g. the initial state of a state machine.
+     */
+    public static TransitionPath initial(State state) {
+        List<State> entered = ancestorsOf(state);
+        Collections.reverse(entered);
+        State leaf = drillDown(state, entered);
+        return new TransitionPath(null, leaf, NO_STATES, entered.toArray(NO_STATES));
+    }
+
+    /**
+     * @return the state and its ancestors, innermost first
+     */
+    static List<State> ancestorsOf(State state) {
+        List<State> chain = new ArrayList<>();
+        for (State s = state; s != null; s = s.getParent().orElse(null)) {
+            chain.add(s);
+        }
+        return chain;
+    }
+
+    /**
+     * Follow the initial substates from the state, adding each to entered.
+     *
+     * @return the state without substates
+     */
+    static State drillDown(State state, List<State> entered) {
+        State leaf = state;
+        while (!leaf.getSubstates().isEmpty()) {
+            leaf = leaf.getInitialSubstate().orElseThrow(IllegalStateException::new);
+            entered.add(leaf);
+        }
+        return leaf;
+    }
+
+    /**
+     * @return this path or, if the transition has a predicate guard, the first path of the source for the event whose
+     * guard holds for the context, null if none holds
+     */
+    public TransitionPath select(Object context) {
+        return guarded == null ? this : guarded.select(context);
+    }
+
+    /**
+     * @return the transition, null for an initial path
+     */
+    public Transition getTransition() {
+        return transition;
+    }
+
+    /**
+     * @return the new active state
+     */
+    public State getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the states exited, the source first
+     */
+    public List<State> getExited() {
+        return Collections.unmodifiableList(Arrays.asList(exited));
+    }
+
+    /**
+     * @return the states entered from the top, the new active state last
+     */
+    public List<State> getEntered() {
+        return Collections.unmodifiableList(Arrays.asList(entered));
+    }
+
+    /**
+     * Perform the transition and exit actions in order.
+     */
+    void performExit() {
+        for (int i = 0; i < firstEntryAction; i++) {
+            actions[i].perform();
+        }
+    }
+
+    /**
+     * Perform the entry actions in order, after the target is made active.
+     */
+    void performEntry() {
+        for (int i = firstEntryAction; i < actions.length; i++) {
+            actions[i].perform();
+        }
+    }
+
+    /**
+     * Perform the transition and exit actions giving the event to the {@link EventAction}s.
+     */
+    void performExit(Event event) {
+        if (!eventActions) {
+            performExit();
+            return;
+        }
+        for (int i = 0; i < firstEntryAction; i++) {
+            perform(actions[i], event);
+        }
+    }
+
+    /**
+     * Perform the entry actions giving the event to the {@link EventAction}s.
+     */
+    void performEntry(Event event) {
+        if (!eventActions) {
+            performEntry();
+            return;
+        }
+        for (int i = firstEntryAction; i < actions.length; i++) {
+            perform(actions[i], event);
+        }
+    }
+
+    static void perform(Action action, Event event) {
+        if (action instanceof EventAction) {
+            ((EventAction) action).perform(event);
+        } else {
+            action.perform();
+        }
+    }
+}
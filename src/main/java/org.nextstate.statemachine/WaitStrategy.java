@@ -0,0 +1,46 @@
+package org.nextstate.statemachine;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for a ring buffer slot to be published (consumer) or freed (producer).
+ */
+public enum WaitStrategy {
+    /**
+     * Spin. Lowest latency, burns a core per waiting thread.
+     */
+    BUSY_SPIN {
+        @Override void idle(int attempt) {
+        }
+    },
+    /**
+     * Spin a while then yield the core to other threads.
+     */
+    YIELDING {
+        @Override void idle(int attempt) {
+            if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    },
+    /**
+     * Spin, yield, then park for a short while. Least CPU when idle at the cost of wakeup latency.
+     */
+    PARKING {
+        @Override void idle(int attempt) {
+            if (attempt > 2 * SPIN_TRIES) {
+                LockSupport.parkNanos(PARK_NANOS);
+            } else if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * @param attempt number of times the thread has waited for the same condition
+     */
+    abstract void idle(int attempt);
+}
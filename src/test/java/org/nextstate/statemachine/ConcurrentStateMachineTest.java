@@ -0,0 +1,136 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.RINGING;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class ConcurrentStateMachineTest {
+    private static final String TOGGLE = "Toggle";
+
+    @Test
+    public void execute() {
+        ConcurrentStateMachine phone = new ConcurrentStateMachine(new PhoneStateMachine());
+
+        phone.execute(CALL_DIALED);
+
+        assertThat(phone.getActiveStateName()).isEqualTo(RINGING);
+    }
+
+    @Test
+    public void run_to_completion_with_concurrent_producers() throws InterruptedException {
+        AtomicInteger entries = new AtomicInteger();
+        AtomicInteger executing = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        Action entry = () -> {
+            if (executing.incrementAndGet() != 1) {
+                overlaps.incrementAndGet();
+            }
+            entries.incrementAndGet();
+            executing.decrementAndGet();
+        };
+        SimpleState b = state("B").onEntry(entry).build();
+        SimpleState a = state("A").onEntry(entry).build();
+        a.addTransitions(Transition.transitions().transition("AtoB").guardedBy(TOGGLE).to(b).build());
+        b.addTransitions(Transition.transitions().transition("BtoA").guardedBy(TOGGLE).to(a).build());
+        ConcurrentStateMachine toggle = new ConcurrentStateMachine(definition("Toggle")
+                .states(Arrays.asList(a, b)).initialState(a).build().newInstance());
+
+        int threads = 4;
+        int events = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < events; i++) {
+                    toggle.execute(TOGGLE);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        // Initial entry plus one entry for each event
+        assertThat(entries.get()).isEqualTo(threads * events + 1);
+        assertThat(overlaps.get()).isZero();
+        assertThat(toggle.getActiveStateName()).isEqualTo("A");
+    }
+
+    @Test
+    public void action_failure_is_rethrown_and_machine_continues() {
+        SimpleState b = state("B").onEntry(() -> {
+            throw new IllegalArgumentException("Failed");
+        }).build();
+        State a = state("A").transition("AtoB").guardedBy(TOGGLE).to(b).build();
+        ConcurrentStateMachine stateMachine = new ConcurrentStateMachine(definition("Failing")
+                .states(Arrays.asList(a, b)).initialState(a).build().newInstance());
+
+        try {
+            stateMachine.execute(TOGGLE);
+
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessage("Failed");
+        }
+        stateMachine.execute(TOGGLE);
+
+        assertThat(stateMachine.getActiveStateName()).isEqualTo("B");
+    }
+
+    @Test
+    public void failure_is_reported_to_the_producer_of_the_event() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SimpleState c = state("C").onEntry(() -> {
+            throw new IllegalArgumentException("Failed");
+        }).build();
+        SimpleState b = state("B").onEntry(() -> {
+            entered.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }).transition("BtoC").guardedBy("Fail").to(c).build();
+        State a = state("A").transition("AtoB").guardedBy(TOGGLE).to(b).build();
+        ConcurrentStateMachine stateMachine = new ConcurrentStateMachine(definition("Failing")
+                .states(Arrays.asList(a, b, c)).initialState(a).build().newInstance());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // The other thread holds the machine in the entry action of B while the failing event is handed off
+        Future<CompletableFuture<Void>> draining = executor.submit(() -> stateMachine.execute(TOGGLE));
+        assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Void> failing = stateMachine.execute("Fail");
+        release.countDown();
+
+        assertThat(draining.get(10, TimeUnit.SECONDS)).isCompleted().isNotCompletedExceptionally();
+        try {
+            failing.join();
+            failBecauseExceptionWasNotThrown(CompletionException.class);
+        } catch (CompletionException e) {
+            assertThat(e.getCause()).hasMessage("Failed");
+        }
+        executor.shutdown();
+    }
+}
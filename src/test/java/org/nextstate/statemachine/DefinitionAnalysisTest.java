@@ -0,0 +1,110 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class DefinitionAnalysisTest {
+
+    @Test
+    public void phone_is_valid_with_a_dead_end() {
+        DefinitionAnalysis analysis = PhoneStateMachine.DEFINITION.analysis();
+
+        assertThat(analysis.isValid()).isTrue();
+        assertThat(analysis.getUnreachableStates()).isEmpty();
+        assertThat(analysis.getDeadEndStates()).extracting("name").containsExactly(PhoneStateMachine.PHONE_DESTROYED);
+        assertThat(analysis.getStatesNotReachingFinalState()).isEmpty();
+        assertThat(PhoneStateMachine.DEFINITION.analysis()).isSameAs(analysis);
+    }
+
+    @Test
+    public void unreachable_shadowed_and_duplicate_states_are_invalid() {
+        SimpleState orphan = state("Orphan").build();
+        SimpleState twin = state("Idle").build();
+        SimpleState busy = state("Busy").build();
+        SimpleState idle = state("Idle")
+                .transition("Call").guardedBy("Call").to(busy)
+                .transition("Again").guardedBy("Call").to(twin)
+                .build();
+        busy.addTransition(new Transition("HangUp", idle, "HangUp", null));
+        StateMachineDefinition definition = definition("Broken").states(Arrays.asList(idle, orphan))
+                .initialState(idle).build();
+
+        DefinitionAnalysis analysis = definition.analysis();
+
+        assertThat(analysis.isValid()).isFalse();
+        assertThat(analysis.getUnreachableStates()).containsExactly(orphan, twin);
+        assertThat(analysis.getShadowedTransitions()).extracting("name").containsExactly("Again");
+        assertThat(analysis.getDuplicateStateNames()).containsExactly("Idle");
+        assertThat(analysis.getDeadEndStates()).containsExactly(orphan, twin);
+        assertThat(analysis.toString()).contains("Unreachable states: [Orphan, Idle]")
+                .contains("Shadowed transitions: [Again on Call]");
+    }
+
+    @Test
+    public void states_not_reaching_a_final_state() {
+        FinalState done = new FinalState("Done");
+        SimpleState loop = state("Loop").build();
+        loop.addTransition(new Transition("Spin", loop, "Spin", null));
+        SimpleState work = state("Work")
+                .transition("Finish").guardedBy(FinalState.FINAL_EVENT).to(done)
+                .transition("Stall").guardedBy("Stall").to(loop)
+                .build();
+        SimpleState start = state("Start").transition("Go").guardedBy("Go").to(work).build();
+        StateMachineDefinition definition = definition("Job").states(Collections.singletonList(start))
+                .initialState(start).build();
+
+        DefinitionAnalysis analysis = definition.analysis();
+
+        assertThat(analysis.getStatesNotReachingFinalState()).containsExactly(loop);
+        assertThat(analysis.getDeadEndStates()).isEmpty();
+        assertThat(analysis.transitionToFinalState(work.getId())).isTrue();
+        assertThat(analysis.transitionToFinalState(start.getId())).isFalse();
+        assertThat(work.transitionToFinalState()).isTrue();
+    }
+
+    @Test
+    public void composite_states_are_entered_and_left_through_substates() {
+        FinalState done = new FinalState("Done");
+        SimpleState first = state("First").build();
+        SimpleState second = state("Second").build();
+        SimpleState unused = state("Unused").build();
+        SimpleState active = state("Active").substates(first, second, unused)
+                .transition("Quit").guardedBy(FinalState.FINAL_EVENT).to(done)
+                .build();
+        first.addTransition(new Transition("Next", second, "Next", null));
+        SimpleState idle = state("Idle").transition("Start").guardedBy("Start").to(active).build();
+        StateMachineDefinition definition = definition("Nested").states(Collections.singletonList(idle))
+                .initialState(idle).build();
+
+        DefinitionAnalysis analysis = definition.analysis();
+
+        assertThat(analysis.getUnreachableStates()).containsExactly(unused);
+        assertThat(analysis.getDeadEndStates()).isEmpty();
+        assertThat(analysis.getStatesNotReachingFinalState()).isEmpty();
+    }
+
+    @Test
+    public void validate_rejects_an_invalid_state_machine() {
+        try {
+            new StateMachine() {
+                {
+                    SimpleState idle = state("Idle").build();
+                    addStates(Arrays.asList(idle, state("Orphan").build()));
+                    activeState(idle);
+                    validate();
+                }
+            };
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("is not valid").contains("Unreachable states: [Orphan]");
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("checkstyle:methodname")
+public class DefinitionLoaderTest {
+    private static final String PHONE = String.join("\n",
+            "# Phone with a composite Active state",
+            "definition Phone",
+            "state Idle initial entry ring",
+            "state Active exit hangUp",
+            "state Dialing in Active",
+            "state \"On Call\" in Active",
+            "transition Dial from Idle on Dial to Active",
+            "transition Connect from Dialing on Connect to \"On Call\" action connect",
+            "transition HangUp from Active on HangUp to Idle",
+            "");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> trace = new ArrayList<>();
+
+    private DefinitionLoader loader() {
+        return DefinitionLoader.loader()
+                .action("ring", () -> trace.add("ring"))
+                .action("hangUp", () -> trace.add("hangUp"))
+                .action("connect", () -> trace.add("connect"));
+    }
+
+    @Test
+    public void source_is_parsed_to_a_definition() {
+        StateMachineDefinition definition = loader().parse(PHONE);
+
+        assertThat(definition.getName()).isEqualTo("Phone");
+        assertThat(definition.getStates()).extracting("name").containsExactly("Idle", "Active", "Dialing", "On Call");
+        assertThat(definition.isHierarchical()).isTrue();
+        assertThat(definition.getInitialState().getName()).isEqualTo("Idle");
+        assertThat(trace(definition)).containsExactly("ring", "connect", "hangUp", "ring");
+    }
+
+    @Test
+    public void second_load_maps_the_cache() throws IOException {
+        Path source = write("phone.sm", PHONE);
+        StateMachineDefinition parsed = loader().load(source);
+        assertThat(source.resolveSibling("phone.sm" + DefinitionLoader.CACHE_SUFFIX)).exists();
+
+        StateMachineDefinition cached = loader().load(source);
+
+        assertThat(cached.getInitialState()).isNotExactlyInstanceOf(SimpleState.class);
+        assertThat(cached.getFingerprint()).isEqualTo(parsed.getFingerprint());
+        assertThat(cached.getName()).isEqualTo("Phone");
+        assertThat(cached.getStates()).extracting("name").containsExactly("Idle", "Active", "Dialing", "On Call");
+        assertThat(cached.getTransitions()).extracting("name").containsExactly("Dial", "HangUp", "Connect");
+        assertThat(cached.getTransitions()).extracting("id").containsExactly(0, 1, 2);
+        assertThat(cached.state("Idle").get().getEntryActionName()).contains("ring");
+        assertThat(trace(cached)).isEqualTo(trace(parsed));
+    }
+
+    @Test
+    public void changed_source_invalidates_the_cache() throws IOException {
+        Path cacheDirectory = folder.newFolder("cache").toPath();
+        Path source = write("phone.sm", PHONE);
+        loader().cacheDirectory(cacheDirectory).load(source);
+
+        write("phone.sm", PHONE + "state Broken\ntransition Hurl from Idle on Hurl to Broken\n");
+        StateMachineDefinition changed = loader().cacheDirectory(cacheDirectory).load(source);
+        assertThat(changed.getInitialState()).isExactlyInstanceOf(SimpleState.class);
+        assertThat(changed.state("Broken")).isPresent();
+
+        StateMachineDefinition cached = loader().cacheDirectory(cacheDirectory).load(source);
+        assertThat(cached.getInitialState()).isNotExactlyInstanceOf(SimpleState.class);
+        assertThat(cached.getFingerprint()).isEqualTo(changed.getFingerprint());
+        StateMachine machine = cached.newInstance();
+        machine.execute("Hurl");
+        assertThat(machine.getActiveStateName()).isEqualTo("Broken");
+    }
+
+    @Test
+    public void invalid_source_is_rejected_with_the_line() {
+        try {
+            loader().parse("definition Phone\nstate Idle\ntransition Dial from Idle on Dial to Nowhere\n");
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("Line 3: no state Nowhere declared");
+        }
+        try {
+            loader().parse("definition Phone\nstate Idle entry missing\n");
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("Line 2: no action named missing");
+        }
+    }
+
+    @Test
+    public void missing_action_is_rejected_when_loading_the_cache() throws IOException {
+        Path source = write("phone.sm", PHONE);
+        loader().load(source);
+
+        try {
+            DefinitionLoader.loader().action("ring", () -> { }).load(source);
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).startsWith("No action named");
+        }
+    }
+
+    @Test
+    public void lazy_definition_reads_the_transitions_of_visited_states_only() throws IOException {
+        Path source = write("phone.sm", PHONE);
+        StateMachineDefinition eager = loader().load(source);
+
+        StateMachineDefinition lazy = loader().lazy(8).load(source);
+        StateCache cache = lazy.getStateCache().get();
+        assertThat(cache.getMisses()).isZero();
+        StateMachine machine = lazy.newInstance();
+        machine.execute("Dial");
+
+        // Dialing is entered but its transitions not needed yet
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getSize()).isEqualTo(1);
+        assertThat(trace(lazy)).isEqualTo(trace(eager));
+        assertThat(cache.getHits()).isPositive();
+        assertThat(lazy.getStates()).extracting("name").containsExactly("Idle", "Active", "Dialing", "On Call");
+        assertThat(lazy.getFingerprint()).isEqualTo(eager.getFingerprint());
+        assertThat(eager.getStateCache()).isEmpty();
+    }
+
+    @Test
+    public void lazy_definition_evicts_the_least_recently_used_state_not_active() throws IOException {
+        Path source = write("phone.sm", PHONE);
+        StateMachineDefinition lazy = loader().lazy(1).load(source);
+        StateCache cache = lazy.getStateCache().get();
+        StateMachine idle = lazy.newInstance();
+        idle.execute(lazy.eventId("HangUp"));
+        StateMachine calling = lazy.newInstance();
+
+        calling.execute("Dial");
+        calling.execute("Connect");
+        calling.execute("HangUp");
+
+        // Dialing and Active are evicted for On Call, then Active read again while Idle and On Call are active
+        assertThat(calling.getActiveStateName()).isEqualTo("Idle");
+        assertThat(cache.getEvictions()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(5);
+        assertThat(cache.getSize()).isEqualTo(3);
+        idle.execute("Dial");
+        idle.execute("Connect");
+        assertThat(idle.getActiveStateName()).isEqualTo("On Call");
+        assertThat(cache.toString()).contains("misses");
+    }
+
+    @Test
+    public void closed_session_unpins_its_state() throws IOException {
+        StateMachineDefinition lazy = loader().lazy(1).load(write("phone.sm", PHONE));
+        StateCache cache = lazy.getStateCache().get();
+        StateMachine dropped = lazy.newInstance();
+        dropped.execute("Dial");
+        dropped.execute("Connect");
+        dropped.execute("Dial");
+        // On Call is active and kept above the capacity
+        assertThat(cache.getSize()).isEqualTo(2);
+
+        dropped.close();
+        lazy.newInstance().execute("Dial");
+
+        assertThat(cache.getSize()).isEqualTo(1);
+        try {
+            dropped.execute("HangUp");
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("No active state");
+        }
+    }
+
+    @Test
+    public void pool_pins_the_states_of_its_instances_until_freed() throws IOException {
+        StateMachineDefinition lazy = loader().lazy(1).load(write("phone.sm", PHONE));
+        StateCache cache = lazy.getStateCache().get();
+        StateMachinePool pool = new StateMachinePool(lazy, 4);
+        int caller = pool.allocate();
+        pool.execute(caller, "Dial");
+        pool.execute(caller, "Connect");
+        pool.execute(caller, "Dial");
+        assertThat(cache.getSize()).isEqualTo(2);
+
+        pool.free(caller);
+        lazy.newInstance().execute("Dial");
+
+        assertThat(cache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void pool_resolves_only_the_visited_states() throws IOException {
+        StringBuilder chain = new StringBuilder("definition Chain\nstate S0 initial\n");
+        for (int i = 1; i < 100; i++) {
+            chain.append("state S").append(i).append('\n');
+            chain.append("transition Next").append(i).append(" from S").append(i - 1).append(" on Next to S")
+                    .append(i).append('\n');
+        }
+        StateMachineDefinition lazy = loader().lazy(8).load(write("chain.sm", chain.toString()));
+        StateCache cache = lazy.getStateCache().get();
+        lazy.enableMetrics();
+
+        StateMachinePool pool = new StateMachinePool(lazy, 4);
+        int instance = pool.allocate();
+        assertThat(cache.getResolvedStates()).isEqualTo(1);
+        for (int i = 0; i < 3; i++) {
+            pool.execute(instance, "Next");
+        }
+
+        // Each state read resolves the target of its transition
+        assertThat(pool.getActiveStateName(instance)).isEqualTo("S3");
+        assertThat(cache.getResolvedStates()).isEqualTo(4);
+    }
+
+    @Test
+    public void lazy_states_can_not_be_changed() throws IOException {
+        StateMachineDefinition lazy = loader().lazy(2).load(write("phone.sm", PHONE));
+        SimpleState idle = (SimpleState) lazy.getInitialState();
+
+        try {
+            idle.addTransition(new Transition("Redial", idle, "Dial", null));
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("State Idle is loaded lazily and can not be changed");
+        }
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> trace(StateMachineDefinition definition) {
+        trace.clear();
+        StateMachine machine = definition.newInstance();
+        machine.execute("Dial");
+        machine.execute("Connect");
+        machine.execute("HangUp");
+        assertThat(machine.getActiveStateName()).isEqualTo("Idle");
+        return new ArrayList<>(trace);
+    }
+}
@@ -0,0 +1,112 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("checkstyle:methodname")
+public class DotExporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A chain "S 0" -> "S 1" -> ... with a cycle back from "S 3" to "S 1".
+     */
+    private StateMachineDefinition chain(int length) {
+        List<SimpleState> states = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            states.add(state("S " + i).build());
+        }
+        for (int i = 0; i + 1 < length; i++) {
+            states.get(i).addTransition(new Transition("Next", states.get(i + 1), "Next " + i, null));
+        }
+        states.get(3).addTransition(new Transition("Back", states.get(1), "Back", null));
+        return definition("Chain").states(new ArrayList<>(states)).initialState(states.get(0)).build();
+    }
+
+    @Test
+    public void node_ids_replace_whitespace_runs_as_the_regex() {
+        for (String name : new String[] {"Idle", "On Call", " lead", "trail\t", "a \t\r\nb c", ""}) {
+            assertThat(StateGraph.nodeId(name)).isEqualTo(name.replaceAll("\\s+", "_"));
+        }
+    }
+
+    @Test
+    public void channel_gets_the_same_graph() throws IOException {
+        StateMachine phone = new PhoneStateMachine();
+        Path file = folder.getRoot().toPath().resolve("phone.dot");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            phone.dot().write(channel);
+        }
+
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).isEqualTo(phone.toDot(true));
+    }
+
+    @Test
+    public void neighborhood_of_the_active_state_follows_transitions_both_ways() {
+        StateMachineDefinition definition = chain(10);
+        int active = definition.stateId("S 5");
+
+        String dot = DotExporter.dot(definition).activeState(active).neighborhood(2).toDot();
+
+        assertThat(dot).contains("S_5[label=\"S 5\", style=filled, fillcolor=lightblue];")
+                .contains("S_3[label=\"S 3\"];")
+                .contains("S_7[label=\"S 7\"];")
+                .contains("S_3 -> S_4 [label=\"Next 3\"];")
+                .doesNotContain("S_2[").doesNotContain("S_8[")
+                .doesNotContain("S_3 -> S_1")
+                .doesNotContain("S_7 -> S_8");
+    }
+
+    @Test
+    public void strongly_connected_components_are_collapsed() {
+        StateMachineDefinition definition = chain(6);
+
+        String dot = DotExporter.dot(definition).activeState(definition.stateId("S 2")).collapseCycles().toDot();
+
+        int component = definition.stateId("S 1");
+        assertThat(dot).contains("scc_" + component + "[label=\"S 1 +2\", style=filled, fillcolor=lightblue];")
+                .contains("S_0 -> scc_" + component + " [label=\"Next 0\"];")
+                .contains("scc_" + component + " -> S_4 [label=\"Next 3\"];")
+                .contains("S_4 -> S_5 [label=\"Next 4\"];")
+                .doesNotContain("S_2[").doesNotContain("Back");
+    }
+
+    @Test
+    public void collapse_within_the_neighborhood() {
+        SimpleState a = state("A").build();
+        SimpleState b = state("B").build();
+        SimpleState c = state("C").build();
+        SimpleState d = state("D").build();
+        a.addTransition(new Transition("Go", b, "Go", null));
+        b.addTransition(new Transition("Go", c, "Go", null));
+        c.addTransition(new Transition("Go", d, "Go", null));
+        d.addTransition(new Transition("Go", a, "Go", null));
+        StateMachineDefinition definition = definition("Ring").states(Collections.singletonList(a))
+                .initialState(a).build();
+
+        String dot = DotExporter.dot(definition).activeState(a.getId()).neighborhood(1).collapseCycles()
+                .highlightActiveState(false).toDot();
+
+        // C is outside the neighborhood so no cycle is left
+        assertThat(dot).contains("A[label=\"A\"];").contains("B[label=\"B\"];").contains("D[label=\"D\"];")
+                .contains("A -> B [label=\"Go\"];").contains("D -> A [label=\"Go\"];")
+                .doesNotContain("C[").doesNotContain("scc_");
+        assertThat(DotExporter.dot(definition).collapseCycles().toDot()).contains("scc_0[label=\"A +3\"];");
+    }
+}
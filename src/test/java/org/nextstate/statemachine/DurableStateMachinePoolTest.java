@@ -0,0 +1,183 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.DEFINITION;
+import static org.nextstate.statemachine.PhoneStateMachine.HUNG_UP;
+import static org.nextstate.statemachine.PhoneStateMachine.OFF_HOOK;
+import static org.nextstate.statemachine.PhoneStateMachine.RINGING;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("checkstyle:methodname")
+public class DurableStateMachinePoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void instances_are_recovered_from_the_journal() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        int first;
+        int second;
+        int freed;
+        try (DurableStateMachinePool pool = DurableStateMachinePool.durable(DEFINITION).directory(directory).open()) {
+            first = pool.allocate();
+            second = pool.allocate();
+            freed = pool.allocate();
+            pool.execute(first, CALL_DIALED);
+            pool.execute(first, CALL_CONNECTED);
+            pool.execute(second, CALL_DIALED);
+            pool.free(freed);
+        }
+
+        try (DurableStateMachinePool pool = DurableStateMachinePool.durable(DEFINITION).directory(directory).open()) {
+            assertThat(pool.getActiveStateName(first)).isEqualTo(CONNECTED);
+            assertThat(pool.getActiveStateName(second)).isEqualTo(RINGING);
+            assertThat(pool.isAllocated(freed)).isFalse();
+            assertThat(pool.size()).isEqualTo(2);
+            assertThat(pool.allocate()).isEqualTo(freed);
+        }
+    }
+
+    @Test
+    public void recovery_loads_snapshot_and_replays_the_tail() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        int[] ids = new int[100];
+        try (DurableStateMachinePool pool = DurableStateMachinePool.durable(DEFINITION).directory(directory)
+                .segmentSize(1024).snapshotEvery(150).open()) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = pool.allocate();
+                pool.execute(ids[i], CALL_DIALED);
+            }
+            for (int i = 0; i < ids.length; i += 2) {
+                pool.execute(ids[i], HUNG_UP);
+            }
+            assertThat(pool.getJournal().getNextSequence()).isEqualTo(250);
+        }
+
+        // Snapshot at 150, the journal before it is deleted
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString()).filter(name -> name.endsWith(".snapshot"))
+                    .collect(Collectors.toList())).containsExactly(String.format("%020d.snapshot", 150));
+        }
+        try (DurableStateMachinePool pool = DurableStateMachinePool.durable(DEFINITION).directory(directory)
+                .segmentSize(1024).snapshotEvery(150).open()) {
+            for (int i = 0; i < ids.length; i++) {
+                assertThat(pool.getActiveStateName(ids[i])).isEqualTo(i % 2 == 0 ? OFF_HOOK : RINGING);
+            }
+            assertThat(pool.getJournal().getNextSequence()).isEqualTo(250);
+        }
+    }
+
+    @Test
+    public void actions_are_not_performed_on_recovery() throws IOException {
+        AtomicInteger actions = new AtomicInteger();
+        SimpleState b = state("B").onEntry(actions::incrementAndGet).onExit(actions::incrementAndGet).build();
+        SimpleState a = state("A").onEntry(actions::incrementAndGet).transition("AtoB").guardedBy("Go").to(b)
+                .build();
+        StateMachineDefinition definition = definition("Actions").states(Arrays.asList(a, b)).initialState(a).build();
+        Path directory = folder.getRoot().toPath();
+        try (DurableStateMachinePool pool = DurableStateMachinePool.durable(definition).directory(directory)
+                .syncInterval(Duration.ZERO).open()) {
+            pool.execute(pool.allocate(), "Go");
+            pool.snapshot();
+            pool.execute(pool.allocate(), "Go");
+        }
+        assertThat(actions.get()).isEqualTo(4);
+
+        try (DurableStateMachinePool pool = DurableStateMachinePool.durable(definition).directory(directory).open()) {
+            assertThat(pool.getActiveStateName(0)).isEqualTo("B");
+            assertThat(pool.getActiveStateName(1)).isEqualTo("B");
+        }
+        assertThat(actions.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void journal_ends_at_torn_record() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (EventJournal journal = new EventJournal(directory, 1024)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(i, 7, 1000 + i);
+            }
+        }
+        Path segment = directory.resolve(String.format("%020d.journal", 0));
+        byte[] bytes = Files.readAllBytes(segment);
+        // Corrupt the instance id of the fourth record
+        bytes[32 + 3 * EventJournal.RECORD_SIZE] ^= 1;
+        Files.write(segment, bytes);
+
+        try (EventJournal journal = new EventJournal(directory, 1024)) {
+            AtomicInteger replayed = new AtomicInteger();
+            journal.replay(0, (sequence, instanceId, eventId, timestamp) -> {
+                assertThat(instanceId).isEqualTo((int) sequence);
+                assertThat(timestamp).isEqualTo(1000 + sequence);
+                replayed.incrementAndGet();
+            });
+            assertThat(replayed.get()).isEqualTo(3);
+            assertThat(journal.append(3, 7, 0)).isEqualTo(3);
+            assertThat(journal.getNextSequence()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void last_segment_without_header_is_created_again() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        // Two records per segment
+        int segmentSize = 32 + 2 * EventJournal.RECORD_SIZE;
+        try (EventJournal journal = new EventJournal(directory, segmentSize)) {
+            for (int i = 0; i < 4; i++) {
+                journal.append(i, 7, 1000 + i);
+            }
+        }
+        // Crash after the third segment was created, before its header reached the disk
+        Path blank = directory.resolve(String.format("%020d.journal", 4));
+        Files.write(blank, new byte[segmentSize]);
+
+        try (EventJournal journal = new EventJournal(directory, segmentSize)) {
+            AtomicInteger replayed = new AtomicInteger();
+            journal.replay(0, (sequence, instanceId, eventId, timestamp) -> replayed.incrementAndGet());
+            assertThat(replayed.get()).isEqualTo(4);
+            assertThat(journal.append(4, 7, 0)).isEqualTo(4);
+        }
+        // Truncated to nothing
+        Files.write(blank, new byte[0]);
+        try (EventJournal journal = new EventJournal(directory, segmentSize)) {
+            assertThat(journal.getNextSequence()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void concurrent_syncs_are_grouped() throws Exception {
+        try (EventJournal journal = new EventJournal(folder.getRoot().toPath(), 1 << 16)) {
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                int instanceId = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        journal.sync(journal.append(instanceId, i, 0) + 1);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertThat(journal.getNextSequence()).isEqualTo(400);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.DEFINITION;
+import static org.nextstate.statemachine.PhoneStateMachine.RINGING;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("checkstyle:methodname")
+public class EventReplayTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Idle -Start-> Busy -Done-> Idle, Busy -Fail-> Failed, or Busy -Fail-> Idle in the fixed version.
+     */
+    private static StateMachineDefinition jobs(boolean fixed, Action onBusy) {
+        SimpleState idle = state("Idle").build();
+        SimpleState failed = state("Failed").build();
+        SimpleState busy = state("Busy").onEntry(onBusy)
+                .transition("Done").guardedBy("Done").to(idle)
+                .transition("Fail").guardedBy("Fail").to(fixed ? idle : failed)
+                .build();
+        idle.addTransition(new Transition("Start", busy, "Start", null));
+        return definition(fixed ? "FixedJobs" : "Jobs").states(Arrays.asList(idle, busy, failed)).initialState(idle)
+                .build();
+    }
+
+    @Test
+    public void parallel_replay_matches_executing_each_session_in_order() {
+        StateMachineDefinition jobs = jobs(false, null);
+        Random random = new Random(3);
+        int[] instanceIds = new int[20_000];
+        int[] eventIds = new int[instanceIds.length];
+        String[] events = {"Start", "Done", "Fail", "Unknown"};
+        Map<Integer, StateMachine> sessions = new HashMap<>();
+        long unmatched = 0;
+        for (int i = 0; i < instanceIds.length; i++) {
+            instanceIds[i] = random.nextInt(500);
+            String event = events[random.nextInt(events.length)];
+            eventIds[i] = jobs.eventId(event);
+            StateMachine session = sessions.computeIfAbsent(instanceIds[i], id -> jobs.newInstance());
+            if (session.getActiveState().pathFor(eventIds[i]) == null) {
+                unmatched++;
+            }
+            session.execute(event);
+        }
+        Map<String, Long> expected = new HashMap<>();
+        sessions.values().forEach(session -> expected.merge(session.getActiveStateName(), 1L, Long::sum));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ReplayReport report = EventReplay.replay(jobs).pool(pool).partitions(7).chunkSize(1000)
+                .run(instanceIds, eventIds);
+        pool.shutdown();
+
+        assertThat(report.getSessions()).isEqualTo(sessions.size());
+        assertThat(report.getEvents()).isEqualTo(instanceIds.length);
+        assertThat(report.getFinalStateCounts()).isEqualTo(expected);
+        assertThat(report.getUnmatchedEvents()).isEqualTo(unmatched);
+        assertThat(report.getTransitionCoverage()).isEqualTo(1.0);
+        assertThat(report.getCandidate()).isEmpty();
+    }
+
+    @Test
+    public void candidate_divergence_is_reported() {
+        StateMachineDefinition jobs = jobs(false, null);
+        int start = jobs.eventId("Start");
+        int done = jobs.eventId("Done");
+        int fail = jobs.eventId("Fail");
+        int[] instanceIds = {0, 1, 2, 0, 1, 2, 1, 3, 3, 3};
+        int[] eventIds = {start, start, start, done, fail, fail, start, DurableStateMachinePool.ALLOCATED, start,
+            DurableStateMachinePool.FREED};
+
+        ReplayReport report = EventReplay.replay(jobs).compareWith(jobs(true, null)).run(instanceIds, eventIds);
+
+        assertThat(report.getFinalStateCounts()).containsEntry("Idle", 1L).containsEntry("Failed", 2L)
+                .containsEntry("Busy", 1L);
+        assertThat(report.getUnmatchedEventCounts()).containsExactly(entry("Failed", 1L));
+        assertThat(report.getDivergentSessions()).isEqualTo(2);
+        assertThat(report.getFinalStateDivergence()).containsOnly(entry("Failed -> Idle", 1L),
+                entry("Failed -> Busy", 1L));
+        ReplayReport candidate = report.getCandidate().get();
+        assertThat(candidate.getDefinition().getName()).isEqualTo("FixedJobs");
+        assertThat(candidate.getFinalStateCounts()).containsEntry("Idle", 2L).containsEntry("Busy", 2L);
+        assertThat(candidate.getUnmatchedEvents()).isZero();
+        assertThat(candidate.getUncoveredTransitions()).isEmpty();
+        assertThat(report.toString()).contains("Divergent sessions: 2").contains("FixedJobs: 4 sessions");
+    }
+
+    @Test
+    public void actions_are_recorded_instead_of_performed() {
+        List<Action> performed = new ArrayList<>();
+        Action onBusy = () -> performed.add(null);
+        StateMachineDefinition jobs = jobs(false, onBusy);
+        AtomicInteger recorded = new AtomicInteger();
+        int start = jobs.eventId("Start");
+
+        ReplayReport report = EventReplay.replay(jobs).recordActions((definition, instanceId, action) -> {
+            assertThat(action).isSameAs(onBusy);
+            recorded.incrementAndGet();
+        }).run(new int[] {0, 1, 0}, new int[] {start, start, start});
+
+        assertThat(recorded.get()).isEqualTo(2);
+        assertThat(performed).isEmpty();
+        assertThat(report.getUncoveredTransitions()).extracting("name").containsExactly("Done", "Fail");
+    }
+
+    @Test
+    public void journal_of_a_durable_pool_is_replayed() throws IOException {
+        try (DurableStateMachinePool pool = DurableStateMachinePool.durable(DEFINITION)
+                .directory(folder.getRoot().toPath()).open()) {
+            int first = pool.allocate();
+            int second = pool.allocate();
+            int freed = pool.allocate();
+            pool.execute(first, CALL_DIALED);
+            pool.execute(first, CALL_CONNECTED);
+            pool.execute(second, CALL_DIALED);
+            pool.execute(freed, CALL_DIALED);
+            pool.free(freed);
+            pool.sync();
+
+            ReplayReport report = EventReplay.replay(DEFINITION).run(pool.getJournal());
+
+            assertThat(report.getSessions()).isEqualTo(3);
+            assertThat(report.getFinalStateCounts()).containsOnly(entry(RINGING, 2L), entry(CONNECTED, 1L));
+            assertThat(report.getUnmatchedEvents()).isZero();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.SimpleState.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class EventTest {
+    interface Urgent extends Event {
+    }
+
+    static class Call implements Event {
+        final String number;
+
+        Call(String number) {
+            this.number = number;
+        }
+    }
+
+    static class EmergencyCall extends Call implements Urgent {
+        EmergencyCall(String number) {
+            super(number);
+        }
+    }
+
+    static class Alarm implements Urgent {
+    }
+
+    /**
+     * Idle -Call-> Dialing -Urgent-> Priority, Idle -EmergencyCall-> Priority. Dialing raises a Call to Busy.
+     */
+    private static final class Phone extends StateMachine {
+        final List<String> log = new ArrayList<>();
+
+        Phone() {
+            SimpleState priority = state("Priority").onEntry(EventAction.of(Call.class,
+                    call -> log.add("priority " + (call == null ? "" : call.number)))).build();
+            SimpleState busy = state("Busy").onEntry(EventAction.of(Call.class, call -> log.add("busy " + call.number)))
+                    .build();
+            SimpleState dialing = state("Dialing").onEntry((EventAction) event -> {
+                log.add("dialing " + ((Call) event).number);
+                if (((Call) event).number.isEmpty()) {
+                    execute(new Call("redial"));
+                }
+            })
+                    .transition("Urgent").guardedBy(Urgent.class).to(priority)
+                    .transition("Call").guardedBy(Call.class).to(busy)
+                    .build();
+            SimpleState idle = state("Idle")
+                    .transition("Call").guardedBy(Call.class).to(dialing)
+                    .transition("Emergency").guardedBy(EmergencyCall.class).to(priority)
+                    .build();
+            addStates(Arrays.asList(idle, dialing, busy, priority));
+            activeState(idle);
+        }
+    }
+
+    @Test
+    public void event_data_is_given_to_event_actions() {
+        Phone phone = new Phone();
+
+        phone.execute(new Call("555"));
+
+        assertThat(phone.getActiveStateName()).isEqualTo("Dialing");
+        assertThat(phone.log).containsExactly("dialing 555");
+    }
+
+    @Test
+    public void the_closest_class_guarded_from_the_active_state_wins() {
+        Phone emergency = new Phone();
+        emergency.execute(new EmergencyCall("112"));
+        assertThat(emergency.getActiveStateName()).isEqualTo("Priority");
+
+        Phone dialing = new Phone();
+        dialing.execute(new Call("555"));
+        // Call is the superclass of EmergencyCall and guarded before Urgent, its interface
+        dialing.execute(new EmergencyCall("112"));
+        assertThat(dialing.getActiveStateName()).isEqualTo("Busy");
+        assertThat(dialing.log).containsExactly("dialing 555", "busy 112");
+
+        Phone alarm = new Phone();
+        alarm.execute(new Alarm());
+        assertThat(alarm.getActiveStateName()).isEqualTo("Idle");
+        alarm.execute(new Call("555"));
+        alarm.execute(new Alarm());
+        assertThat(alarm.getActiveStateName()).isEqualTo("Priority");
+        assertThat(alarm.log).containsExactly("dialing 555", "priority ");
+    }
+
+    @Test
+    public void raised_event_objects_keep_their_data() {
+        Phone phone = new Phone();
+
+        phone.execute(new Call(""));
+
+        assertThat(phone.getActiveStateName()).isEqualTo("Busy");
+        assertThat(phone.log).containsExactly("dialing ", "busy redial");
+    }
+
+    @Test
+    public void event_classes_are_executed_by_name_without_data() {
+        Phone phone = new Phone();
+        phone.getDefinition().enableMetrics();
+
+        phone.execute(Event.name(EmergencyCall.class));
+
+        assertThat(phone.getActiveStateName()).isEqualTo("Priority");
+        assertThat(phone.log).containsExactly("priority ");
+        assertThat(phone.getDefinition().eventId(Event.name(Urgent.class))).isNotEqualTo(EventRegistry.UNKNOWN_EVENT);
+    }
+}
@@ -0,0 +1,160 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class HierarchicalStateTest {
+    private final List<String> trace = new ArrayList<>();
+
+    /**
+     * Idle and Active, Active has substates Dialing and Talking. Talking has substates Normal and Muted.
+     */
+    private StateMachineDefinition phone() {
+        return phone("Idle");
+    }
+
+    private StateMachineDefinition phone(String initialState) {
+        SimpleState idle = traced("Idle").build();
+        SimpleState normal = traced("Normal").build();
+        SimpleState muted = traced("Muted").build();
+        SimpleState talking = traced("Talking").substates(normal, muted)
+                .transition("Mute").guardedBy("Mute").to(muted)
+                .build();
+        normal.addTransition(new Transition("Mute", muted, "Mute", () -> trace.add("mute")));
+        SimpleState dialing = traced("Dialing")
+                .transition("Connect").guardedBy("Connect").to(talking)
+                .build();
+        SimpleState active = traced("Active").substates(dialing, talking)
+                .transition("HangUp").guardedBy("HangUp").to(idle)
+                .transition("Restart").guardedBy("Restart").to(dialing)
+                .build();
+        active.addTransition(new Transition("Reset", active, "Reset", null));
+        idle.addTransition(new Transition("Dial", active, "Dial", null));
+        SimpleState initial = Stream.of(idle, active).filter(state -> state.getName().equals(initialState))
+                .findFirst().get();
+        return definition("Phone").states(Collections.singletonList(idle)).initialState(initial).build();
+    }
+
+    private SimpleState.StateBuilder traced(String name) {
+        return state(name).onEntry(() -> trace.add("enter " + name)).onExit(() -> trace.add("exit " + name));
+    }
+
+    @Test
+    public void entering_composite_enters_initial_substates() {
+        StateMachine phone = phone().newInstance();
+        trace.clear();
+
+        phone.execute("Dial");
+        assertThat(phone.getActiveStateName()).isEqualTo("Dialing");
+        phone.execute("Connect");
+
+        assertThat(phone.getActiveStateName()).isEqualTo("Normal");
+        assertThat(trace).containsExactly("exit Idle", "enter Active", "enter Dialing",
+                "exit Dialing", "enter Talking", "enter Normal");
+    }
+
+    @Test
+    public void transitions_are_inherited_and_substates_override() {
+        StateMachine phone = phone().newInstance();
+        phone.execute("Dial");
+        phone.execute("Connect");
+        trace.clear();
+
+        phone.execute("Mute");
+        assertThat(trace).containsExactly("mute", "exit Normal", "enter Muted");
+
+        trace.clear();
+        phone.execute("HangUp");
+        assertThat(phone.getActiveStateName()).isEqualTo("Idle");
+        assertThat(trace).containsExactly("exit Muted", "exit Talking", "exit Active", "enter Idle");
+    }
+
+    @Test
+    public void transition_to_ancestor_exits_and_enters_it_again() {
+        StateMachine phone = phone().newInstance();
+        phone.execute("Dial");
+        phone.execute("Connect");
+        trace.clear();
+
+        phone.execute("Reset");
+        assertThat(phone.getActiveStateName()).isEqualTo("Dialing");
+        assertThat(trace).containsExactly("exit Normal", "exit Talking", "exit Active", "enter Active",
+                "enter Dialing");
+
+        trace.clear();
+        phone.execute("Restart");
+        assertThat(trace).containsExactly("exit Dialing", "enter Dialing");
+    }
+
+    @Test
+    public void paths_are_compiled_once_per_source() {
+        StateMachineDefinition definition = phone();
+        State normal = definition.state("Normal").get();
+        State dialing = definition.state("Dialing").get();
+        int hangUp = definition.eventId("HangUp");
+
+        TransitionPath path = normal.pathFor(hangUp);
+
+        assertThat(normal.pathFor(hangUp)).isSameAs(path);
+        assertThat(path.getTransition()).isSameAs(dialing.pathFor(hangUp).getTransition());
+        assertThat(path.getExited()).extracting("name").containsExactly("Normal", "Talking", "Active");
+        assertThat(path.getEntered()).extracting("name").containsExactly("Idle");
+        assertThat(dialing.pathFor(hangUp).getExited()).extracting("name").containsExactly("Dialing", "Active");
+    }
+
+    @Test
+    public void initial_composite_state_and_pool() {
+        StateMachineDefinition startActive = phone("Active");
+        trace.clear();
+
+        StateMachinePool pool = new StateMachinePool(startActive, 1);
+        int instance = pool.allocate();
+        assertThat(pool.getActiveStateName(instance)).isEqualTo("Dialing");
+        pool.execute(instance, "Connect");
+        pool.execute(instance, "HangUp");
+
+        assertThat(pool.getActiveStateName(instance)).isEqualTo("Idle");
+        assertThat(trace).containsExactly("enter Active", "enter Dialing", "exit Dialing", "enter Talking",
+                "enter Normal", "exit Normal", "exit Talking", "exit Active", "enter Idle");
+    }
+
+    @Test
+    public void listeners_are_notified_for_each_state() {
+        StateMachineDefinition definition = phone();
+        List<String> calls = new ArrayList<>();
+        definition.addListener(new TransitionListener() {
+            @Override public void exitExecuted(StateMachineDefinition definition, State state) {
+                calls.add("exit " + state.getName());
+            }
+
+            @Override public void entryExecuted(StateMachineDefinition definition, State state) {
+                calls.add("entry " + state.getName());
+            }
+        });
+        StateMachine phone = definition.newInstance();
+        phone.execute("Dial");
+
+        assertThat(calls).containsExactly("entry Idle", "exit Idle", "entry Active", "entry Dialing");
+    }
+
+    @Test
+    public void dot_draws_composite_states_as_clusters() {
+        String dot = phone().newInstance().toDot(true);
+
+        assertThat(dot).contains("compound=true;")
+                .contains("subgraph cluster_Active {")
+                .contains("subgraph cluster_Talking {")
+                .contains("Idle -> Dialing [label=\"Dial\", lhead=cluster_Active];")
+                .contains("Dialing -> Idle [label=\"HangUp\", ltail=cluster_Active];")
+                .contains("Idle[label=\"Idle\", style=filled, fillcolor=lightblue];");
+    }
+}
@@ -0,0 +1,134 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class OrthogonalRegionTest {
+    /**
+     * Idle -Dial-> Calling -HangUp-> Idle
+     */
+    private static StateMachineDefinition call() {
+        SimpleState idle = state("Idle").build();
+        SimpleState calling = state("Calling").transition("HangUp").guardedBy("HangUp").to(idle).build();
+        idle.addTransition(new Transition("Dial", calling, "Dial", null));
+        return definition("Call").states(Arrays.asList(idle, calling)).initialState(idle).build();
+    }
+
+    /**
+     * Off -Dial-> On -HangUp or Mute-> Off
+     */
+    private static StateMachineDefinition concern(String name, Action onEntry) {
+        SimpleState off = state(name + "Off").build();
+        SimpleState on = state(name + "On").onEntry(onEntry)
+                .transition("HangUp").guardedBy("HangUp").to(off)
+                .transition("Mute").guardedBy("Mute").to(off)
+                .build();
+        off.addTransition(new Transition("Dial", on, "Dial", null));
+        return definition(name).states(Arrays.asList(off, on)).initialState(off).build();
+    }
+
+    @Test
+    public void every_region_takes_the_events_of_the_machine() {
+        StateMachine call = call().newInstance();
+        StateMachine media = call.addRegion(concern("Media", null));
+        call.addRegion(concern("Billing", null));
+
+        call.execute("Dial");
+        assertThat(call.getActiveStateConfiguration()).isEqualTo("Calling, MediaOn, BillingOn");
+
+        // Unknown to the call, executed by name in the regions
+        call.execute("Mute");
+        assertThat(call.getActiveStateConfiguration()).isEqualTo("Calling, MediaOff, BillingOff");
+
+        call.execute(call.eventId("HangUp"));
+        call.execute(call.eventId("Dial"));
+        assertThat(call.getActiveStateConfiguration()).isEqualTo("Calling, MediaOn, BillingOn");
+        assertThat(call.getRegions()).hasSize(2).startsWith(media);
+    }
+
+    @Test
+    public void events_raised_on_the_machine_reach_the_regions() {
+        StateMachine call = call().newInstance();
+        call.addRegion(concern("Recording", () -> call.execute("HangUp")));
+
+        call.execute("Dial");
+
+        assertThat(call.getActiveStateConfiguration()).isEqualTo("Idle, RecordingOff");
+    }
+
+    @Test
+    public void events_raised_on_the_machine_known_only_to_a_region_reach_the_region() {
+        StateMachine call = call().newInstance();
+        call.addRegion(concern("Media", null));
+        call.addRegion(concern("Recording", () -> call.execute("Mute")));
+
+        call.execute("Dial");
+
+        // Mute is unknown to the call and raised by name
+        assertThat(call.getActiveStateConfiguration()).isEqualTo("Calling, MediaOff, RecordingOff");
+    }
+
+    @Test
+    public void regions_are_stepped_concurrently_on_the_pool() throws InterruptedException {
+        // Each region waits for the others, so the regions only get through when stepped concurrently
+        CountDownLatch allStepping = new CountDownLatch(3);
+        List<Boolean> released = new CopyOnWriteArrayList<>();
+        Action slow = () -> {
+            allStepping.countDown();
+            try {
+                released.add(allStepping.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(3);
+        StateMachine call = call().newInstance();
+        call.addRegion(concern("Media", slow));
+        call.addRegion(concern("Billing", slow));
+        call.addRegion(concern("Recording", slow));
+        call.setRegionPool(pool);
+
+        call.execute("Dial");
+
+        // Joined before execute returned
+        assertThat(released).containsExactly(true, true, true);
+        assertThat(call.getActiveStateConfiguration()).isEqualTo("Calling, MediaOn, BillingOn, RecordingOn");
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void failure_of_a_concurrent_region_is_rethrown_after_all_regions_stepped() {
+        List<String> stepped = new CopyOnWriteArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        StateMachine call = call().newInstance();
+        call.addRegion(concern("Media", () -> {
+            throw new IllegalStateException("No codec");
+        }));
+        call.addRegion(concern("Billing", () -> stepped.add("Billing")));
+        call.setRegionPool(pool);
+
+        try {
+            call.execute("Dial");
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("No codec");
+        }
+        assertThat(stepped).containsExactly("Billing");
+        assertThat(call.getActiveStateName()).isEqualTo("Calling");
+        pool.shutdown();
+    }
+}
@@ -1,6 +1,7 @@
 package org.nextstate.statemachine;
 
 import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
 import static org.nextstate.statemachine.Transition.transitions;
 
 import java.util.Arrays;
@@ -37,6 +38,8 @@ import java.util.Arrays;
  * PlaceOnHold trigger @PlacedOnHold: on_event @PlayMuzak
  * TakeOffHold trigger @TakenOffHold: on_event @StopMuzak
  * HurlPhone trigger @PhoneHurledAgainstWall
+ * <p>
+ * The definition is built once and shared by all phones.
  */
 class PhoneStateMachine extends StateMachine {
     // State names
@@ -64,7 +67,13 @@ class PhoneStateMachine extends StateMachine {
     private static final String TAKE_OFF_HOLD = "TakeOffHold";
     private static final String HURL_PHONE = "HurlPhone";
 
-    {
+    static final StateMachineDefinition DEFINITION = phoneDefinition();
+
+    PhoneStateMachine() {
+        super(DEFINITION);
+    }
+
+    static StateMachineDefinition phoneDefinition() {
         Action playMuzak = () -> System.out.println("PlayMuzak");
         Action stopMuzak = () -> System.out.println("StopMuzak");
 
@@ -99,8 +108,9 @@ class PhoneStateMachine extends StateMachine {
         offHook.addTransitions(transitions()
                 .transition(CALL_DIAL).guardedBy(CALL_DIALED)
                 .to(ringing).build());
-        addStates(Arrays.asList(offHook, phoneDestroyed, onHold, connected, ringing));
-        activeState(offHook);
-        validate();
+        return definition(PhoneStateMachine.class.getSimpleName())
+                .states(Arrays.asList(offHook, phoneDestroyed, onHold, connected, ringing))
+                .initialState(offHook)
+                .build();
     }
 }
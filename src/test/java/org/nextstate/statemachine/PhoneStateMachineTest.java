@@ -23,6 +23,17 @@ public class PhoneStateMachineTest {
         assertThat(phone.getActiveStateConfiguration()).isEqualTo(RINGING);
     }
 
+    @Test
+    public void execute_event_id() {
+        StateMachine phone = new PhoneStateMachine();
+        int callDialed = phone.eventId(CALL_DIALED);
+
+        phone.execute(callDialed);
+
+        assertThat(phone.getActiveStateName()).isEqualTo(RINGING);
+        assertThat(phone.eventId("NoSuchEvent")).isEqualTo(EventRegistry.UNKNOWN_EVENT);
+    }
+
     @Test
     public void no_transition() {
         StateMachine phone = new PhoneStateMachine();
@@ -0,0 +1,112 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class PredicateGuardTest {
+    static final class Job {
+        int retries;
+        int priority;
+    }
+
+    /**
+     * Running -Fail-> Failed -Retry [retries &lt; 3]-> Running, Failed -Retry-> GaveUp
+     */
+    private static StateMachineDefinition jobs() {
+        SimpleState gaveUp = state("GaveUp").build();
+        SimpleState running = state("Running").build();
+        SimpleState failed = state("Failed")
+                .transition("Retry").guardedBy("Retry").when((Job job) -> job.retries++ < 3).to(running)
+                .transition("GiveUp").guardedBy("Retry").to(gaveUp)
+                .build();
+        running.addTransition(new Transition("Fail", failed, "Fail", null));
+        return definition("Jobs").states(Arrays.asList(running, failed, gaveUp)).initialState(running).build();
+    }
+
+    @Test
+    public void first_transition_with_a_guard_holding_is_taken() {
+        StateMachine machine = jobs().newInstance();
+        Job job = new Job();
+        machine.setContext(job);
+
+        for (int i = 0; i < 3; i++) {
+            machine.execute("Fail");
+            machine.execute("Retry");
+            assertThat(machine.getActiveStateName()).isEqualTo("Running");
+        }
+        machine.execute("Fail");
+        machine.execute("Retry");
+
+        assertThat(machine.getActiveStateName()).isEqualTo("GaveUp");
+        assertThat(job.retries).isEqualTo(4);
+        assertThat(machine.getDefinition().analysis().getShadowedTransitions()).isEmpty();
+    }
+
+    @Test
+    public void transition_of_the_parent_is_taken_when_no_guard_of_the_substate_holds() {
+        SimpleState closed = state("Closed").build();
+        SimpleState idle = state("Idle").build();
+        SimpleState busy = state("Busy")
+                .transition("Stop").guardedBy("Stop").when((StateMachine m) -> m.getContext() != m).to(idle)
+                .build();
+        SimpleState open = state("Open").substates(idle, busy)
+                .transition("Stop").guardedBy("Stop").to(closed)
+                .build();
+        idle.addTransition(new Transition("Start", busy, "Start", null));
+        StateMachine machine = definition("Door").states(Arrays.asList(open, closed)).initialState(open).build()
+                .newInstance();
+
+        machine.execute("Start");
+        machine.execute("Stop");
+
+        assertThat(machine.getActiveStateName()).isEqualTo("Closed");
+    }
+
+    @Test
+    public void exclusive_guards_are_tried_most_selective_first() {
+        SimpleState low = state("Low").build();
+        SimpleState normal = state("Normal").build();
+        SimpleState high = state("High").build();
+        SimpleState queued = state("Queued")
+                .transition("Low").guardedBy("Route").whenExclusive((Job job) -> job.priority < 3).to(low)
+                .transition("Normal").guardedBy("Route").whenExclusive((Job job) -> job.priority == 3).to(normal)
+                .transition("High").guardedBy("Route").whenExclusive((Job job) -> job.priority > 3).to(high)
+                .build();
+        for (SimpleState routed : Arrays.asList(low, normal, high)) {
+            routed.addTransition(new Transition("Requeue", queued, "Requeue", null));
+        }
+        StateMachineDefinition routing = definition("Routing").states(Arrays.asList(queued, low, normal, high))
+                .initialState(queued).build();
+        StateMachine machine = routing.newInstance();
+        Job job = new Job();
+        machine.setContext(job);
+
+        for (int i = 0; i < 2 * GuardedPaths.REORDER_INTERVAL; i++) {
+            job.priority = i % 8 == 0 ? 1 : 5;
+            machine.execute("Route");
+            assertThat(machine.getActiveStateName()).isEqualTo(job.priority == 1 ? "Low" : "High");
+            machine.execute("Requeue");
+        }
+
+        assertThat(queued.pathFor(routing.eventId("Route")).guarded.getOrder()).extracting("transition.name")
+                .containsExactly("High", "Low", "Normal");
+    }
+
+    @Test
+    public void pools_can_not_evaluate_predicate_guards() {
+        try {
+            new StateMachinePool(jobs(), 1);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessageContaining("Jobs has predicate guards");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.DEFINITION;
+import static org.nextstate.statemachine.PhoneStateMachine.HUNG_UP;
+import static org.nextstate.statemachine.PhoneStateMachine.OFF_HOOK;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class ShardedDispatcherTest {
+
+    @Test
+    public void events_are_executed_in_order_per_key() throws InterruptedException {
+        Map<Integer, String> threads = new ConcurrentHashMap<>();
+        ShardedDispatcher<Integer> dispatcher = new ShardedDispatcher<>(4, 8, WaitStrategy.YIELDING,
+                key -> DEFINITION.newInstance(),
+                (key, machine) -> threads.merge(key, Thread.currentThread().getName(),
+                        (first, current) -> first.equals(current) ? first : "moved"));
+
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.publish(i % 100, CALL_DIALED);
+            dispatcher.publish(i % 100, i < 900 ? HUNG_UP : CALL_CONNECTED);
+        }
+        assertThat(dispatcher.close(5, TimeUnit.SECONDS)).isTrue();
+
+        Map<Integer, String> states = new HashMap<>();
+        dispatcher.forEach((key, machine) -> states.put(key, machine.getActiveStateName()));
+        assertThat(states).hasSize(100);
+        assertThat(states.values()).containsOnly(CONNECTED);
+        assertThat(threads.values()).doesNotContain("moved");
+    }
+
+    @Test
+    public void failing_factory_does_not_stop_the_shard() {
+        ShardedDispatcher<Integer> dispatcher = new ShardedDispatcher<>(1, 2, WaitStrategy.YIELDING, key -> {
+            if (key == 1) {
+                throw new IllegalStateException("No machine for " + key);
+            }
+            return DEFINITION.newInstance();
+        });
+
+        // More failing events than the ring holds
+        for (int i = 0; i < 4; i++) {
+            dispatcher.publish(1, CALL_DIALED);
+        }
+        dispatcher.publish(2, CALL_DIALED);
+        dispatcher.publish(2, CALL_CONNECTED);
+        dispatcher.close();
+
+        Map<Integer, String> states = new HashMap<>();
+        dispatcher.forEach((key, machine) -> states.put(key, machine.getActiveStateName()));
+        assertThat(states).containsOnlyKeys(2).containsValue(CONNECTED);
+    }
+
+    @Test
+    public void try_publish_when_ring_is_full() {
+        RingBuffer<Integer> ring = new RingBuffer<>(2, WaitStrategy.BUSY_SPIN);
+
+        assertThat(ring.tryPublish(1, CALL_DIALED)).isTrue();
+        assertThat(ring.tryPublish(1, HUNG_UP)).isTrue();
+        assertThat(ring.tryPublish(1, CALL_DIALED)).isFalse();
+
+        StringBuilder consumed = new StringBuilder();
+        assertThat(ring.consume((key, event) -> consumed.append(event))).isEqualTo(2);
+        assertThat(consumed.toString()).isEqualTo(CALL_DIALED + HUNG_UP);
+        assertThat(ring.tryPublish(1, OFF_HOOK)).isTrue();
+    }
+
+    @Test
+    public void closed_dispatcher() {
+        ShardedDispatcher<Integer> dispatcher = new ShardedDispatcher<>(1, 8, WaitStrategy.PARKING,
+                key -> DEFINITION.newInstance());
+        dispatcher.close();
+
+        try {
+            dispatcher.publish(1, CALL_DIALED);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("Dispatcher is closed");
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.HUNG_UP;
+import static org.nextstate.statemachine.PhoneStateMachine.MESSAGE_LEFT;
+import static org.nextstate.statemachine.PhoneStateMachine.PHONE_HURLED_AGAINST_WALL;
+import static org.nextstate.statemachine.PhoneStateMachine.PLACED_ON_HOLD;
+import static org.nextstate.statemachine.PhoneStateMachine.TOOK_OFF_HOLD;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class StateMachineCompilerTest {
+    private static final String[] EVENTS = {"A", "B", "C", "D", "E"};
+    // Transitions taken of the 2000 random events, so the differential tests can not pass without executing any
+    private static final int MIN_TAKEN = 300;
+
+    private final List<String> trace = new ArrayList<>();
+
+    @Test
+    public void compiled_phone_behaves_as_interpreted() {
+        StateMachineDefinition definition = PhoneStateMachine.phoneDefinition();
+        Supplier<CompiledStateMachine> compiled = StateMachineCompiler.compile(definition);
+        StateMachine interpreted = definition.newInstance();
+        CompiledStateMachine phone = compiled.get();
+
+        int changed = 0;
+        for (String event : new String[] {CALL_DIALED, CALL_CONNECTED, PLACED_ON_HOLD, "Unknown", TOOK_OFF_HOLD,
+                MESSAGE_LEFT, CALL_DIALED, HUNG_UP, HUNG_UP, CALL_DIALED, CALL_CONNECTED, PLACED_ON_HOLD,
+                PHONE_HURLED_AGAINST_WALL, CALL_DIALED}) {
+            String before = interpreted.getActiveStateName();
+            interpreted.execute(event);
+            phone.execute(event);
+            assertThat(phone.getActiveStateName()).isEqualTo(interpreted.getActiveStateName());
+            if (!phone.getActiveStateName().equals(before)) {
+                changed++;
+            }
+        }
+        assertThat(changed).isEqualTo(11);
+        assertThat(phone.getActiveStateName()).isEqualTo(PhoneStateMachine.PHONE_DESTROYED);
+        assertThat(compiled.get().getActiveState()).isSameAs(definition.getInitialState());
+    }
+
+    @Test
+    public void random_flat_definitions_are_differentially_equal() {
+        Random random = new Random(42);
+        int taken = 0;
+        for (int i = 0; i < 10; i++) {
+            taken += assertSameBehaviour(randomDefinition(random, false), random);
+        }
+        assertThat(taken).isGreaterThan(MIN_TAKEN);
+    }
+
+    @Test
+    public void random_hierarchical_definitions_are_differentially_equal() {
+        Random random = new Random(4711);
+        int taken = 0;
+        for (int i = 0; i < 10; i++) {
+            taken += assertSameBehaviour(randomDefinition(random, true), random);
+        }
+        assertThat(taken).isGreaterThan(MIN_TAKEN);
+    }
+
+    @Test
+    public void definition_with_timed_transitions_is_rejected() {
+        SimpleState idle = state("Idle").build();
+        SimpleState ringing = state("Ringing").transition("NoAnswer").after(Duration.ofSeconds(30)).to(idle).build();
+        idle.addTransition(new Transition("Ring", ringing, "Ring", null));
+        StateMachineDefinition definition = definition("Timed").states(Arrays.asList(idle, ringing))
+                .initialState(idle).build();
+
+        try {
+            StateMachineCompiler.compile(definition);
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("timed transitions");
+        }
+    }
+
+    @Test
+    public void event_executed_by_an_action_fails() {
+        AtomicReference<CompiledStateMachine> machine = new AtomicReference<>();
+        SimpleState second = state("Second").onEntry(() -> machine.get().execute("Back")).build();
+        SimpleState first = state("First").transition("Next").guardedBy("Next").to(second).build();
+        second.addTransition(new Transition("Back", first, "Back", null));
+        machine.set(StateMachineCompiler.compile(definition("Raising").states(Arrays.asList(first, second))
+                .initialState(first).build()).get());
+
+        try {
+            machine.get().execute("Next");
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("does not queue raised events");
+        }
+        assertThat(machine.get().getActiveStateName()).isEqualTo("Second");
+        machine.get().execute("Back");
+        assertThat(machine.get().getActiveStateName()).isEqualTo("First");
+    }
+
+    @Test
+    public void actions_and_sequences_are_shared() {
+        Action shared = () -> trace.add("shared");
+        SimpleState second = state("Second").onEntry(shared).build();
+        SimpleState first = state("First").onEntry(shared)
+                .transition("Next").guardedBy("Next").to(second)
+                .build();
+        second.addTransition(new Transition("Back", first, "Back", shared));
+        StateMachineDefinition definition = definition("Shared").states(Collections.singletonList(first))
+                .initialState(first).build();
+
+        StateMachineCompiler.Generated generated = StateMachineCompiler.generate(definition, "Shared");
+
+        assertThat(generated.tables.actions).containsExactly(shared);
+        assertThat(generated.tables.sequences).containsOnly(0, 1, 2);
+        assertThat(generated.source).contains("private static final Action A0 = TABLES.actions[0];")
+                .doesNotContain("A1").doesNotContain("case 3:");
+    }
+
+    /**
+     * @return the number of transitions taken
+     */
+    private int assertSameBehaviour(StateMachineDefinition definition, Random random) {
+        trace.clear();
+        StateMachine interpreted = definition.newInstance();
+        List<String> expected = new ArrayList<>(trace);
+        trace.clear();
+        CompiledStateMachine compiled = StateMachineCompiler.compile(definition).get();
+        assertThat(trace).isEqualTo(expected);
+        assertThat(compiled.getActiveStateId()).isEqualTo(interpreted.getActiveStateId());
+
+        int taken = 0;
+        for (int i = 0; i < 200; i++) {
+            String event = EVENTS[random.nextInt(EVENTS.length)];
+            if (interpreted.getActiveState().pathFor(definition.eventId(event)) != null) {
+                taken++;
+            }
+            trace.clear();
+            interpreted.execute(event);
+            expected = new ArrayList<>(trace);
+            trace.clear();
+            compiled.execute(event);
+
+            assertThat(trace).as("%s on %s", event, definition.getName()).isEqualTo(expected);
+            assertThat(compiled.getActiveStateId()).isEqualTo(interpreted.getActiveStateId());
+        }
+        return taken;
+    }
+
+    /**
+     * States with traced entry, exit and transition actions, some without, and random transitions. Hierarchical
+     * definitions nest every state after the first few into a random earlier state.
+     */
+    private StateMachineDefinition randomDefinition(Random random, boolean hierarchical) {
+        int stateCount = 2 + random.nextInt(8);
+        List<SimpleState> states = new ArrayList<>();
+        for (int i = 0; i < stateCount; i++) {
+            String name = "S" + i;
+            SimpleState.StateBuilder builder = state(name);
+            if (random.nextBoolean()) {
+                builder.onEntry(() -> trace.add("enter " + name));
+            }
+            if (random.nextBoolean()) {
+                builder.onExit(() -> trace.add("exit " + name));
+            }
+            SimpleState state = builder.build();
+            if (hierarchical && i > 2) {
+                states.get(random.nextInt(i)).addSubstate(state);
+            }
+            states.add(state);
+        }
+        List<State> roots = new ArrayList<>();
+        for (SimpleState source : states) {
+            if (!source.getParent().isPresent()) {
+                roots.add(source);
+            }
+            for (String event : EVENTS) {
+                if (random.nextInt(3) == 0) {
+                    SimpleState target = states.get(random.nextInt(stateCount));
+                    String name = source.getName() + " " + event;
+                    Action action = random.nextBoolean() ? () -> trace.add(name) : null;
+                    source.addTransition(new Transition(event, target, name, action));
+                }
+            }
+        }
+        return definition((hierarchical ? "Nested" : "Flat") + stateCount).states(roots)
+                .initialState(roots.get(random.nextInt(roots.size()))).build();
+    }
+}
@@ -0,0 +1,96 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.DEFINITION;
+import static org.nextstate.statemachine.PhoneStateMachine.OFF_HOOK;
+import static org.nextstate.statemachine.PhoneStateMachine.RINGING;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class StateMachineDefinitionTest {
+
+    @Test
+    public void sessions_share_definition() {
+        StateMachine first = DEFINITION.newInstance();
+        StateMachine second = DEFINITION.newInstance();
+
+        first.execute(CALL_DIALED);
+        first.execute(CALL_CONNECTED);
+        second.execute(CALL_DIALED);
+
+        assertThat(first.getActiveStateName()).isEqualTo(CONNECTED);
+        assertThat(second.getActiveStateName()).isEqualTo(RINGING);
+        assertThat(first.getDefinition()).isSameAs(second.getDefinition());
+        assertThat(first.getStates()).isSameAs(DEFINITION.getStates());
+    }
+
+    @Test
+    public void new_session_starts_in_initial_state() {
+        StateMachine phone = DEFINITION.newInstance();
+
+        assertThat(phone.getActiveStateName()).isEqualTo(OFF_HOOK);
+        assertThat(phone.getName()).isEqualTo("PhoneStateMachine");
+    }
+
+    @Test
+    public void reachable_states_are_included() {
+        State target = state("Target").build();
+        State initial = state("Initial")
+                .transition("Go").guardedBy("Went").to(target)
+                .build();
+
+        StateMachineDefinition definition = definition("Reachable")
+                .states(Collections.singletonList(initial))
+                .initialState(initial)
+                .build();
+
+        assertThat(definition.getStates()).containsExactly(initial, target);
+    }
+
+    @Test
+    public void no_initial_state() {
+        try {
+            definition("NoInitial").states(Arrays.asList(state("A").build())).build();
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("No initial state");
+        }
+    }
+
+    @Test
+    public void states_can_not_be_added_to_session() {
+        try {
+            new StateMachine(DEFINITION) {
+                {
+                    addStates(Collections.singletonList(state("A").build()));
+                }
+            };
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("States can not be added to a session of a shared definition");
+        }
+    }
+
+    @Test
+    public void states_can_not_be_compiled_into_another_definition() {
+        try {
+            definition("Copy").states(DEFINITION.getStates()).initialState(DEFINITION.getInitialState()).build();
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).endsWith("is already compiled into another definition");
+        }
+    }
+}
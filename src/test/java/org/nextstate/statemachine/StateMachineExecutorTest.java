@@ -0,0 +1,200 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.HUNG_UP;
+import static org.nextstate.statemachine.PhoneStateMachine.OFF_HOOK;
+import static org.nextstate.statemachine.PhoneStateMachine.RINGING;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class StateMachineExecutorTest {
+
+    /**
+     * "A" with a transition to itself on "Go" starting the action, each stage started is added to the queue.
+     */
+    private static StateMachine looping(Queue<CompletableFuture<String>> started, AsyncAction.Policy policy) {
+        AsyncAction action = () -> {
+            CompletableFuture<String> stage = new CompletableFuture<>();
+            started.add(stage);
+            return stage;
+        };
+        SimpleState a = state("A").build();
+        a.addTransition(new Transition("Go", a, "Loop",
+                policy == AsyncAction.Policy.WAIT ? action : AsyncAction.continuing(action)));
+        return definition("Looping").states(Arrays.asList(a)).initialState(a).build().newInstance();
+    }
+
+    @Test
+    public void submit_completes_with_active_state() throws Exception {
+        StateMachineExecutor.Mailbox phone = new StateMachineExecutor().mailbox(new PhoneStateMachine());
+
+        CompletableFuture<String> ringing = phone.submit(CALL_DIALED);
+        CompletableFuture<String> connected = phone.submit(CALL_CONNECTED);
+
+        assertThat(ringing.get(5, TimeUnit.SECONDS)).isEqualTo(RINGING);
+        assertThat(connected.get(5, TimeUnit.SECONDS)).isEqualTo(CONNECTED);
+    }
+
+    @Test
+    public void events_are_executed_in_order_in_batches() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        StateMachineExecutor.Mailbox phone = new StateMachineExecutor(threads, 3).mailbox(new PhoneStateMachine());
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            results.add(phone.submit(CALL_DIALED));
+            results.add(phone.submit(HUNG_UP));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).get(5, TimeUnit.SECONDS)).isEqualTo(i % 2 == 0 ? RINGING : OFF_HOOK);
+        }
+        threads.shutdown();
+    }
+
+    @Test
+    public void action_failure_completes_exceptionally() throws Exception {
+        SimpleState b = state("B").onEntry(() -> {
+            throw new IllegalArgumentException("Failed");
+        }).build();
+        State a = state("A").transition("AtoB").guardedBy("Go").to(b).build();
+        StateMachineExecutor.Mailbox mailbox = new StateMachineExecutor().mailbox(definition("Failing")
+                .states(Arrays.asList(a, b)).initialState(a).build().newInstance());
+
+        CompletableFuture<String> failed = mailbox.submit("Go");
+        CompletableFuture<String> next = mailbox.submit("Go");
+
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).hasMessage("Failed");
+        }
+        assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo("B");
+    }
+
+    @Test
+    public void waiting_action_holds_back_the_next_event() throws Exception {
+        Queue<CompletableFuture<String>> started = new ConcurrentLinkedQueue<>();
+        StateMachineExecutor executor = new StateMachineExecutor();
+        StateMachineExecutor.Mailbox mailbox = executor.mailbox(looping(started, AsyncAction.Policy.WAIT));
+
+        CompletableFuture<String> first = mailbox.submit("Go");
+        CompletableFuture<String> second = mailbox.submit("Go");
+
+        awaitStarted(started, 1);
+        Thread.sleep(50);
+        assertThat(first).isNotDone();
+        assertThat(second).isNotDone();
+        assertThat(started).hasSize(1);
+        assertThat(executor.getInFlight()).isEqualTo(1);
+
+        started.poll().completeExceptionally(new IllegalArgumentException("Failed"));
+        try {
+            first.get(5, TimeUnit.SECONDS);
+
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).hasMessage("Failed");
+        }
+        awaitStarted(started, 1);
+        assertThat(second).isNotDone();
+        started.poll().complete("Done");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("A");
+        assertThat(executor.getInFlight()).isZero();
+    }
+
+    @Test
+    public void continuing_actions_are_bounded_per_machine() throws Exception {
+        Queue<CompletableFuture<String>> started = new ConcurrentLinkedQueue<>();
+        StateMachineExecutor executor = new StateMachineExecutor(StateMachineExecutor.defaultExecutor(), 64, 2, 100);
+        StateMachineExecutor.Mailbox mailbox = executor.mailbox(looping(started, AsyncAction.Policy.CONTINUE));
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(mailbox.submit("Go"));
+        }
+
+        assertThat(results.get(1).get(5, TimeUnit.SECONDS)).isEqualTo("A");
+        assertThat(results.get(0)).isDone();
+        Thread.sleep(50);
+        assertThat(results.get(2)).isNotDone();
+        assertThat(mailbox.getInFlight()).isEqualTo(2);
+
+        started.poll().complete("Done");
+        assertThat(results.get(2).get(5, TimeUnit.SECONDS)).isEqualTo("A");
+        assertThat(mailbox.getInFlight()).isEqualTo(2);
+    }
+
+    @Test
+    public void continuing_actions_are_bounded_per_executor() throws Exception {
+        Queue<CompletableFuture<String>> started = new ConcurrentLinkedQueue<>();
+        StateMachineExecutor executor = new StateMachineExecutor(StateMachineExecutor.defaultExecutor(), 64, 10, 1);
+        List<StateMachineExecutor.Mailbox> mailboxes = new ArrayList<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            mailboxes.add(executor.mailbox(looping(started, AsyncAction.Policy.CONTINUE)));
+        }
+        results.add(mailboxes.get(0).submit("Go"));
+        results.get(0).get(5, TimeUnit.SECONDS);
+
+        results.add(mailboxes.get(1).submit("Go"));
+        results.add(mailboxes.get(2).submit("Go"));
+
+        // Each completed action lets one held back event start the next action
+        for (int i = 1; i < 3; i++) {
+            Thread.sleep(50);
+            assertThat(results.stream().filter(CompletableFuture::isDone).count()).isEqualTo(i);
+            assertThat(executor.getInFlight()).isEqualTo(1);
+            started.poll().complete("Done");
+            awaitStarted(started, 1);
+        }
+        assertThat(results.get(1).get(5, TimeUnit.SECONDS)).isEqualTo("A");
+        assertThat(results.get(2).get(5, TimeUnit.SECONDS)).isEqualTo("A");
+    }
+
+    @Test
+    public void waiting_action_blocks_when_executed_directly() {
+        SimpleState b = state("B").onEntry((AsyncAction) () -> CompletableFuture.supplyAsync(() -> {
+            throw new IllegalArgumentException("Failed");
+        })).build();
+        State a = state("A").transition("AtoB").guardedBy("Go").to(b).build();
+        StateMachine failing = definition("Failing").states(Arrays.asList(a, b)).initialState(a).build().newInstance();
+
+        try {
+            failing.execute("Go");
+
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessage("Failed");
+        }
+        assertThat(failing.getActiveStateName()).isEqualTo("B");
+    }
+
+    private static void awaitStarted(Queue<?> started, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (started.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(started).hasSize(count);
+    }
+}
@@ -0,0 +1,106 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class StateMachineMetricsTest {
+
+    @Test
+    public void metrics_are_aggregated_over_instances() {
+        SimpleState b = state("B").onEntry(() -> { }).build();
+        SimpleState a = state("A").onExit(() -> { })
+                .transition("AtoB").guardedBy("Go").onTransition(() -> { }).to(b)
+                .build();
+        b.addTransitions(Transition.transitions().transition("BtoA").guardedBy("Back").to(a).build());
+        StateMachineDefinition definition = definition("Metrics").states(Arrays.asList(a, b)).initialState(a).build();
+        StateMachineMetrics metrics = definition.enableMetrics(1);
+
+        StateMachine first = definition.newInstance();
+        StateMachine second = definition.newInstance();
+        StateMachinePool pool = new StateMachinePool(definition, 1);
+        int instance = pool.allocate();
+        first.execute("Go");
+        second.execute("Go");
+        second.execute("Go");
+        pool.execute(instance, "Go");
+        pool.execute(instance, "Back");
+        pool.free(instance);
+
+        assertThat(metrics.getEvents()).isEqualTo(5);
+        assertThat(metrics.getTransitionCount(a.getTransitions().get(0))).isEqualTo(3);
+        assertThat(metrics.getOccupancy(b)).isEqualTo(2);
+        assertThat(metrics.getOccupancy(a)).isEqualTo(0);
+        assertThat(metrics.getUnmatched(b)).isEqualTo(1);
+
+        StateMachineMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getCounters()).containsEntry("transition.A.AtoB.count", 3L)
+                .containsEntry("transition.B.BtoA.count", 1L)
+                .containsEntry("state.B.unmatched", 1L)
+                .containsEntry("state.A.entries", 4L);
+        assertThat(snapshot.getHistograms().get("state.A.dwell").getCount()).isEqualTo(3);
+        assertThat(snapshot.getHistograms().get("state.A.exit").getCount()).isEqualTo(3);
+        assertThat(snapshot.getHistograms().get("state.B.entry").getCount()).isEqualTo(3);
+        assertThat(snapshot.getHistograms().get("transition.A.AtoB.action").getCount()).isEqualTo(3);
+        assertThat(snapshot.getHistograms()).doesNotContainKey("state.A.entry");
+    }
+
+    @Test
+    public void timing_is_sampled() {
+        SimpleState b = state("B").build();
+        SimpleState a = state("A").transition("AtoB").guardedBy("Go").to(b).build();
+        b.addTransitions(Transition.transitions().transition("BtoA").guardedBy("Go").to(a).build());
+        StateMachineDefinition definition = definition("Metrics").states(Arrays.asList(a, b)).initialState(a).build();
+        StateMachineMetrics metrics = definition.enableMetrics(4);
+        StateMachine stateMachine = definition.newInstance();
+
+        for (int i = 0; i < 64; i++) {
+            stateMachine.execute("Go");
+        }
+
+        assertThat(metrics.getTransitionCount(a.getTransitions().get(0))).isEqualTo(32);
+        StateMachineMetrics.Snapshot snapshot = metrics.snapshot();
+        long dwell = snapshot.getHistograms().values().stream().mapToLong(LogLinearHistogram.Snapshot::getCount).sum();
+        assertThat(dwell).isEqualTo(16);
+    }
+
+    @Test
+    public void disabled_metrics() {
+        SimpleState b = state("B").build();
+        State a = state("A").transition("AtoB").guardedBy("Go").to(b).build();
+        StateMachineDefinition definition = definition("Metrics").states(Arrays.asList(a, b)).initialState(a).build();
+        StateMachineMetrics metrics = definition.enableMetrics();
+        definition.disableMetrics();
+
+        definition.newInstance().execute("Go");
+
+        assertThat(metrics.getEvents()).isZero();
+        assertThat(definition.getMetrics().isPresent()).isFalse();
+    }
+
+    @Test
+    public void histogram_quantiles() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(1000);
+        assertThat(snapshot.getMean()).isEqualTo(500.5);
+        assertThat(snapshot.getValueAtQuantile(0.5)).isBetween(448L, 500L);
+        assertThat(snapshot.getValueAtQuantile(0.99)).isBetween(896L, 990L);
+        assertThat(snapshot.getMax()).isBetween(896L, 1000L);
+        for (long value : new long[] {0, 7, 8, 9, 1000, Long.MAX_VALUE}) {
+            int bucket = LogLinearHistogram.bucket(value);
+            assertThat(LogLinearHistogram.lowestValue(bucket)).isLessThanOrEqualTo(value);
+            assertThat(value - LogLinearHistogram.lowestValue(bucket)).isLessThanOrEqualTo(value / 8);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.DEFINITION;
+import static org.nextstate.statemachine.PhoneStateMachine.HUNG_UP;
+import static org.nextstate.statemachine.PhoneStateMachine.MESSAGE_LEFT;
+import static org.nextstate.statemachine.PhoneStateMachine.OFF_HOOK;
+import static org.nextstate.statemachine.PhoneStateMachine.PLACED_ON_HOLD;
+import static org.nextstate.statemachine.PhoneStateMachine.RINGING;
+import static org.nextstate.statemachine.PhoneStateMachine.TOOK_OFF_HOLD;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class StateMachinePoolTest {
+
+    @Test
+    public void instances_have_own_active_state() {
+        StateMachinePool pool = new StateMachinePool(DEFINITION, 2);
+        int first = pool.allocate();
+        int second = pool.allocate();
+
+        pool.execute(first, CALL_DIALED);
+        pool.execute(first, CALL_CONNECTED);
+        pool.execute(second, CALL_DIALED);
+
+        assertThat(pool.getActiveStateName(first)).isEqualTo(CONNECTED);
+        assertThat(pool.getActiveStateName(second)).isEqualTo(RINGING);
+    }
+
+    @Test
+    public void bulk_allocate_grows_and_reuses_freed_ids() {
+        StateMachinePool pool = new StateMachinePool(DEFINITION, 1);
+        int[] ids = new int[100];
+        pool.allocate(ids);
+        assertThat(pool.size()).isEqualTo(100);
+
+        pool.free(Arrays.copyOf(ids, 10));
+        assertThat(pool.size()).isEqualTo(90);
+        assertThat(pool.isAllocated(ids[0])).isFalse();
+
+        int[] reused = new int[10];
+        pool.allocate(reused);
+        assertThat(reused).containsOnly(Arrays.copyOf(ids, 10));
+        assertThat(pool.getActiveStateName(reused[0])).isEqualTo(OFF_HOOK);
+        assertThat(pool.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void actions_are_performed() {
+        List<String> actions = new ArrayList<>();
+        SimpleState b = state("B").onEntry(() -> actions.add("entry B")).build();
+        State a = state("A").onExit(() -> actions.add("exit A"))
+                .transition("AtoB").guardedBy("Go").onTransition(() -> actions.add("A to B"))
+                .to(b)
+                .build();
+        StateMachinePool pool = new StateMachinePool(definition("Actions")
+                .states(Arrays.asList(a, b)).initialState(a).build(), 1);
+        int instance = pool.allocate();
+
+        pool.execute(instance, "Go");
+        pool.execute(instance, "Go");
+
+        assertThat(actions).containsExactly("A to B", "exit A", "entry B");
+        assertThat(pool.getActiveStateName(instance)).isEqualTo("B");
+    }
+
+    @Test
+    public void execute_all_keeps_order_per_instance() {
+        StateMachinePool pool = new StateMachinePool(DEFINITION, 4);
+        int[] ids = new int[3];
+        pool.allocate(ids);
+        int[] states = new int[7];
+
+        BitSet unmatched = pool.executeAll(
+                new int[] {ids[0], ids[1], ids[0], ids[2], ids[1], ids[0], ids[2]},
+                new String[] {CALL_DIALED, CALL_DIALED, CALL_CONNECTED, HUNG_UP, HUNG_UP, HUNG_UP, CALL_DIALED});
+        pool.free(ids);
+        pool.allocate(ids);
+        pool.executeAll(new int[] {ids[0], ids[0]},
+                new int[] {DEFINITION.eventId(CALL_DIALED), DEFINITION.eventId(CALL_CONNECTED)}, states);
+
+        assertThat(unmatched.cardinality()).isEqualTo(1);
+        assertThat(unmatched.get(3)).isTrue();
+        assertThat(DEFINITION.state(states[0]).getName()).isEqualTo(RINGING);
+        assertThat(DEFINITION.state(states[1]).getName()).isEqualTo(CONNECTED);
+    }
+
+    @Test
+    public void execute_all_matches_execute() {
+        String[] events = {CALL_DIALED, CALL_CONNECTED, HUNG_UP, PLACED_ON_HOLD, TOOK_OFF_HOLD, MESSAGE_LEFT};
+        Random random = new Random(7);
+        StateMachinePool batch = new StateMachinePool(DEFINITION, 16);
+        StateMachinePool single = new StateMachinePool(DEFINITION, 16);
+        batch.allocate(new int[16]);
+        single.allocate(new int[16]);
+        int[] instanceIds = new int[1000];
+        String[] batchEvents = new String[1000];
+        for (int i = 0; i < instanceIds.length; i++) {
+            instanceIds[i] = random.nextInt(16);
+            batchEvents[i] = events[random.nextInt(events.length)];
+            single.execute(instanceIds[i], batchEvents[i]);
+        }
+
+        batch.executeAll(instanceIds, batchEvents);
+
+        for (int i = 0; i < 16; i++) {
+            assertThat(batch.getActiveStateId(i)).isEqualTo(single.getActiveStateId(i));
+        }
+    }
+
+    @Test
+    public void active_state_configuration() {
+        StateMachinePool pool = new StateMachinePool(DEFINITION, 1);
+        int instance = pool.allocate();
+
+        pool.activeStateConfiguration(instance, RINGING);
+        pool.execute(instance, HUNG_UP);
+
+        assertThat(pool.getActiveStateName(instance)).isEqualTo(OFF_HOOK);
+    }
+
+    @Test
+    public void freed_instance() {
+        StateMachinePool pool = new StateMachinePool(DEFINITION, 1);
+        int instance = pool.allocate();
+        pool.free(instance);
+
+        try {
+            pool.execute(instance, CALL_DIALED);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("No instance with id " + instance);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.CALL_DIALED;
+import static org.nextstate.statemachine.PhoneStateMachine.CONNECTED;
+import static org.nextstate.statemachine.PhoneStateMachine.DEFINITION;
+import static org.nextstate.statemachine.PhoneStateMachine.OFF_HOOK;
+import static org.nextstate.statemachine.PhoneStateMachine.RINGING;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("checkstyle:methodname")
+public class StateMachineSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fingerprint_is_stable_and_states_are_found_by_name() {
+        StateMachineDefinition again = PhoneStateMachine.phoneDefinition();
+
+        assertThat(again.getFingerprint()).isEqualTo(DEFINITION.getFingerprint());
+        assertThat(again.stateId(CONNECTED)).isEqualTo(DEFINITION.stateId(CONNECTED));
+        assertThat(DEFINITION.state(DEFINITION.stateId(RINGING)).getName()).isEqualTo(RINGING);
+        assertThat(DEFINITION.stateId("Unknown")).isEqualTo(-1);
+        assertThat(chain(3).getFingerprint()).isNotEqualTo(chain(4).getFingerprint());
+    }
+
+    @Test
+    public void packed_ids_round_trip() {
+        Random random = new Random(7);
+        for (int stateCount : new int[]{1, 2, 3, 7, 8, 100, 1000, 70000}) {
+            StateMachineDefinition definition = chain(stateCount);
+            for (int count : new int[]{0, 1, 63, 64, 65, 1000}) {
+                int[] ids = new int[count];
+                for (int i = 0; i < count; i++) {
+                    ids[i] = random.nextInt(stateCount + 1) - 1;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) StateMachineSnapshot.size(definition, count) + 4);
+                buffer.putInt(42);
+                StateMachineSnapshot.write(definition, ids, count, buffer);
+                assertThat(buffer.remaining()).isZero();
+
+                buffer.flip().position(4);
+                assertThat(StateMachineSnapshot.read(definition, buffer)).as(stateCount + " states").isEqualTo(ids);
+                assertThat(buffer.remaining()).isZero();
+            }
+        }
+    }
+
+    @Test
+    public void pool_round_trip_through_file_channel() throws IOException {
+        StateMachinePool pool = new StateMachinePool(DEFINITION, 4);
+        int[] ids = new int[5];
+        pool.allocate(ids);
+        pool.execute(ids[0], CALL_DIALED);
+        pool.execute(ids[1], CALL_DIALED);
+        pool.execute(ids[1], CALL_CONNECTED);
+        pool.free(ids[2]);
+
+        Path file = folder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            StateMachineSnapshot.write(pool, channel);
+        }
+        StateMachinePool restored = new StateMachinePool(DEFINITION, 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            StateMachineSnapshot.restore(restored, channel);
+            assertThat(channel.position()).isEqualTo(channel.size());
+        }
+
+        assertThat(restored.getActiveStateName(ids[0])).isEqualTo(RINGING);
+        assertThat(restored.getActiveStateName(ids[1])).isEqualTo(CONNECTED);
+        assertThat(restored.isAllocated(ids[2])).isFalse();
+        assertThat(restored.getActiveStateName(ids[4])).isEqualTo(OFF_HOOK);
+        assertThat(restored.size()).isEqualTo(4);
+        assertThat(restored.allocate()).isEqualTo(ids[2]);
+    }
+
+    @Test
+    public void sessions_are_restored_by_id() {
+        List<StateMachine> sessions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sessions.add(DEFINITION.newInstance());
+        }
+        sessions.get(1).execute(CALL_DIALED);
+        int[] ids = sessions.stream().mapToInt(StateMachine::getActiveStateId).toArray();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) StateMachineSnapshot.size(DEFINITION, ids.length));
+        StateMachineSnapshot.write(DEFINITION, ids, ids.length, buffer);
+        buffer.flip();
+
+        int[] read = StateMachineSnapshot.read(DEFINITION, buffer);
+        StateMachine restored = DEFINITION.newInstance();
+        restored.activeStateConfiguration(read[1]);
+
+        assertThat(restored.getActiveStateName()).isEqualTo(RINGING);
+    }
+
+    @Test
+    public void snapshot_of_incompatible_definition_is_rejected() {
+        StateMachineDefinition definition = chain(3);
+        ByteBuffer buffer = ByteBuffer.allocate((int) StateMachineSnapshot.size(definition, 2));
+        StateMachineSnapshot.write(definition, new int[]{0, 2}, 2, buffer);
+        buffer.flip();
+
+        try {
+            StateMachineSnapshot.read(DEFINITION, buffer);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessageContaining("is not compatible with Phone");
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(4, StateMachineSnapshot.VERSION + 1);
+        try {
+            StateMachineSnapshot.read(definition, buffer);
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessageContaining("version 2 is not supported");
+        }
+    }
+
+    private static StateMachineDefinition chain(int stateCount) {
+        List<State> states = new ArrayList<>();
+        for (int i = stateCount - 1; i >= 0; i--) {
+            SimpleState.StateBuilder builder = state("S" + i);
+            if (i < stateCount - 1) {
+                builder.transition("Next").guardedBy("Next").to(states.get(states.size() - 1));
+            }
+            states.add(builder.build());
+        }
+        State initial = states.get(states.size() - 1);
+        return definition("Chain").states(Arrays.asList(initial)).initialState(initial).build();
+    }
+}
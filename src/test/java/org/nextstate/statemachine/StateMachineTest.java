@@ -4,7 +4,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 import static org.nextstate.statemachine.SimpleState.state;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -50,6 +52,93 @@ public class StateMachineTest {
         assertThat(stateMachine.getActiveStateConfiguration()).containsSequence(FINAL_STATE);
     }
 
+    @Test
+    public void events_raised_by_actions_run_after_the_transition() {
+        List<String> log = new ArrayList<>();
+        StateMachine stateMachine = new StateMachine() {
+            {
+                SimpleState b = state("B").onEntry(() -> {
+                    log.add("enter B");
+                    execute("Back");
+                    log.add("raised Back");
+                }).build();
+                SimpleState a = state("A").onEntry(() -> log.add("enter A")).onExit(() -> log.add("exit A"))
+                        .transition("Go").guardedBy("Go").to(b)
+                        .build();
+                b.addTransition(new Transition("Back", a, "Back", () -> log.add("back")));
+                addStates(Arrays.asList(a, b));
+                activeState(a);
+            }
+        };
+        log.clear();
+
+        stateMachine.execute("Go");
+
+        assertThat(log).containsExactly("exit A", "enter B", "raised Back", "back", "enter A");
+        assertThat(stateMachine.getActiveStateName()).isEqualTo("A");
+    }
+
+    @Test
+    public void raised_events_are_executed_in_order() {
+        List<String> log = new ArrayList<>();
+        StateMachine stateMachine = new StateMachine() {
+            {
+                SimpleState a = state("A").build();
+                a.addTransition(new Transition("Start", a, "Start", () -> {
+                    for (int i = 0; i < 20; i++) {
+                        execute(i % 2 == 0 ? "Tick" : "Tock");
+                    }
+                }));
+                a.addTransition(new Transition("Tick", a, "Tick", () -> log.add("Tick")));
+                a.addTransition(new Transition("Tock", a, "Tock", () -> log.add("Tock")));
+                addStates(Arrays.asList(a));
+                activeState(a);
+            }
+        };
+
+        stateMachine.execute("Start");
+        stateMachine.execute("Start");
+
+        assertThat(log).hasSize(40);
+        for (int i = 0; i < log.size(); i++) {
+            assertThat(log.get(i)).isEqualTo(i % 2 == 0 ? "Tick" : "Tock");
+        }
+    }
+
+    @Test
+    public void event_storm_fails() {
+        int[] loops = new int[1];
+        StateMachine stateMachine = new StateMachine() {
+            {
+                SimpleState a = state("A").build();
+                a.addTransition(new Transition("Loop", a, "Loop", () -> {
+                    loops[0]++;
+                    execute("Loop");
+                }));
+                addStates(Arrays.asList(a));
+                activeState(a);
+            }
+        };
+        stateMachine.setMaxRaisedEvents(100);
+
+        try {
+            stateMachine.execute("Loop");
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("Event storm").contains("more than 100 events");
+        }
+        assertThat(loops[0]).isEqualTo(101);
+        stateMachine.setMaxRaisedEvents(0);
+        try {
+            stateMachine.execute("Loop");
+
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(loops[0]).isEqualTo(102);
+        }
+    }
+
     // ---- Helper classes for testing ----
     private class NoActiveStateMachine extends StateMachine {
     }
@@ -14,6 +14,7 @@ public class StateTest {
     private static final String FINAL = "Final";
 
     @Test
+    @SuppressWarnings("deprecation")
     public void transition_match() {
         SimpleState from = new SimpleState("From");
         State to = new SimpleState("To");
@@ -27,6 +28,47 @@ public class StateTest {
         assertThat(target.get().getName()).isEqualTo("To");
     }
 
+    @Test
+    public void compiled_transition_first_match_wins() {
+        SimpleState from = new SimpleState("From");
+        State first = new SimpleState("First");
+        State second = new SimpleState("Second");
+        from.addTransitions(transitions()
+                .transition(CALL_DIAL).guardedBy(CALL_DIALED)
+                .to(first)
+                .transition(CALL_DIAL).guardedBy(CALL_DIALED)
+                .to(second)
+                .build());
+        EventRegistry events = new EventRegistry();
+
+        from.compile(0, events);
+
+        assertThat(from.transitionFor(events.idOf(CALL_DIALED)).getTargetState()).isSameAs(first);
+        assertThat(from.transitionFor(EventRegistry.UNKNOWN_EVENT)).isNull();
+    }
+
+    @Test
+    public void compiled_transitions_are_indexed_from_the_lowest_event_of_the_state() {
+        EventRegistry events = new EventRegistry();
+        events.register("Earlier");
+        SimpleState from = new SimpleState("From");
+        State to = new SimpleState("To");
+        from.addTransitions(transitions()
+                .transition(CALL_DIAL).guardedBy(CALL_DIALED)
+                .to(to)
+                .transition(FINAL).guardedBy(FINAL)
+                .to(from)
+                .build());
+
+        from.compile(0, events);
+
+        assertThat(from.transitionFor(events.idOf(CALL_DIALED)).getTargetState()).isSameAs(to);
+        assertThat(from.transitionFor(events.idOf(FINAL)).getTargetState()).isSameAs(from);
+        assertThat(from.transitionFor(events.idOf("Earlier"))).isNull();
+        assertThat(from.transitionFor(events.register("Later"))).isNull();
+        assertThat(from.transitionFor(EventRegistry.UNKNOWN_EVENT)).isNull();
+    }
+
     @Test
     public void transition_to_final_state() {
         SimpleState from = new SimpleState("From");
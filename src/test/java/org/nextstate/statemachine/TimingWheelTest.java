@@ -0,0 +1,218 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class TimingWheelTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Settable clock in nanoseconds
+    private long now = 1_000_000_007L;
+    private final TimingWheel wheel = new TimingWheel(() -> now, Duration.ofMillis(1));
+
+    private static final class RecordingTimer extends TimingWheel.Timer {
+        final long deadline;
+        final List<Long> expiries;
+        final long[] clock;
+
+        RecordingTimer(long deadline, List<Long> expiries, long[] clock) {
+            this.deadline = deadline;
+            this.expiries = expiries;
+            this.clock = clock;
+        }
+
+        @Override protected void expired() {
+            expiries.add(clock[0]);
+            expiries.add(deadline);
+        }
+    }
+
+    private void advance(long millis) {
+        for (long i = 0; i < millis; i++) {
+            now += MILLI;
+            wheel.advance();
+        }
+    }
+
+    @Test
+    public void timers_on_all_levels_expire_at_their_deadline() {
+        Random random = new Random(7);
+        long[] tick = new long[1];
+        List<Long> expiries = new ArrayList<>();
+        List<RecordingTimer> timers = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long delay = i % 4 == 0 ? random.nextInt(256) : random.nextInt(1 << (8 + 4 * (i % 4)));
+            RecordingTimer timer = new RecordingTimer(delay, expiries, tick);
+            wheel.schedule(timer, Duration.ofMillis(delay));
+            timers.add(timer);
+        }
+        for (int i = 0; i < timers.size(); i += 3) {
+            timers.get(i).cancel();
+        }
+        // On the top level
+        long farDelay = (1 << 24) + 5;
+        RecordingTimer far = new RecordingTimer(farDelay, expiries, tick);
+        wheel.schedule(far, Duration.ofMillis(farDelay));
+        assertThat(wheel.size()).isEqualTo(2000 - 667 + 1);
+
+        long expired = 0;
+        for (tick[0] = 1; tick[0] <= farDelay; tick[0]++) {
+            now += MILLI;
+            expired += wheel.advance();
+        }
+
+        assertThat(expired).isEqualTo(2000 - 667 + 1);
+        assertThat(expiries.get(expiries.size() - 1)).isEqualTo(farDelay);
+        assertThat(wheel.size()).isZero();
+        for (int i = 0; i < expiries.size(); i += 2) {
+            // A zero delay expires on the next tick
+            assertThat(expiries.get(i)).isEqualTo(Math.max(expiries.get(i + 1), 1));
+        }
+        for (int i = 0; i < timers.size(); i++) {
+            assertThat(timers.get(i).isScheduled()).isFalse();
+        }
+    }
+
+    @Test
+    public void delay_is_rounded_up_to_the_next_tick_and_overdue_timers_expire_on_the_next_advance() {
+        List<Long> expiries = new ArrayList<>();
+        long[] clock = new long[1];
+        now += MILLI / 2;
+        wheel.schedule(new RecordingTimer(2, expiries, clock), MILLI + 1);
+
+        advance(1);
+        assertThat(expiries).isEmpty();
+        advance(1);
+        assertThat(expiries).containsExactly(0L, 2L);
+
+        // Not advanced for a second
+        wheel.schedule(new RecordingTimer(10, expiries, clock), Duration.ofMillis(10));
+        now += 1000 * MILLI;
+        clock[0] = 1;
+        assertThat(wheel.advance()).isEqualTo(1);
+        assertThat(expiries).containsExactly(0L, 2L, 1L, 10L);
+    }
+
+    @Test
+    public void timed_transition_is_taken_unless_the_state_is_left() {
+        SimpleState offHook = state("OffHook").build();
+        SimpleState connected = state("Connected").build();
+        SimpleState ringing = state("Ringing")
+                .transition("NoAnswer").after(Duration.ofSeconds(30)).to(offHook)
+                .transition("Answer").guardedBy("CallConnected").to(connected)
+                .build();
+        offHook.addTransition(new Transition("CallDialed", ringing, "Dial", null));
+        connected.addTransition(new Transition("HungUp", offHook, "HangUp", null));
+        StateMachineDefinition phone = definition("Phone").states(Arrays.asList(offHook, ringing, connected))
+                .initialState(offHook).timingWheel(wheel).build();
+        StateMachine answered = phone.newInstance();
+        StateMachine unanswered = phone.newInstance();
+
+        answered.execute("CallDialed");
+        unanswered.execute("CallDialed");
+        assertThat(wheel.size()).isEqualTo(2);
+        advance(10_000);
+        answered.execute("CallConnected");
+        assertThat(wheel.size()).isEqualTo(1);
+        advance(19_999);
+        assertThat(unanswered.getActiveStateName()).isEqualTo("Ringing");
+        advance(1);
+
+        assertThat(unanswered.getActiveStateName()).isEqualTo("OffHook");
+        assertThat(answered.getActiveStateName()).isEqualTo("Connected");
+        assertThat(wheel.size()).isZero();
+        assertThat(phone.eventId("after PT30S")).isNotNegative();
+    }
+
+    @Test
+    public void timer_of_a_composite_state_runs_while_in_its_substates() {
+        SimpleState idle = state("Idle").build();
+        SimpleState dialing = state("Dialing").build();
+        SimpleState waiting = state("Waiting").build();
+        SimpleState call = state("Call").substates(dialing, waiting)
+                .transition("Timeout").after(Duration.ofMillis(500)).to(idle)
+                .build();
+        dialing.addTransition(new Transition("Dialed", waiting, "Dialed", null));
+        waiting.addTransition(new Transition("Redial", dialing, "Redial", null));
+        idle.addTransition(new Transition("Call", call, "Call", null));
+        StateMachine stateMachine = definition("Calls").states(Arrays.asList(idle, call)).initialState(idle).build()
+                .newInstance();
+        stateMachine.setTimingWheel(wheel);
+
+        stateMachine.execute("Call");
+        advance(200);
+        stateMachine.execute("Dialed");
+        stateMachine.execute("Redial");
+        advance(299);
+        assertThat(stateMachine.getActiveStateName()).isEqualTo("Dialing");
+        advance(1);
+
+        assertThat(stateMachine.getActiveStateName()).isEqualTo("Idle");
+        stateMachine.activeStateConfiguration("Waiting");
+        assertThat(wheel.size()).isEqualTo(1);
+        stateMachine.activeStateConfiguration("Idle");
+        assertThat(wheel.size()).isZero();
+    }
+
+    /**
+     * Ringing -Busy-> OffHook on Timeout, Ringing -NoAnswer after 30s-> Voicemail also on Timeout
+     */
+    private StateMachineDefinition voicemail() {
+        SimpleState offHook = state("OffHook").build();
+        SimpleState voicemail = state("Voicemail").build();
+        SimpleState ringing = state("Ringing")
+                .transition("Busy").guardedBy("Timeout").to(offHook)
+                .transition("NoAnswer").guardedBy("Timeout").after(Duration.ofSeconds(30)).to(voicemail)
+                .build();
+        offHook.addTransition(new Transition("Dial", ringing, "Dial", null));
+        return definition("Voicemail").states(Arrays.asList(offHook, ringing, voicemail)).initialState(offHook)
+                .timingWheel(wheel).build();
+    }
+
+    @Test
+    public void timer_takes_its_own_transition_when_another_shares_the_guard_event() {
+        StateMachine phone = voicemail().newInstance();
+
+        phone.execute("Dial");
+        advance(30_000);
+
+        assertThat(phone.getActiveStateName()).isEqualTo("Voicemail");
+    }
+
+    @Test
+    public void expired_timers_of_a_concurrent_machine_are_queued_like_events() {
+        ConcurrentStateMachine phone = new ConcurrentStateMachine(voicemail().newInstance());
+        phone.execute("Dial");
+
+        advance(30_000);
+
+        // Published by the queue of the concurrent machine
+        assertThat(phone.getActiveStateName()).isEqualTo("Voicemail");
+    }
+
+    @Test
+    public void timer_cancelled_after_it_expired_is_not_taken() {
+        StateMachine phone = voicemail().newInstance();
+        List<Runnable> fired = new ArrayList<>();
+        phone.setTimerExecutor(fired::add);
+        phone.execute("Dial");
+        advance(30_000);
+        assertThat(fired).hasSize(1);
+
+        phone.execute("Timeout");
+        fired.get(0).run();
+
+        assertThat(phone.getActiveStateName()).isEqualTo("OffHook");
+    }
+}
@@ -0,0 +1,88 @@
+package org.nextstate.statemachine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.nextstate.statemachine.SimpleState.state;
+import static org.nextstate.statemachine.StateMachineDefinition.definition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("checkstyle:methodname")
+public class TransitionListenerTest {
+
+    @Test
+    public void listener_is_notified() {
+        StateMachineDefinition definition = aToB();
+        RecordingListener listener = new RecordingListener();
+        definition.addListener(listener);
+        StateMachine stateMachine = definition.newInstance();
+
+        stateMachine.execute("Go");
+        stateMachine.execute("Unknown");
+        stateMachine.execute(definition.eventId("Go"));
+
+        assertThat(listener.calls).containsExactly("entry A", "before A Go", "taken AtoB Go", "exit A", "entry B",
+                "before B Unknown", "unmatched B Unknown", "before B Go", "unmatched B Go");
+    }
+
+    @Test
+    public void pool_notifies_listener() {
+        StateMachineDefinition definition = aToB();
+        RecordingListener listener = new RecordingListener();
+        definition.addListener(listener);
+        StateMachinePool pool = new StateMachinePool(definition, 1);
+        int instance = pool.allocate();
+
+        pool.executeAll(new int[] {instance, instance}, new int[] {definition.eventId("Go"), -1});
+
+        assertThat(listener.calls).containsExactly("entry A", "before A Go", "taken AtoB Go", "exit A", "entry B",
+                "before B null", "unmatched B null");
+    }
+
+    @Test
+    public void removed_listener_is_not_notified() {
+        StateMachineDefinition definition = aToB();
+        RecordingListener listener = new RecordingListener();
+        definition.addListener(new LoggingTransitionListener());
+        definition.addListener(listener);
+        definition.removeListener(listener);
+
+        definition.newInstance().execute("Go");
+
+        assertThat(listener.calls).isEmpty();
+    }
+
+    private static StateMachineDefinition aToB() {
+        SimpleState b = state("B").build();
+        State a = state("A").transition("AtoB").guardedBy("Go").to(b).build();
+        return definition("AtoB").states(Arrays.asList(a, b)).initialState(a).build();
+    }
+
+    private static class RecordingListener implements TransitionListener {
+        final List<String> calls = new ArrayList<>();
+
+        @Override public void beforeEvent(StateMachineDefinition definition, State activeState, String event) {
+            calls.add("before " + activeState.getName() + " " + event);
+        }
+
+        @Override public void transitionTaken(StateMachineDefinition definition, State source, Transition transition,
+                                              String event) {
+            calls.add("taken " + transition.getName() + " " + event);
+        }
+
+        @Override public void eventUnmatched(StateMachineDefinition definition, State activeState, String event) {
+            calls.add("unmatched " + activeState.getName() + " " + event);
+        }
+
+        @Override public void exitExecuted(StateMachineDefinition definition, State state) {
+            calls.add("exit " + state.getName());
+        }
+
+        @Override public void entryExecuted(StateMachineDefinition definition, State state) {
+            calls.add("entry " + state.getName());
+        }
+    }
+}